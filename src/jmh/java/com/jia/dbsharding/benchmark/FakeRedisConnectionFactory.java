@@ -0,0 +1,82 @@
+package com.jia.dbsharding.benchmark;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的假 redis，只实现了缓存用到的 GET、SET、MGET、DEL，基准测试不需要真正的 redis
+ */
+public class FakeRedisConnectionFactory implements RedisConnectionFactory {
+
+    private final ConcurrentHashMap<ByteBuffer, byte[]> store = new ConcurrentHashMap<>();
+    private final RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(
+            RedisConnection.class.getClassLoader(), new Class<?>[]{RedisConnection.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "get":
+                        return store.get(ByteBuffer.wrap((byte[]) args[0]));
+                    case "set":
+                        store.put(ByteBuffer.wrap((byte[]) args[0]), (byte[]) args[1]);
+                        return true;
+                    case "mGet":
+                        List<byte[]> values = new ArrayList<>();
+                        for (byte[] key : (byte[][]) args[0]) {
+                            values.add(store.get(ByteBuffer.wrap(key)));
+                        }
+                        return values;
+                    case "del":
+                        long deleted = 0;
+                        for (byte[] key : (byte[][]) args[0]) {
+                            deleted += store.remove(ByteBuffer.wrap(key)) != null ? 1 : 0;
+                        }
+                        return deleted;
+                    case "isPipelined":
+                    case "isQueueing":
+                    case "isClosed":
+                        return false;
+                    case "close":
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "FakeRedisConnection";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+    @Override
+    public RedisConnection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return true;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+}
@@ -0,0 +1,59 @@
+package com.jia.dbsharding.benchmark;
+
+import com.jia.dbsharding.aop.DynamicDataSourceAop;
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.RoutingDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DynamicDataSourceAop 的额外开销：同一个方法直接调用和经过路由代理调用的对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingAdviceBenchmark {
+
+    public static class UserReader {
+        @RoutingDataSource(value = "masterDB", readOnly = true)
+        public String read() {
+            return DataSourceHolder.getDB();
+        }
+    }
+
+    private UserReader direct;
+    private UserReader advised;
+
+    @Setup
+    public void setUp() {
+        direct = new UserReader();
+        ProxyFactory factory = new ProxyFactory(direct);
+        factory.setProxyTargetClass(true);
+        factory.addAdvisor(new DynamicDataSourceAop());
+        advised = (UserReader) factory.getProxy();
+    }
+
+    @Benchmark
+    public String direct() {
+        return direct.read();
+    }
+
+    @Benchmark
+    public String advised() {
+        return advised.read();
+    }
+}
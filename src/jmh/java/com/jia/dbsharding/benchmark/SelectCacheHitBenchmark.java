@@ -0,0 +1,121 @@
+package com.jia.dbsharding.benchmark;
+
+import com.jia.dbsharding.batch.InsertCoalescer;
+import com.jia.dbsharding.cache.TwoLevelCache;
+import com.jia.dbsharding.codec.DBEntityCodec;
+import com.jia.dbsharding.config.RedisConfig;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.readwrite.ReadYourWritesTracker;
+import com.jia.dbsharding.service.DBServiceImpl;
+import com.jia.dbsharding.sharding.ModShardingAlgorithm;
+import com.jia.dbsharding.sharding.ShardBloomFilter;
+import com.jia.dbsharding.sharding.ShardingExecutor;
+import com.jia.dbsharding.sharding.ShardingInterceptor;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.TableRule;
+import com.jia.dbsharding.util.RedisTemplateUtil;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DBServiceImpl.select 的缓存命中路径，数据库用 H2，redis 用 FakeRedisConnectionFactory
+ * tier=near 时命中进程内缓存，tier=redis 时关闭近端缓存，每次都经过 RedisTemplate 和序列化
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectCacheHitBenchmark {
+
+    private static final int USERS = 1000;
+    private static final int TABLES = 16;
+
+    @Param({"near", "redis"})
+    public String tier;
+
+    private DBServiceImpl service;
+    private ShardingExecutor executor;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws SQLException {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:select-benchmark;DB_CLOSE_DELAY=-1");
+        try (Connection connection = h2.getConnection(); Statement statement = connection.createStatement()) {
+            for (int table = 0; table < TABLES; table++) {
+                statement.execute("CREATE TABLE IF NOT EXISTS user_" + table + " (id INT PRIMARY KEY, name CHAR(20) NOT NULL)");
+            }
+            for (int id = 1; id <= USERS; id++) {
+                statement.execute("MERGE INTO user_" + (id % TABLES) + " VALUES (" + id + ", 'user" + id + "')");
+            }
+        }
+        Configuration configuration = new Configuration(new Environment("benchmark", new JdbcTransactionFactory(), h2));
+        ShardingRule rule = new ShardingRule(Collections.singletonList(new TableRule("user", "id",
+                Arrays.asList("ds0", "ds1", "ds2", "ds3"), TABLES, new ModShardingAlgorithm())));
+        executor = new ShardingExecutor(1, 1, 1000);
+        configuration.addInterceptor(new ShardingInterceptor(rule, executor, 1024));
+        configuration.addMapper(DBMapper.class);
+        SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+        DBMapper mapper = SqlSessionManager.newInstance(sqlSessionFactory).getMapper(DBMapper.class);
+
+        RedisTemplateUtil redis = new RedisTemplateUtil(new RedisConfig().redisTemplate(new FakeRedisConnectionFactory(),
+                Collections.singletonList(new DBEntityCodec())));
+        TwoLevelCache cache = new TwoLevelCache(redis,
+                "near".equals(tier) ? TwoLevelCache.newNearCache(USERS * 2, TimeUnit.HOURS.toMillis(1)) : null,
+                "benchmark", 1000);
+        ReadYourWritesTracker tracker = new ReadYourWritesTracker(new ReadWriteRouter(Collections.emptyList()), 1000, 0);
+        ObjectProvider<InsertCoalescer<DBEntity>> noCoalescer =
+                (ObjectProvider) new DefaultListableBeanFactory().getBeanProvider(InsertCoalescer.class);
+        ObjectProvider<ShardBloomFilter> noBloomFilter =
+                new DefaultListableBeanFactory().getBeanProvider(ShardBloomFilter.class);
+        service = new DBServiceImpl(mapper, cache, rule, () -> 0, tracker, executor, noCoalescer, noBloomFilter);
+
+        // 预热缓存，之后的调用都是命中
+        for (int id = 1; id <= USERS; id++) {
+            service.select(id);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    public DBEntity select() {
+        next = next == USERS ? 1 : next + 1;
+        return service.select(next);
+    }
+}
@@ -0,0 +1,62 @@
+package com.jia.dbsharding.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jia.dbsharding.codec.CompactRedisSerializer;
+import com.jia.dbsharding.codec.DBEntityCodec;
+import com.jia.dbsharding.entity.DBEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis value 序列化一次往返（serialize + deserialize）的耗时：RedisConfig 原来的 Jackson 和二进制编码对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    private Jackson2JsonRedisSerializer<Object> json;
+    private CompactRedisSerializer compact;
+    private DBEntity entity;
+
+    @Setup
+    public void setUp() {
+        json = new Jackson2JsonRedisSerializer<>(Object.class);
+        ObjectMapper om = new ObjectMapper();
+        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        om.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+        json.setObjectMapper(om);
+        compact = new CompactRedisSerializer(Collections.singletonList(new DBEntityCodec()), json);
+
+        entity = new DBEntity();
+        entity.setId(123456);
+        entity.setName("jia");
+    }
+
+    @Benchmark
+    public Object jackson() {
+        return json.deserialize(json.serialize(entity));
+    }
+
+    @Benchmark
+    public Object compact() {
+        return compact.deserialize(compact.serialize(entity));
+    }
+}
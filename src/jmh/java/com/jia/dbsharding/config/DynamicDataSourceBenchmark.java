@@ -0,0 +1,76 @@
+package com.jia.dbsharding.config;
+
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.readwrite.Replica;
+import com.jia.dbsharding.readwrite.ReplicaGroup;
+import com.jia.dbsharding.readwrite.RoundRobinLoadBalancer;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingTarget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DynamicDataSource.determineCurrentLookupKey 在不同路由方式下的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DynamicDataSourceBenchmark {
+
+    private DynamicDataSource dataSource;
+    private final Route writeRoute = Route.of(DataSources.MASTER_DB, false);
+    private final Route readRoute = Route.of(DataSources.MASTER_DB, true);
+    private final ShardingTarget shard = new ShardingTarget("ds1", "user_5");
+
+    @Setup
+    public void setUp() {
+        ReplicaGroup group = new ReplicaGroup(DataSources.MASTER_DB,
+                Arrays.asList(new Replica("slaveDB", 1), new Replica("slaveDB2", 1)), new RoundRobinLoadBalancer());
+        dataSource = new DynamicDataSource(new ReadWriteRouter(Collections.singletonList(group)));
+    }
+
+    @Benchmark
+    public Object master() {
+        DataSourceHolder.push(writeRoute);
+        try {
+            return dataSource.determineCurrentLookupKey();
+        } finally {
+            DataSourceHolder.pop();
+        }
+    }
+
+    @Benchmark
+    public Object readReplica() {
+        DataSourceHolder.push(readRoute);
+        try {
+            return dataSource.determineCurrentLookupKey();
+        } finally {
+            DataSourceHolder.pop();
+        }
+    }
+
+    @Benchmark
+    public Object shard() {
+        ShardingContext.set(shard);
+        try {
+            return dataSource.determineCurrentLookupKey();
+        } finally {
+            ShardingContext.clear();
+        }
+    }
+}
@@ -1,18 +1,33 @@
 package com.jia.dbsharding;
 
 import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.service.AsyncDBService;
 import com.jia.dbsharding.service.DBService;
+import com.jia.dbsharding.service.ExportService;
+import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.annotation.AfterThrowing;
 import org.mybatis.spring.annotation.MapperScan;
 import org.mybatis.spring.boot.autoconfigure.MybatisAutoConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+@Slf4j
 @SpringBootApplication(exclude = MybatisAutoConfiguration.class)
 @MapperScan("com.jia.dbsharding.mapper")
 @Controller
@@ -25,6 +40,12 @@ public class DbShardingApplication {
     @Autowired
     private DBService service;
 
+    @Autowired
+    private AsyncDBService asyncService;
+
+    @Autowired
+    private ExportService exportService;
+
     @GetMapping("/select")
     public String select(@RequestParam("id") Integer id){
         DBEntity dbEntity = service.select(id);
@@ -32,6 +53,30 @@ public class DbShardingApplication {
         return "OK";
     }
 
+    @GetMapping("/selectBatch")
+    public String selectBatch(@RequestParam("ids") List<Integer> ids){
+        List<DBEntity> entities = service.selectBatch(ids);
+        log.debug("selectBatch 查询 {} 个 id", entities.size());
+        return "OK";
+    }
+
+    @GetMapping("/list")
+    public String list(@RequestParam(value = "afterId", defaultValue = "0") Long afterId,
+                       @RequestParam(value = "limit", defaultValue = "20") Integer limit){
+        List<DBEntity> entities = service.list(afterId, limit);
+        log.debug("list afterId = {} 返回 {} 行", afterId, entities.size());
+        return "OK";
+    }
+
+    @GetMapping("/selectByName")
+    public String selectByName(@RequestParam("name") String name,
+                               @RequestParam(value = "afterId", defaultValue = "0") Long afterId,
+                               @RequestParam(value = "limit", defaultValue = "20") Integer limit){
+        List<DBEntity> entities = service.selectByName(name, afterId, limit);
+        log.debug("selectByName afterId = {} 返回 {} 行", afterId, entities.size());
+        return "OK";
+    }
+
     @GetMapping("/insert")
     public String insert(@RequestParam("name") String name){
         System.out.println("name = " + name);
@@ -39,4 +84,58 @@ public class DbShardingApplication {
         return "OK";
     }
 
+    /**
+     * 异步接口：查询在 id 所在分片的舱壁线程池中执行，不占用容器线程
+     */
+    @GetMapping("/async/select")
+    public CompletableFuture<String> asyncSelect(@RequestParam("id") Integer id){
+        return asyncService.select(id).thenApply(dbEntity -> {
+            log.debug("async select {}：{}", id, dbEntity);
+            return "OK";
+        });
+    }
+
+    @GetMapping("/async/insert")
+    public CompletableFuture<String> asyncInsert(@RequestParam("name") String name){
+        log.debug("async insert name = {}", name);
+        return asyncService.insertName(name).thenApply(id -> "OK");
+    }
+
+    /**
+     * 流式导出整张 user 表，各分片并发读取，内存占用和表的大小无关
+     * 直接写在容器线程中，不受异步接口 3 秒超时的限制；中途失败时连接断开，客户端收到的是不完整的分块响应
+     * 同时进行的导出达到 sharding.export.max-concurrent-exports 时返回 503
+     * @param format ndjson 或 csv
+     */
+    @GetMapping("/export")
+    public void export(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                       HttpServletResponse response) throws IOException {
+        ExportService.Format exportFormat = ExportService.Format.of(format);
+        response.setContentType(exportFormat.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=user." + exportFormat.getExtension());
+        long rows = exportService.exportUsers(exportFormat, response.getOutputStream());
+        log.debug("导出 {} 行", rows);
+    }
+
+    /**
+     * 参数不合法，例如分页参数越界、不支持的导出格式
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    public String badRequest(IllegalArgumentException e){
+        return e.getMessage();
+    }
+
+    /**
+     * 分片的舱壁队列已满，或者同时进行的导出太多
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public String rejected(RejectedExecutionException e){
+        return e.getMessage();
+    }
+
 }
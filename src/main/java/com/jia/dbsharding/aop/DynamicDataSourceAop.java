@@ -1,58 +1,94 @@
 package com.jia.dbsharding.aop;
 
 import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
 import com.jia.dbsharding.config.RoutingDataSource;
-import org.aspectj.lang.JoinPoint;
-import org.aspectj.lang.Signature;
-import org.aspectj.lang.annotation.After;
-import org.aspectj.lang.annotation.Aspect;
-import org.aspectj.lang.annotation.Before;
-import org.aspectj.lang.reflect.MethodSignature;
+import org.aopalliance.aop.Advice;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.support.AbstractPointcutAdvisor;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.stereotype.Component;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 拦截所有有 @RoutingDataSource 的方法，动态给它指定数据源
+ * 注解可以写在方法、类或者接口上，方法上的优先；
+ * 每个方法的路由只在创建代理时解析一次，之后每次调用只查一次路由表
  */
-@Aspect
 @Component
-public class DynamicDataSourceAop {
+public class DynamicDataSourceAop extends AbstractPointcutAdvisor implements MethodInterceptor {
 
     /**
-     * 在访问添加 @RoutingDataSource 注解前，切换到对应的数据源
-     *
+     * 目标类 -> 方法 -> 路由
      */
-    @Before("@annotation(com.jia.dbsharding.config.RoutingDataSource)")
-    public void doBeforeSwitchDataSource(JoinPoint point){
-        // 获取当前访问的类类型
-        Class<?> className = point.getTarget().getClass();
-
-        // 获得访问的方法名
-        String methodName = point.getSignature().getName();
-        Signature signature = point.getSignature();
-        MethodSignature methodSignature = (MethodSignature)signature;
-        // 等到方法的参数
-        Class[] argClass = methodSignature.getParameterTypes();
-        String dataSource = DataSourceHolder.DEFALUT_DATASOURCE;
-        try{
-            // 获取访问的方法对象
-            Method method = className.getMethod(methodName, argClass);
-            // 判断是否有 @RoutingDataSource 注解
-            if(method.isAnnotationPresent(RoutingDataSource.class)){
-                RoutingDataSource annotation = method.getAnnotation(RoutingDataSource.class);
-                // 取出注解中的值
-                dataSource = annotation.value();
-            }
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
+    private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Method, Route>> routeTable = new ConcurrentHashMap<>();
+
+    private final Pointcut pointcut = new StaticMethodMatcherPointcut() {
+        @Override
+        public boolean matches(Method method, Class<?> targetClass) {
+            return resolve(method, targetClass) != Route.NONE;
+        }
+    };
+
+    @Override
+    public Pointcut getPointcut() {
+        return pointcut;
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return this;
+    }
+
+    /**
+     * 进入方法时压入路由，返回或者抛出异常后弹出，恢复外层方法的数据源
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object target = invocation.getThis();
+        Class<?> targetClass = target != null ? AopUtils.getTargetClass(target) : invocation.getMethod().getDeclaringClass();
+        Route route = resolve(invocation.getMethod(), targetClass);
+        if (route == Route.NONE) {
+            return invocation.proceed();
         }
-        System.out.println("dataSource: " + dataSource);
-        DataSourceHolder.setDB(dataSource);
+        DataSourceHolder.push(route);
+        try {
+            return invocation.proceed();
+        } finally {
+            DataSourceHolder.pop();
+        }
+    }
+
+    Route resolve(Method method, Class<?> targetClass) {
+        ConcurrentHashMap<Method, Route> routes = routeTable.get(targetClass);
+        if (routes == null) {
+            routes = routeTable.computeIfAbsent(targetClass, key -> new ConcurrentHashMap<>());
+        }
+        Route route = routes.get(method);
+        if (route == null) {
+            route = routes.computeIfAbsent(method, key -> parse(key, targetClass));
+        }
+        return route;
     }
 
-    @After("@annotation(com.jia.dbsharding.config.RoutingDataSource)")
-    public void doAfterSwitchDataSource(JoinPoint point){
-        DataSourceHolder.cleanDB();
+    /**
+     * 依次查找实现类的方法、接口或父类中的同名方法、实现类、接口或父类上的注解
+     */
+    private static Route parse(Method method, Class<?> targetClass) {
+        Method specificMethod = AopUtils.getMostSpecificMethod(method, targetClass);
+        RoutingDataSource annotation = AnnotatedElementUtils.findMergedAnnotation(specificMethod, RoutingDataSource.class);
+        if (annotation == null && specificMethod != method) {
+            annotation = AnnotatedElementUtils.findMergedAnnotation(method, RoutingDataSource.class);
+        }
+        if (annotation == null) {
+            annotation = AnnotatedElementUtils.findMergedAnnotation(targetClass, RoutingDataSource.class);
+        }
+        return annotation == null ? Route.NONE : Route.of(annotation.value(), annotation.readOnly());
     }
 }
@@ -0,0 +1,239 @@
+package com.jia.dbsharding.batch;
+
+import com.jia.dbsharding.sharding.ShardingTarget;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 合并并发的单行插入：每张物理表一个缓冲区，攒够 maxBatchSize 行或者等待 maxDelayMillis 后，
+ * 用一条多行 INSERT 写入，一次提交代替多次提交
+ * 批量写入失败时逐行重试，每个调用方只收到自己那一行的结果
+ */
+@Slf4j
+public class InsertCoalescer<T> {
+
+    /**
+     * 批量大小的分布：1、2、3-4、5-8 ... 按 2 的幂分桶
+     */
+    private static final int HISTOGRAM_BUCKETS = 12;
+
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final long timeoutMillis;
+    private final BiConsumer<ShardingTarget, List<T>> batchWriter;
+    private final BiConsumer<ShardingTarget, T> rowWriter;
+    private final ConcurrentHashMap<ShardingTarget, Buffer> buffers = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor flusher;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder sizeTriggered = new LongAdder();
+    private final LongAdder batchFailures = new LongAdder();
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+    /**
+     * @param batchWriter 写入一批数据，例如多行 INSERT
+     * @param rowWriter 批量写入失败后逐行重试
+     * @param flushThreads 执行定时刷新的线程数
+     */
+    public InsertCoalescer(int maxBatchSize, long maxDelayMillis, long timeoutMillis, int flushThreads,
+                           BiConsumer<ShardingTarget, List<T>> batchWriter, BiConsumer<ShardingTarget, T> rowWriter) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.batchWriter = batchWriter;
+        this.rowWriter = rowWriter;
+        AtomicInteger sequence = new AtomicInteger();
+        this.flusher = new ScheduledThreadPoolExecutor(flushThreads, r -> {
+            Thread thread = new Thread(r, "insert-coalescer-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 放入缓冲区并等待写入完成
+     * 超时时这一行还在缓冲区中就撤回，保证没有写入；已经开始写入的无法撤回，抛出的异常说明结果未知
+     */
+    public void insert(ShardingTarget target, T row) {
+        Buffer buffer = buffer(target);
+        Pending<T> entry = buffer.add(row);
+        try {
+            entry.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (buffer.remove(entry)) {
+                throw new IllegalStateException("等待批量插入时被中断，这一行没有写入", e);
+            }
+            throw new IllegalStateException("等待批量插入时被中断，这一行已经在写入，结果未知", e);
+        } catch (TimeoutException e) {
+            if (buffer.remove(entry)) {
+                throw new IllegalStateException("等待批量插入超时，这一行没有写入", e);
+            }
+            throw new IllegalStateException("等待批量插入超时，这一行已经在写入，结果未知", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("批量插入失败", e.getCause());
+        }
+    }
+
+    public CompletableFuture<Void> submit(ShardingTarget target, T row) {
+        return buffer(target).add(row).result;
+    }
+
+    private Buffer buffer(ShardingTarget target) {
+        Buffer buffer = buffers.get(target);
+        if (buffer == null) {
+            buffer = buffers.computeIfAbsent(target, Buffer::new);
+        }
+        return buffer;
+    }
+
+    /**
+     * 批量大小的统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long flushCount = flushes.sum();
+        long rowCount = rows.sum();
+        stats.put("flushes", flushCount);
+        stats.put("rows", rowCount);
+        stats.put("averageBatchSize", flushCount == 0 ? 0 : (double) rowCount / flushCount);
+        stats.put("sizeTriggered", sizeTriggered.sum());
+        stats.put("batchFailures", batchFailures.sum());
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            long count = histogram.get(i);
+            if (count > 0) {
+                sizes.put("<=" + (1 << i), count);
+            }
+        }
+        stats.put("batchSizes", sizes);
+        return stats;
+    }
+
+    public void close() {
+        flusher.shutdown();
+        buffers.values().forEach(Buffer::flush);
+    }
+
+    private void write(ShardingTarget target, List<Pending<T>> batch) {
+        flushes.increment();
+        rows.add(batch.size());
+        histogram.incrementAndGet(Math.min(HISTOGRAM_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(batch.size() - 1)));
+        List<T> values = new ArrayList<>(batch.size());
+        for (Pending<T> pending : batch) {
+            values.add(pending.row);
+        }
+        try {
+            batchWriter.accept(target, values);
+            for (Pending<T> pending : batch) {
+                pending.result.complete(null);
+            }
+            return;
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            batchFailures.increment();
+            log.warn("{} 批量插入 {} 行失败，改为逐行插入：{}", target, batch.size(), e.getMessage());
+        }
+        for (Pending<T> pending : batch) {
+            try {
+                rowWriter.accept(target, pending.row);
+                pending.result.complete(null);
+            } catch (RuntimeException e) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Pending<T> {
+        private final T row;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Pending(T row) {
+            this.row = row;
+        }
+    }
+
+    private final class Buffer {
+        private final ShardingTarget target;
+        private List<Pending<T>> pending = new ArrayList<>();
+
+        /**
+         * 当前这一批的定时刷新，攒满提前写入时取消，避免它提前刷新下一批
+         */
+        private ScheduledFuture<?> timer;
+
+        private Buffer(ShardingTarget target) {
+            this.target = target;
+        }
+
+        Pending<T> add(T row) {
+            Pending<T> entry = new Pending<>(row);
+            List<Pending<T>> full = null;
+            synchronized (this) {
+                pending.add(entry);
+                if (pending.size() >= maxBatchSize) {
+                    full = drain();
+                } else if (pending.size() == 1) {
+                    // 第一行进入缓冲区时开始计时
+                    timer = flusher.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (full != null) {
+                // 攒满的调用方自己执行写入，反正它也要等待结果
+                sizeTriggered.increment();
+                write(target, full);
+            }
+            return entry;
+        }
+
+        /**
+         * @return 还没有开始写入、已经从缓冲区撤回时返回 true
+         */
+        synchronized boolean remove(Pending<T> entry) {
+            return pending.remove(entry);
+        }
+
+        void flush() {
+            List<Pending<T>> batch;
+            synchronized (this) {
+                batch = drain();
+            }
+            if (!batch.isEmpty()) {
+                write(target, batch);
+            }
+        }
+
+        private List<Pending<T>> drain() {
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            List<Pending<T>> batch = pending;
+            pending = new ArrayList<>();
+            return batch;
+        }
+    }
+}
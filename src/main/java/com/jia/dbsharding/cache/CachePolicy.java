@@ -0,0 +1,62 @@
+package com.jia.dbsharding.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一类缓存数据在 redis 中的过期策略
+ * 实际过期时间在 ttl 的基础上随机增加最多 jitter 比例，同一时刻写入的 key 不会在同一时刻过期；
+ * 读到剩余时间不足 refreshAhead 比例的 key 时在后台重新加载，调用方继续拿到当前的值
+ */
+public class CachePolicy {
+
+    /**
+     * 不过期，也不提前刷新
+     */
+    public static final CachePolicy NONE = new CachePolicy(0, 0, 0);
+
+    private final long ttlMillis;
+    private final double jitter;
+    private final double refreshAhead;
+
+    /**
+     * @param ttlMillis 过期时间，0 表示不过期
+     * @param jitter 随机增加的过期时间占 ttl 的比例，0 到 1
+     * @param refreshAhead 剩余时间低于 ttl 的这个比例时提前刷新，0 表示不提前刷新
+     */
+    public CachePolicy(long ttlMillis, double jitter, double refreshAhead) {
+        if (ttlMillis < 0 || jitter < 0 || jitter > 1 || refreshAhead < 0 || refreshAhead >= 1) {
+            throw new IllegalArgumentException("缓存过期策略不合法：ttl=" + ttlMillis + ", jitter=" + jitter + ", refreshAhead=" + refreshAhead);
+        }
+        this.ttlMillis = ttlMillis;
+        this.jitter = jitter;
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * 这次写入使用的过期时间，0 表示不过期
+     */
+    public long nextTtlMillis() {
+        if (ttlMillis == 0 || jitter == 0) {
+            return ttlMillis;
+        }
+        return ttlMillis + (long) (ThreadLocalRandom.current().nextDouble() * jitter * ttlMillis);
+    }
+
+    public boolean isRefreshAhead() {
+        return ttlMillis > 0 && refreshAhead > 0;
+    }
+
+    /**
+     * @param remainingMillis redis 返回的剩余过期时间，-1 表示没有设置过期时间（旧版本写入的 key），也需要刷新以设置过期时间
+     */
+    public boolean shouldRefresh(long remainingMillis) {
+        if (!isRefreshAhead()) {
+            return false;
+        }
+        return remainingMillis == -1 || (remainingMillis >= 0 && remainingMillis < ttlMillis * refreshAhead);
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+}
@@ -0,0 +1,229 @@
+package com.jia.dbsharding.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 滑动窗口上的热点 key 检测
+ * 窗口分成若干个桶，每个桶一个 Count-Min Sketch，另外维护所有桶的累加值；
+ * 每过一个桶的时间调用一次 rotate，最老的桶清零并从累加值中减去。
+ * 估计值达到阈值的 key 成为热点，最多保留 topK 个；估计值降到阈值一半以下时取消，避免在阈值附近反复进出。
+ * 计数不加锁，rotate 和 record 并发时个别计数可能记到相邻的桶里，对热点判断没有影响。
+ * 热点 key 的访问都落在同几个计数器上，所以已经是热点的 key 抽样计数，每 hotSampleRate 次访问平均只计一次；
+ * topK 已满时，估计值没有超过最冷热点的 key 不会尝试加入，加入和淘汰用 tryLock，不会让读请求排队
+ */
+public class HotKeyDetector {
+
+    private final int depth;
+    private final int width;
+    private final AtomicIntegerArray[] buckets;
+    private final AtomicIntegerArray window;
+    private volatile int current;
+
+    private final long threshold;
+    private final int topK;
+    private final int hotSampleRate;
+    private final Set<String> hot = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * topK 已满时热点中最小的估计值，只在加入和滑动时更新
+     */
+    private volatile long coldestHot;
+
+    /**
+     * key 不再是热点时调用
+     */
+    private final Consumer<String> onDemote;
+
+    /**
+     * @param depth Count-Min Sketch 的行数
+     * @param width 每行的计数器个数，越大误差越小
+     * @param buckets 窗口分成的桶数
+     * @param threshold 一个窗口内访问这么多次成为热点
+     * @param hotSampleRate 热点 key 平均每这么多次访问计数一次，每次加 hotSampleRate，1 表示每次都计数
+     */
+    public HotKeyDetector(int depth, int width, int buckets, long threshold, int topK, int hotSampleRate,
+                          Consumer<String> onDemote) {
+        if (depth <= 0 || width <= 0 || buckets <= 0 || threshold <= 0 || topK <= 0 || hotSampleRate <= 0) {
+            throw new IllegalArgumentException("热点检测的参数必须大于 0");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.buckets = new AtomicIntegerArray[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new AtomicIntegerArray(depth * width);
+        }
+        this.window = new AtomicIntegerArray(depth * width);
+        this.threshold = threshold;
+        this.topK = topK;
+        this.hotSampleRate = hotSampleRate;
+        this.onDemote = onDemote;
+    }
+
+    /**
+     * 记录一次访问
+     * @return key 是否是热点
+     */
+    public boolean record(String key) {
+        if (hot.contains(key)) {
+            if (hotSampleRate == 1 || ThreadLocalRandom.current().nextInt(hotSampleRate) == 0) {
+                add(key, hotSampleRate);
+            }
+            return true;
+        }
+        return promoteIfHot(key, add(key, 1));
+    }
+
+    /**
+     * 记录调用方按 1/weight 采样到的一次访问，计为 weight 次
+     * @return key 是否是热点
+     */
+    public boolean record(String key, int weight) {
+        long estimate = add(key, weight);
+        return hot.contains(key) || promoteIfHot(key, estimate);
+    }
+
+    private boolean promoteIfHot(String key, long estimate) {
+        if (estimate >= threshold && (hot.size() < topK || estimate > coldestHot)) {
+            promote(key);
+            // 已经有 topK 个更热的 key 时马上又被挤出去
+            return hot.contains(key);
+        }
+        return false;
+    }
+
+    /**
+     * @return 加上 delta 后的估计值
+     */
+    private long add(String key, int delta) {
+        AtomicIntegerArray bucket = buckets[current];
+        int hash = key.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = index(hash, row);
+            bucket.addAndGet(index, delta);
+            estimate = Math.min(estimate, window.addAndGet(index, delta));
+        }
+        return estimate;
+    }
+
+    public boolean isHot(String key) {
+        return hot.contains(key);
+    }
+
+    /**
+     * 一个窗口内的访问次数估计值，只会偏大
+     */
+    public long estimate(String key) {
+        int hash = key.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, window.get(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    private int index(int hash, int row) {
+        // 每一行用不同的种子打散，MurmurHash3 的 fmix32
+        int h = hash ^ (row * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return row * width + ((h & Integer.MAX_VALUE) % width);
+    }
+
+    private void promote(String key) {
+        // 其它线程正在调整热点时不等待，这个 key 下次访问还会再尝试
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            hot.add(key);
+            if (hot.size() > topK) {
+                // 超过 topK 时去掉估计值最小的
+                String coldest = null;
+                long min = Long.MAX_VALUE;
+                for (String candidate : hot) {
+                    long estimate = estimate(candidate);
+                    if (estimate < min) {
+                        min = estimate;
+                        coldest = candidate;
+                    }
+                }
+                demote(coldest);
+            }
+            updateColdest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateColdest() {
+        long min = 0;
+        if (hot.size() >= topK) {
+            min = Long.MAX_VALUE;
+            for (String key : hot) {
+                min = Math.min(min, estimate(key));
+            }
+        }
+        coldestHot = min;
+    }
+
+    private void demote(String key) {
+        if (hot.remove(key)) {
+            onDemote.accept(key);
+        }
+    }
+
+    /**
+     * 滑动一个桶：最老的桶清零后成为当前桶，再重新估计每个热点
+     */
+    public void rotate() {
+        lock.lock();
+        try {
+            int next = (current + 1) % buckets.length;
+            AtomicIntegerArray oldest = buckets[next];
+            for (int i = 0; i < depth * width; i++) {
+                int count = oldest.getAndSet(i, 0);
+                if (count != 0) {
+                    window.addAndGet(i, -count);
+                }
+            }
+            current = next;
+            for (String key : new ArrayList<>(hot)) {
+                if (estimate(key) < threshold / 2) {
+                    demote(key);
+                }
+            }
+            updateColdest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前的热点 key 和估计的访问次数，按次数从大到小
+     */
+    public Map<String, Long> hotKeys() {
+        List<String> keys = new ArrayList<>(hot);
+        Map<String, Long> estimates = new HashMap<>();
+        keys.forEach(key -> estimates.put(key, estimate(key)));
+        keys.sort(Comparator.comparing(estimates::get, Comparator.reverseOrder()));
+        Map<String, Long> result = new LinkedHashMap<>();
+        keys.forEach(key -> result.put(key, estimates.get(key)));
+        return result;
+    }
+}
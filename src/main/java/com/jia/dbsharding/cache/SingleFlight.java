@@ -0,0 +1,64 @@
+package com.jia.dbsharding.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 合并同一个 key 的并发加载：同一时刻每个 key 只有一个线程执行 loader，其它线程等待它的结果
+ * loader 失败时所有等待的线程都收到同一个异常，下一次调用重新加载；
+ * 等待超过 timeout 的线程直接失败，不会因为一个慢查询把线程都堆积在这里
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+
+    public SingleFlight(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public V load(K key, Supplier<V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(key, existing);
+        }
+        try {
+            V value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V await(K key, CompletableFuture<V> future) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待 " + key + " 加载时被中断", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("等待 " + key + " 加载超时", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("加载 " + key + " 失败", e.getCause());
+        }
+    }
+
+    /**
+     * 正在加载的 key 数量
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+}
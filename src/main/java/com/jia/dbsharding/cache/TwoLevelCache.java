@@ -0,0 +1,628 @@
+package com.jia.dbsharding.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+import com.jia.dbsharding.util.RedisTemplateUtil;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 两级缓存：进程内的 Caffeine（W-TinyLFU 淘汰）在前，redis 在后
+ * 热点数据直接在本地命中，不需要访问 redis；数据变更时通过 redis 的发布订阅通知其它节点删除本地缓存
+ * 注册到 MeterRegistry 后输出每一级的命中、未命中和数据库加载耗时
+ * redis 中的过期时间按 key 的前缀（第一个冒号之前，如 user:1 的 user）选择 CachePolicy
+ * 开启热点检测后，访问量达到阈值的 key 在每个节点上额外保存一份短期副本，不再集中访问它所在的 redis 节点；
+ * 开启近端缓存时只采样检测热点用于查看，不保存副本
+ */
+@Slf4j
+public class TwoLevelCache implements MeterBinder {
+
+    /**
+     * 删除通知的格式为 节点id|key，节点收到自己发出的通知时忽略
+     */
+    private static final char SEPARATOR = '|';
+
+    private static final String LOCK_PREFIX = "lock:";
+
+    /**
+     * 没抢到加载锁时轮询 redis 的间隔
+     */
+    private static final long LOCK_POLL_MILLIS = 20;
+
+    /**
+     * 热点检测的 Count-Min Sketch 大小
+     */
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 4096;
+
+    /**
+     * 热点 key 平均每这么多次访问计数一次
+     */
+    private static final int HOT_SAMPLE_RATE = 16;
+
+    private final RedisTemplateUtil redis;
+    private final Cache<String, Object> near;
+    private final String channel;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final SingleFlight<String, Object> singleFlight;
+
+    /**
+     * 跨节点加载锁的过期时间，0 表示不使用
+     */
+    private long lockTtlMillis;
+    private long lockWaitMillis;
+
+    private volatile CachePolicy defaultPolicy = CachePolicy.NONE;
+    private volatile Map<String, CachePolicy> policies = Collections.emptyMap();
+
+    /**
+     * 提前刷新的后台线程池，没有开启时为 null
+     */
+    private ThreadPoolExecutor refreshExecutor;
+
+    /**
+     * 正在后台刷新的 key，同一个 key 同时只刷新一次
+     */
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 热点检测和热点 key 的本地副本，没有开启时为 null；开启近端缓存时只有 hotKeys，hotReplica 为 null
+     */
+    private volatile HotKeyDetector hotKeys;
+    private Cache<String, Object> hotReplica;
+    private ScheduledExecutorService hotKeyRotator;
+
+    /**
+     * 数据库中不存在的 key，没有开启时为 null
+     */
+    private Cache<String, Boolean> negative;
+
+    /**
+     * 收到其它节点的删除通知时调用，参数是 key
+     */
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder redisMisses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshRejected = new LongAdder();
+
+    /**
+     * 数据库加载耗时，注册到 MeterRegistry 之前为 null
+     */
+    private volatile Timer loadTimer;
+
+    /**
+     * @param near 为 null 时不使用近端缓存
+     * @param loadTimeoutMillis 等待其它线程加载同一个 key 的最长时间
+     */
+    public TwoLevelCache(RedisTemplateUtil redis, Cache<String, Object> near, String channel, long loadTimeoutMillis) {
+        this.redis = redis;
+        this.near = near;
+        this.channel = channel;
+        this.singleFlight = new SingleFlight<>(loadTimeoutMillis);
+    }
+
+    /**
+     * 开启跨节点的加载锁：同一个 key 只有抢到锁的节点查询数据库，其它节点等待它写入 redis
+     * @param ttlMillis 锁的过期时间
+     * @param waitMillis 最多等待多久，超时后自己加载
+     */
+    public void enableLoadLock(long ttlMillis, long waitMillis) {
+        this.lockTtlMillis = ttlMillis;
+        this.lockWaitMillis = waitMillis;
+    }
+
+    /**
+     * @param defaultPolicy 前缀没有单独配置时使用
+     * @param policies 前缀到过期策略
+     */
+    public void setPolicies(CachePolicy defaultPolicy, Map<String, CachePolicy> policies) {
+        this.defaultPolicy = defaultPolicy;
+        this.policies = new HashMap<>(policies);
+    }
+
+    /**
+     * 开启提前刷新：读到快过期的 key 时交给后台线程重新加载，队列满时放弃这次刷新，key 过期后按未命中加载
+     */
+    public void enableRefreshAhead(int threads, int queueSize) {
+        AtomicInteger sequence = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "cache-refresh-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        this.refreshExecutor = executor;
+    }
+
+    /**
+     * 开启热点检测：一个窗口内访问达到 threshold 次的 key 成为热点，读到后在本地保存 replicaTtlMillis 毫秒，
+     * 降温后从本地副本中删除
+     * 开启近端缓存时不保存副本（近端缓存已经在本地保存了热点），只按 1/HOT_SAMPLE_RATE 采样本地读取来检测热点，用于查看
+     * @param windowMillis 滑动窗口的长度，分成 buckets 个桶滑动
+     * @param topK 最多同时保留的热点数
+     */
+    public void enableHotKeys(long windowMillis, int buckets, long threshold, int topK, long replicaTtlMillis) {
+        Cache<String, Object> replica = null;
+        if (near != null) {
+            log.info("已开启近端缓存，热点 key 已经在本地命中，只检测热点，不保存副本");
+        } else {
+            replica = Caffeine.newBuilder()
+                    .maximumSize(topK)
+                    .expireAfterWrite(replicaTtlMillis, TimeUnit.MILLISECONDS)
+                    .recordStats()
+                    .build();
+        }
+        Cache<String, Object> demoted = replica;
+        HotKeyDetector detector = new HotKeyDetector(SKETCH_DEPTH, SKETCH_WIDTH, buckets, threshold, topK,
+                HOT_SAMPLE_RATE, key -> {
+                    if (demoted != null) {
+                        demoted.invalidate(key);
+                    }
+                });
+        ScheduledExecutorService rotator = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-hot-keys");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, windowMillis / buckets);
+        rotator.scheduleAtFixedRate(detector::rotate, period, period, TimeUnit.MILLISECONDS);
+        this.hotReplica = replica;
+        this.hotKeyRotator = rotator;
+        this.hotKeys = detector;
+    }
+
+    /**
+     * 开启本地的空值缓存：loader 返回 null 的 key 在 ttlMillis 内直接返回 null，不访问 redis 和数据库；
+     * 写入和删除通知会清除对应的空值
+     */
+    public void enableNegativeCache(long ttlMillis, long maximumSize) {
+        this.negative = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    CachePolicy policy(String key) {
+        int separator = key.indexOf(':');
+        if (separator < 0) {
+            return defaultPolicy;
+        }
+        CachePolicy policy = policies.get(key.substring(0, separator));
+        return policy == null ? defaultPolicy : policy;
+    }
+
+    public static Cache<String, Object> newNearCache(long maximumSize, long expireAfterWriteMillis) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 依次读取近端缓存和 redis，redis 命中时回填近端缓存
+     */
+    public Object get(String key) {
+        Object value = getLocal(key);
+        if (value != null) {
+            return value;
+        }
+        value = redis.get(key);
+        if (value == null) {
+            redisMisses.increment();
+            return null;
+        }
+        redisHits.increment();
+        putLocal(key, value);
+        return value;
+    }
+
+    /**
+     * 记录一次访问，热点 key 先查本地副本，再查近端缓存
+     */
+    private Object getLocal(String key) {
+        HotKeyDetector detector = hotKeys;
+        if (detector != null && hotReplica == null) {
+            if (ThreadLocalRandom.current().nextInt(HOT_SAMPLE_RATE) == 0) {
+                detector.record(key, HOT_SAMPLE_RATE);
+            }
+        } else if (detector != null && detector.record(key)) {
+            Object value = hotReplica.getIfPresent(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return near == null ? null : near.getIfPresent(key);
+    }
+
+    private void putLocal(String key, Object value) {
+        if (near != null) {
+            near.put(key, value);
+        }
+        if (negative != null) {
+            negative.invalidate(key);
+        }
+        HotKeyDetector detector = hotKeys;
+        if (detector != null && hotReplica != null && detector.isHot(key)) {
+            hotReplica.put(key, value);
+        }
+    }
+
+    private void invalidateLocal(String key) {
+        if (near != null) {
+            near.invalidate(key);
+        }
+        if (negative != null) {
+            negative.invalidate(key);
+        }
+        if (hotReplica != null) {
+            hotReplica.invalidate(key);
+        }
+    }
+
+    /**
+     * 读取缓存，两级都未命中时调用 loader 加载并放入缓存
+     * 同一个 key 的并发未命中在本节点只会调用一次 loader，loader 返回 null 时不缓存；
+     * 开启提前刷新时 redis 命中的同时读取剩余过期时间，快过期时在后台用 loader 重新加载
+     */
+    public Object get(String key, Supplier<Object> loader) {
+        if (negative != null && negative.getIfPresent(key) != null) {
+            return null;
+        }
+        CachePolicy policy = policy(key);
+        Object value = refreshExecutor != null && policy.isRefreshAhead() ? getOrRefresh(key, policy, loader) : get(key);
+        if (value != null) {
+            return value;
+        }
+        return singleFlight.load(key, () -> lockTtlMillis > 0 ? loadWithLock(key, loader) : load(key, loader));
+    }
+
+    /**
+     * 调用方刚写过这个 key、loader 读主库时使用：照常读取两级缓存（写入时已经更新或删除），
+     * 未命中时不查空值缓存、不和其它线程或节点共享加载结果（它们可能读的是还没同步的从库），loader 返回 null 时也不记录空值
+     */
+    public Object getFresh(String key, Supplier<Object> loader) {
+        Object value = get(key);
+        return value != null ? value : loadAndPut(key, loader);
+    }
+
+    private Object getOrRefresh(String key, CachePolicy policy, Supplier<Object> loader) {
+        Object value = getLocal(key);
+        if (value != null) {
+            return value;
+        }
+        List<Object> result = redis.getWithExpire(key);
+        value = result == null || result.isEmpty() ? null : result.get(0);
+        if (value == null) {
+            redisMisses.increment();
+            return null;
+        }
+        redisHits.increment();
+        putLocal(key, value);
+        Object remaining = result.size() > 1 ? result.get(1) : null;
+        if (remaining instanceof Number && policy.shouldRefresh(((Number) remaining).longValue())) {
+            refresh(key, loader);
+        }
+        return value;
+    }
+
+    /**
+     * 在后台重新加载，沿用调用线程的 @RoutingDataSource 路由；开启加载锁时只有抢到锁的节点刷新
+     */
+    private void refresh(String key, Supplier<Object> loader) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        Route route = DataSourceHolder.current();
+        try {
+            refreshExecutor.execute(() -> {
+                String lockKey = LOCK_PREFIX + key;
+                if (lockTtlMillis > 0 && !redis.setIfAbsent(lockKey, nodeId, lockTtlMillis)) {
+                    refreshing.remove(key);
+                    return;
+                }
+                if (route != null) {
+                    DataSourceHolder.push(route);
+                }
+                try {
+                    refreshes.increment();
+                    if (load(key, loader) == null) {
+                        // 数据已经删除
+                        evict(key);
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("刷新缓存 {} 失败：{}", key, e.getMessage());
+                } finally {
+                    if (route != null) {
+                        DataSourceHolder.pop();
+                    }
+                    if (lockTtlMillis > 0) {
+                        redis.deleteIfEquals(lockKey, nodeId);
+                    }
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+            refreshRejected.increment();
+        }
+    }
+
+    private Object load(String key, Supplier<Object> loader) {
+        Object value = loadAndPut(key, loader);
+        if (value == null && negative != null) {
+            negative.put(key, Boolean.TRUE);
+        }
+        return value;
+    }
+
+    private Object loadAndPut(String key, Supplier<Object> loader) {
+        loads.increment();
+        Timer timer = loadTimer;
+        Object value = timer == null ? loader.get() : timer.record(loader);
+        if (value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    private Object loadWithLock(String key, Supplier<Object> loader) {
+        String lockKey = LOCK_PREFIX + key;
+        if (redis.setIfAbsent(lockKey, nodeId, lockTtlMillis)) {
+            try {
+                return load(key, loader);
+            } finally {
+                redis.deleteIfEquals(lockKey, nodeId);
+            }
+        }
+        // 其它节点正在加载，等它写入 redis
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lockWaitMillis);
+        while (System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(LOCK_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            Object value = redis.get(key);
+            if (value != null) {
+                putLocal(key, value);
+                return value;
+            }
+        }
+        return load(key, loader);
+    }
+
+    /**
+     * 批量读取：先查近端缓存，剩下的 key 一次 MGET 从 redis 读取
+     * @return 命中的 key 和值，未命中的 key 不在结果中
+     */
+    public Map<String, Object> getAll(List<String> keys) {
+        Map<String, Object> found = new HashMap<>();
+        List<String> remaining = keys;
+        if (near != null) {
+            found.putAll(near.getAllPresent(keys));
+            remaining = new ArrayList<>();
+            for (String key : keys) {
+                if (!found.containsKey(key)) {
+                    remaining.add(key);
+                }
+            }
+        }
+        if (remaining.isEmpty()) {
+            return found;
+        }
+        List<Object> values = redis.mGet(remaining);
+        for (int i = 0; i < remaining.size(); i++) {
+            Object value = values == null ? null : values.get(i);
+            if (value == null) {
+                redisMisses.increment();
+                continue;
+            }
+            redisHits.increment();
+            found.put(remaining.get(i), value);
+            if (near != null) {
+                near.put(remaining.get(i), value);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 批量放入，redis 通过一次 pipeline 写入，每个 key 按自己的策略设置过期时间
+     */
+    public void putAll(Map<String, Object> values) {
+        redis.pipelinedSet(values, key -> policy(key).nextTtlMillis());
+        if (near != null) {
+            near.putAll(values);
+        }
+        if (negative != null) {
+            negative.invalidateAll(values.keySet());
+        }
+    }
+
+    public void put(String key, Object value) {
+        redis.setMillis(key, value, policy(key).nextTtlMillis());
+        putLocal(key, value);
+    }
+
+    /**
+     * 数据变更时调用：删除 redis 和本地的缓存，并通知其它节点
+     */
+    public void evict(String key) {
+        redis.delete(key);
+        if (near != null || hotReplica != null || negative != null || !invalidationListeners.isEmpty()) {
+            broadcast(key);
+        }
+    }
+
+    /**
+     * 只删除本地缓存并通知其它节点，不删除 redis；插入新行之前调用，让其它节点的监听器在新行可见之前收到 key
+     */
+    public void broadcast(String key) {
+        invalidateLocal(key);
+        redis.publish(channel, nodeId + SEPARATOR + key);
+    }
+
+    /**
+     * 注册其它节点删除通知的监听器，自己发出的通知不会回调
+     */
+    public void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * 处理其它节点发来的删除通知
+     */
+    public void onInvalidation(String message) {
+        int separator = message.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+        if (separator == nodeId.length() && message.startsWith(nodeId)) {
+            // 自己发出的通知，本地已经删除过了
+            return;
+        }
+        String key = message.substring(separator + 1);
+        invalidateLocal(key);
+        for (Consumer<String> listener : invalidationListeners) {
+            listener.accept(key);
+        }
+    }
+
+    /**
+     * 当前的热点 key 和一个窗口内估计的访问次数，没有开启热点检测时返回空
+     */
+    public Map<String, Long> hotKeys() {
+        HotKeyDetector detector = hotKeys;
+        return detector == null ? Collections.emptyMap() : detector.hotKeys();
+    }
+
+    /**
+     * 每一级的命中统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        if (near != null) {
+            CacheStats nearStats = near.stats();
+            Map<String, Object> local = new LinkedHashMap<>();
+            local.put("size", near.estimatedSize());
+            local.put("hits", nearStats.hitCount());
+            local.put("misses", nearStats.missCount());
+            local.put("hitRate", nearStats.hitRate());
+            local.put("evictions", nearStats.evictionCount());
+            stats.put("near", local);
+        }
+        long hits = redisHits.sum();
+        long misses = redisMisses.sum();
+        Map<String, Object> remote = new LinkedHashMap<>();
+        remote.put("hits", hits);
+        remote.put("misses", misses);
+        remote.put("hitRate", hits + misses == 0 ? 1.0 : (double) hits / (hits + misses));
+        stats.put("redis", remote);
+        Map<String, Object> database = new LinkedHashMap<>();
+        database.put("loads", loads.sum());
+        database.put("inFlight", singleFlight.inFlight());
+        stats.put("database", database);
+        if (refreshExecutor != null) {
+            Map<String, Object> refresh = new LinkedHashMap<>();
+            refresh.put("refreshes", refreshes.sum());
+            refresh.put("inFlight", refreshing.size());
+            refresh.put("rejected", refreshRejected.sum());
+            stats.put("refresh", refresh);
+        }
+        if (negative != null) {
+            Map<String, Object> empty = new LinkedHashMap<>();
+            empty.put("size", negative.estimatedSize());
+            empty.put("hits", negative.stats().hitCount());
+            stats.put("negative", empty);
+        }
+        HotKeyDetector detector = hotKeys;
+        if (detector != null) {
+            Map<String, Object> hot = new LinkedHashMap<>();
+            hot.put("keys", detector.hotKeys().size());
+            if (hotReplica != null) {
+                hot.put("replicaSize", hotReplica.estimatedSize());
+                hot.put("replicaHits", hotReplica.stats().hitCount());
+            }
+            stats.put("hot", hot);
+        }
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (near != null) {
+            CaffeineCacheMetrics.monitor(registry, near, "near");
+        }
+        if (hotReplica != null) {
+            CaffeineCacheMetrics.monitor(registry, hotReplica, "hot");
+        }
+        if (negative != null) {
+            CaffeineCacheMetrics.monitor(registry, negative, "negative");
+        }
+        FunctionCounter.builder("cache.gets", redisHits, LongAdder::sum)
+                .tags("cache", "redis", "result", "hit").register(registry);
+        FunctionCounter.builder("cache.gets", redisMisses, LongAdder::sum)
+                .tags("cache", "redis", "result", "miss").register(registry);
+        Gauge.builder("cache.loads.in.flight", singleFlight, SingleFlight::inFlight)
+                .description("正在从数据库加载的 key 数").register(registry);
+        FunctionCounter.builder("cache.refreshes", refreshes, LongAdder::sum)
+                .description("快过期时在后台重新加载的次数").register(registry);
+        FunctionCounter.builder("cache.refreshes.rejected", refreshRejected, LongAdder::sum)
+                .description("刷新队列已满放弃的次数").register(registry);
+        loadTimer = Timer.builder("cache.db.load")
+                .description("缓存未命中时从数据库加载的耗时")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public void close() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        if (hotKeyRotator != null) {
+            hotKeyRotator.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.jia.dbsharding.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 读取 BinaryWriter 写出的数据
+ */
+public final class BinaryReader {
+
+    private final byte[] buffer;
+    private int position;
+
+    public BinaryReader(byte[] buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    public int readByte() {
+        checkRemaining(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint 格式错误");
+    }
+
+    public long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() {
+        int length = (int) readVarLong();
+        checkRemaining(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private void checkRemaining(int length) {
+        if (length < 0 || position + length > buffer.length) {
+            throw new IllegalArgumentException("数据长度不足");
+        }
+    }
+}
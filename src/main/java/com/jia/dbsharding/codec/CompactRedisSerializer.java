@@ -0,0 +1,85 @@
+package com.jia.dbsharding.codec;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制的 redis value 序列化器
+ * 格式：魔数（1 字节）+ 类型 id（varint）+ 版本（1 字节）+ EntityCodec 写出的字段；
+ * 没有注册 EntityCodec 的类型，以及不是以魔数开头的旧数据，交给 fallback（Jackson）处理，上线期间旧的 JSON 数据仍然可以读取
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    /**
+     * 0xC1 在 UTF-8 中不会出现，JSON 数据不可能以它开头
+     */
+    static final int MAGIC = 0xC1;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /**
+     * 超过这个大小的缓冲区不再留给线程复用，避免一次大对象之后一直占着内存
+     */
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+
+    private final Map<Class<?>, EntityCodec<Object>> codecsByType = new HashMap<>();
+    private final Map<Integer, EntityCodec<Object>> codecsById = new HashMap<>();
+    private final RedisSerializer<Object> fallback;
+    private final ThreadLocal<BinaryWriter> writers = ThreadLocal.withInitial(() -> new BinaryWriter(INITIAL_BUFFER_SIZE));
+
+    @SuppressWarnings("unchecked")
+    public CompactRedisSerializer(List<EntityCodec<?>> codecs, RedisSerializer<Object> fallback) {
+        for (EntityCodec<?> codec : codecs) {
+            if (codecsById.put(codec.typeId(), (EntityCodec<Object>) codec) != null) {
+                throw new IllegalArgumentException("EntityCodec 的类型 id 重复：" + codec.typeId());
+            }
+            codecsByType.put(codec.type(), (EntityCodec<Object>) codec);
+        }
+        this.fallback = fallback;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return fallback.serialize(null);
+        }
+        EntityCodec<Object> codec = codecsByType.get(value.getClass());
+        if (codec == null) {
+            return fallback.serialize(value);
+        }
+        BinaryWriter writer = writers.get();
+        writer.reset();
+        writer.writeByte(MAGIC);
+        writer.writeVarLong(codec.typeId());
+        writer.writeByte(codec.version());
+        codec.write(value, writer);
+        byte[] bytes = writer.toByteArray();
+        if (bytes.length > MAX_REUSED_BUFFER_SIZE) {
+            writers.remove();
+        }
+        return bytes;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0 || (bytes[0] & 0xFF) != MAGIC) {
+            return fallback.deserialize(bytes);
+        }
+        try {
+            BinaryReader reader = new BinaryReader(bytes, 1);
+            int typeId = (int) reader.readVarLong();
+            int version = reader.readByte();
+            EntityCodec<Object> codec = codecsById.get(typeId);
+            if (codec == null) {
+                throw new SerializationException("未知的类型 id：" + typeId);
+            }
+            return codec.read(reader, version);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("二进制数据格式错误", e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.jia.dbsharding.codec;
+
+import com.jia.dbsharding.entity.DBEntity;
+
+/**
+ * DBEntity 的编码：一个字节标记哪些字段不为 null，然后依次是 id（zigzag varint）和 name
+ */
+public class DBEntityCodec implements EntityCodec<DBEntity> {
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_NAME = 1 << 1;
+
+    @Override
+    public int typeId() {
+        return 1;
+    }
+
+    @Override
+    public int version() {
+        return 1;
+    }
+
+    @Override
+    public Class<DBEntity> type() {
+        return DBEntity.class;
+    }
+
+    @Override
+    public void write(DBEntity value, BinaryWriter writer) {
+        int flags = (value.getId() != null ? HAS_ID : 0) | (value.getName() != null ? HAS_NAME : 0);
+        writer.writeByte(flags);
+        if (value.getId() != null) {
+            writer.writeSignedVarLong(value.getId());
+        }
+        if (value.getName() != null) {
+            writer.writeString(value.getName());
+        }
+    }
+
+    @Override
+    public DBEntity read(BinaryReader reader, int version) {
+        DBEntity entity = new DBEntity();
+        int flags = reader.readByte();
+        if ((flags & HAS_ID) != 0) {
+            entity.setId((int) reader.readSignedVarLong());
+        }
+        if ((flags & HAS_NAME) != 0) {
+            entity.setName(reader.readString());
+        }
+        return entity;
+    }
+}
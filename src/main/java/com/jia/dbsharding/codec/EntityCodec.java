@@ -0,0 +1,27 @@
+package com.jia.dbsharding.codec;
+
+/**
+ * 一种缓存实体的二进制编码
+ * 字段变化时增加 version，并在 read 中兼容旧版本写入的数据
+ */
+public interface EntityCodec<T> {
+
+    /**
+     * 类型 id，写在每条数据的头部，不能重复，也不能修改
+     */
+    int typeId();
+
+    /**
+     * 当前写入使用的版本
+     */
+    int version();
+
+    Class<T> type();
+
+    void write(T value, BinaryWriter writer);
+
+    /**
+     * @param version 数据写入时的版本
+     */
+    T read(BinaryReader reader, int version);
+}
@@ -0,0 +1,247 @@
+package com.jia.dbsharding.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jia.dbsharding.metrics.InstrumentedDataSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按每个连接池的实际负载调整 maxActive 和 minIdle
+ * 平均并发连接数按 Little 定律估计：L = λ × W = 单位时间内连接累计占用时间，
+ * 目标 maxActive = L × headroom，获取连接等待超过阈值时再加一档；所有连接池的 maxActive 之和不超过总预算，
+ * 超出时按需求比例分配，热点分片多拿连接，冷分片让出连接，MySQL 上的总连接数不增加
+ * minIdle 保持在平均并发连接数，空闲的连接由 Druid 按 minIdle 回收；还没有初始化的连接池不调整
+ */
+@Slf4j
+public class AdaptivePoolSizer {
+
+    /**
+     * 一个连接池在一个周期内的负载
+     */
+    static final class Sample {
+        final double concurrency;
+        final double waitMillis;
+        final int active;
+        final int maxActive;
+
+        Sample(double concurrency, double waitMillis, int active, int maxActive) {
+            this.concurrency = concurrency;
+            this.waitMillis = waitMillis;
+            this.active = active;
+            this.maxActive = maxActive;
+        }
+    }
+
+    static final class Size {
+        final int maxActive;
+        final int minIdle;
+
+        Size(int maxActive, int minIdle) {
+            this.maxActive = maxActive;
+            this.minIdle = minIdle;
+        }
+    }
+
+    /**
+     * 上一次采样时的累计值
+     */
+    private static final class Baseline {
+        private final InstrumentedDataSource source;
+        private final long acquireCount;
+        private final long acquireNanos;
+        private final long holdNanos;
+        private final double concurrency;
+
+        private Baseline(InstrumentedDataSource source, double concurrency) {
+            this.source = source;
+            this.acquireCount = source.getAcquireCount();
+            this.acquireNanos = source.getAcquireNanos();
+            this.holdNanos = source.getHoldNanos();
+            this.concurrency = concurrency;
+        }
+    }
+
+    private final DynamicDataSource dynamicDataSource;
+    private final ShardingProperties.PoolSizingProperty property;
+    private final int totalMaxActive;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Baseline> baselines = new HashMap<>();
+    private final Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+    private long lastNanos = System.nanoTime();
+
+    public AdaptivePoolSizer(DynamicDataSource dynamicDataSource, ShardingProperties.PoolSizingProperty property) {
+        this.dynamicDataSource = dynamicDataSource;
+        this.property = property;
+        int total = property.getTotalMaxActive();
+        if (total <= 0) {
+            // 没有配置总预算时以启动时所有连接池的 maxActive 之和为上限
+            for (DruidDataSource pool : pools().values()) {
+                total += pool.getMaxActive();
+            }
+        }
+        this.totalMaxActive = total;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "adaptive-pool-sizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                adjust();
+            } catch (Exception e) {
+                log.warn("调整连接池大小失败：{}", e.getMessage());
+            }
+        }, property.getIntervalMillis(), property.getIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private Map<String, DruidDataSource> pools() {
+        Map<String, DruidDataSource> pools = new LinkedHashMap<>();
+        for (String name : new TreeSet<>(dynamicDataSource.getDataSourceNames())) {
+            DataSource pool = InstrumentedDataSource.unwrap(dynamicDataSource.getDataSource(name));
+            if (pool instanceof DruidDataSource) {
+                pools.put(name, (DruidDataSource) pool);
+            }
+        }
+        return pools;
+    }
+
+    synchronized void adjust() {
+        long now = System.nanoTime();
+        double elapsedNanos = Math.max(1, now - lastNanos);
+        lastNanos = now;
+
+        Map<String, DruidDataSource> pools = pools();
+        Map<String, Sample> samples = new LinkedHashMap<>();
+        int budget = totalMaxActive;
+        for (Map.Entry<String, DruidDataSource> entry : pools.entrySet()) {
+            String name = entry.getKey();
+            DruidDataSource pool = entry.getValue();
+            DataSource target = dynamicDataSource.getDataSource(name);
+            if (!pool.isInited() || !(target instanceof InstrumentedDataSource)) {
+                budget -= pool.getMaxActive();
+                continue;
+            }
+            InstrumentedDataSource source = (InstrumentedDataSource) target;
+            Baseline previous = baselines.get(name);
+            if (previous == null || previous.source != source) {
+                // 新的数据源或者拓扑重新加载后换了包装，下一个周期再调整
+                baselines.put(name, new Baseline(source, -1));
+                budget -= pool.getMaxActive();
+                continue;
+            }
+            double concurrency = (source.getHoldNanos() - previous.holdNanos) / elapsedNanos;
+            if (previous.concurrency >= 0) {
+                concurrency = property.getSmoothing() * concurrency + (1 - property.getSmoothing()) * previous.concurrency;
+            }
+            long acquires = source.getAcquireCount() - previous.acquireCount;
+            double waitMillis = acquires == 0 ? 0 : (source.getAcquireNanos() - previous.acquireNanos) / 1e6 / acquires;
+            baselines.put(name, new Baseline(source, concurrency));
+            samples.put(name, new Sample(concurrency, waitMillis, pool.getActiveCount(), pool.getMaxActive()));
+        }
+        baselines.keySet().retainAll(pools.keySet());
+
+        Map<String, Size> sizes = plan(samples, property, budget);
+        sizes.forEach((name, size) -> resize(name, pools.get(name), size));
+
+        synchronized (stats) {
+            stats.clear();
+            samples.forEach((name, sample) -> {
+                Map<String, Object> stat = new LinkedHashMap<>();
+                stat.put("concurrency", Math.round(sample.concurrency * 100) / 100.0);
+                stat.put("waitMillis", Math.round(sample.waitMillis * 100) / 100.0);
+                stat.put("active", sample.active);
+                stat.put("maxActive", pools.get(name).getMaxActive());
+                stat.put("minIdle", pools.get(name).getMinIdle());
+                stats.put(name, stat);
+            });
+        }
+    }
+
+    /**
+     * 根据每个连接池的负载计算新的大小
+     * 超出预算时先给每个连接池留出 minActive，剩下的预算按超出 minActive 的部分等比例分配，总和不超过预算；
+     * 预算连每个连接池的 minActive 都不够时只能都取 minActive
+     * @param budget 这些连接池的 maxActive 之和的上限
+     */
+    static Map<String, Size> plan(Map<String, Sample> samples, ShardingProperties.PoolSizingProperty property, int budget) {
+        int floor = property.getMinActive();
+        Map<String, Integer> targets = new LinkedHashMap<>();
+        long total = 0;
+        for (Map.Entry<String, Sample> entry : samples.entrySet()) {
+            Sample sample = entry.getValue();
+            int target = Math.max((int) Math.ceil(sample.concurrency * property.getHeadroom()), sample.active);
+            if (sample.waitMillis > property.getWaitThresholdMillis()) {
+                target = Math.max(target, sample.maxActive + property.getStep());
+            } else if (target < sample.maxActive) {
+                // 每个周期最多收缩一档，避免负载短暂下降时连接池来回变化
+                target = Math.max(target, sample.maxActive - property.getStep());
+            }
+            target = Math.min(Math.max(target, floor), property.getMaxActive());
+            targets.put(entry.getKey(), target);
+            total += target;
+        }
+        long reserved = (long) floor * targets.size();
+        if (total > budget && budget < reserved) {
+            log.warn("连接池预算 {} 不够每个连接池保留 minActive {}，共 {} 个连接池", budget, floor, targets.size());
+        }
+        long spare = Math.max(0, budget - reserved);
+        long extra = total - reserved;
+        Map<String, Size> sizes = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : targets.entrySet()) {
+            int maxActive = entry.getValue();
+            if (total > budget) {
+                maxActive = floor + (extra == 0 ? 0 : (int) ((maxActive - floor) * spare / extra));
+            }
+            int minIdle = Math.min(maxActive, (int) Math.ceil(samples.get(entry.getKey()).concurrency));
+            sizes.put(entry.getKey(), new Size(maxActive, minIdle));
+        }
+        return sizes;
+    }
+
+    /**
+     * Druid 要求 minIdle 不大于 maxActive：扩容时先调 maxActive，缩容时先调 minIdle
+     */
+    private static void resize(String name, DruidDataSource pool, Size size) {
+        int maxActive = pool.getMaxActive();
+        if (maxActive == size.maxActive && pool.getMinIdle() == size.minIdle) {
+            return;
+        }
+        if (size.maxActive >= maxActive) {
+            pool.setMaxActive(size.maxActive);
+            pool.setMinIdle(size.minIdle);
+        } else {
+            pool.setMinIdle(size.minIdle);
+            pool.setMaxActive(size.maxActive);
+        }
+        if (maxActive != size.maxActive) {
+            log.info("数据源 {} 的 maxActive {} -> {}，minIdle {}", name, maxActive, size.maxActive, size.minIdle);
+        }
+    }
+
+    /**
+     * 每个连接池上一个周期的平均并发、获取连接的平均等待和调整后的大小
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalMaxActive", totalMaxActive);
+        synchronized (stats) {
+            result.put("dataSources", new LinkedHashMap<>(stats));
+        }
+        return result;
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
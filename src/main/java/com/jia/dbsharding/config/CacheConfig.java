@@ -0,0 +1,74 @@
+package com.jia.dbsharding.config;
+
+import com.jia.dbsharding.cache.CachePolicy;
+import com.jia.dbsharding.cache.TwoLevelCache;
+import com.jia.dbsharding.util.RedisTemplateUtil;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 两级缓存的配置
+ */
+@Configuration
+@EnableConfigurationProperties(CacheProperties.class)
+public class CacheConfig {
+
+    @Bean(destroyMethod = "close")
+    public TwoLevelCache twoLevelCache(CacheProperties properties, RedisTemplateUtil redisTemplateUtil){
+        CacheProperties.NearProperty near = properties.getNear();
+        TwoLevelCache cache = new TwoLevelCache(redisTemplateUtil,
+                near.isEnabled() ? TwoLevelCache.newNearCache(near.getMaximumSize(), near.getExpireAfterWriteMillis()) : null,
+                properties.getInvalidationChannel(), properties.getLoadTimeoutMillis());
+        CacheProperties.LoadLockProperty loadLock = properties.getLoadLock();
+        if(loadLock.isEnabled()){
+            cache.enableLoadLock(loadLock.getTtlMillis(), loadLock.getWaitMillis());
+        }
+        Map<String, CachePolicy> policies = new HashMap<>();
+        properties.getPolicies().forEach((entity, policy) -> policies.put(entity, policy(policy)));
+        CachePolicy defaultPolicy = policy(properties.getPolicy());
+        cache.setPolicies(defaultPolicy, policies);
+        if(defaultPolicy.isRefreshAhead() || policies.values().stream().anyMatch(CachePolicy::isRefreshAhead)){
+            cache.enableRefreshAhead(properties.getRefreshThreads(), properties.getRefreshQueueSize());
+        }
+        CacheProperties.NegativeProperty negative = properties.getNegative();
+        if(negative.isEnabled()){
+            cache.enableNegativeCache(negative.getTtlMillis(), negative.getMaximumSize());
+        }
+        CacheProperties.HotKeyProperty hotKey = properties.getHotKey();
+        if(hotKey.isEnabled()){
+            cache.enableHotKeys(hotKey.getWindowMillis(), hotKey.getBuckets(), hotKey.getThreshold(),
+                    hotKey.getTopK(), hotKey.getReplicaTtlMillis());
+        }
+        return cache;
+    }
+
+    private static CachePolicy policy(CacheProperties.PolicyProperty property){
+        return new CachePolicy(property.getTtlMillis(), property.getJitter(), property.getRefreshAhead());
+    }
+
+    /**
+     * 订阅其它节点发出的删除通知，通知使用和 value 相同的序列化方式
+     * 关闭近端缓存时 Bloom 过滤器等监听器仍然需要这些通知，所以总是订阅
+     */
+    @Bean
+    public RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory factory,
+            RedisTemplate<String, Object> redisTemplate, TwoLevelCache twoLevelCache){
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener((message, pattern) -> {
+            Object key = redisTemplate.getValueSerializer().deserialize(message.getBody());
+            if(key instanceof String){
+                twoLevelCache.onInvalidation((String) key);
+            }
+        }, new ChannelTopic(twoLevelCache.getChannel()));
+        return container;
+    }
+}
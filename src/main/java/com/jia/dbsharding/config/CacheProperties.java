@@ -0,0 +1,158 @@
+package com.jia.dbsharding.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * application.yml 中 cache 前缀的缓存配置
+ */
+@Data
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+
+    /**
+     * 进程内的近端缓存
+     */
+    private NearProperty near = new NearProperty();
+
+    /**
+     * 数据变更时通知其它节点删除近端缓存的频道
+     */
+    private String invalidationChannel = "cache:invalidation";
+
+    /**
+     * 缓存未命中时，等待其它线程加载同一个 key 的最长时间，毫秒
+     */
+    private long loadTimeoutMillis = 3000;
+
+    /**
+     * 跨节点的加载锁
+     */
+    private LoadLockProperty loadLock = new LoadLockProperty();
+
+    /**
+     * redis 中缓存的默认过期策略
+     */
+    private PolicyProperty policy = new PolicyProperty();
+
+    /**
+     * 按 key 前缀（实体名，如 user）单独配置的过期策略
+     */
+    private Map<String, PolicyProperty> policies = new LinkedHashMap<>();
+
+    /**
+     * 提前刷新的后台线程数和队列长度
+     */
+    private int refreshThreads = 2;
+    private int refreshQueueSize = 1000;
+
+    /**
+     * 缓存数据分布的 redis 节点
+     */
+    private RedisNodesProperty redis = new RedisNodesProperty();
+
+    /**
+     * 热点 key 检测和本地副本
+     */
+    private HotKeyProperty hotKey = new HotKeyProperty();
+
+    /**
+     * 数据库中不存在的 key 的本地空值缓存
+     */
+    private NegativeProperty negative = new NegativeProperty();
+
+    @Data
+    public static class NegativeProperty {
+        private boolean enabled = true;
+        /**
+         * 空值的过期时间，毫秒，其它节点插入后删除通知丢失时最多这么久查不到
+         */
+        private long ttlMillis = 3000;
+        private long maximumSize = 100000;
+    }
+
+    @Data
+    public static class HotKeyProperty {
+        /**
+         * 开启近端缓存时只检测热点，不保存本地副本
+         */
+        private boolean enabled = false;
+        /**
+         * 滑动窗口的长度，毫秒，分成 buckets 个桶滑动
+         */
+        private long windowMillis = 10000;
+        private int buckets = 10;
+        /**
+         * 一个窗口内访问这么多次成为热点，降到一半以下时取消
+         */
+        private long threshold = 1000;
+        /**
+         * 最多同时保留的热点数
+         */
+        private int topK = 100;
+        /**
+         * 热点 key 在本地副本中的过期时间，毫秒，也是其它节点更新后最多读到旧数据的时间
+         */
+        private long replicaTtlMillis = 1000;
+    }
+
+    @Data
+    public static class RedisNodesProperty {
+        /**
+         * 节点名到 host:port，key 按节点名做一致性哈希；为空时只使用 spring.redis 配置的节点
+         */
+        private Map<String, String> nodes = new LinkedHashMap<>();
+        /**
+         * 每个节点在哈希环上的虚拟节点数，越多分布越均匀
+         */
+        private int virtualNodes = 160;
+    }
+
+    @Data
+    public static class PolicyProperty {
+        /**
+         * 过期时间，毫秒，0 表示不过期
+         */
+        private long ttlMillis = 3600000;
+        /**
+         * 过期时间随机增加的比例，避免同一批写入的 key 同时过期
+         */
+        private double jitter = 0.1;
+        /**
+         * 读到剩余时间低于 ttl 这个比例的 key 时在后台重新加载，0 表示不提前刷新
+         */
+        private double refreshAhead = 0.2;
+    }
+
+    @Data
+    public static class LoadLockProperty {
+        /**
+         * 开启后同一个 key 在所有节点中只有一个节点查询数据库
+         */
+        private boolean enabled = false;
+        /**
+         * 锁的过期时间，毫秒，持有锁的节点挂掉时最多阻塞这么久
+         */
+        private long ttlMillis = 3000;
+        /**
+         * 没抢到锁时等待其它节点写入缓存的最长时间，毫秒，超时后自己查询数据库
+         */
+        private long waitMillis = 500;
+    }
+
+    @Data
+    public static class NearProperty {
+        private boolean enabled = true;
+        /**
+         * 最多缓存的条数
+         */
+        private long maximumSize = 10000;
+        /**
+         * 写入后多久过期，毫秒；其它节点的删除通知丢失时，最多读到这么久之前的数据
+         */
+        private long expireAfterWriteMillis = 30000;
+    }
+}
@@ -29,4 +29,12 @@ public class DataSourceConfig {
     public DataSource dataSourceSlave(){
         return DataSourceBuilder.create().type(DruidDataSource.class).build();
     }
+
+    /**
+     * sharding.data-sources 中配置的分片数据源
+     */
+    @Bean(destroyMethod = "close")
+    public DataSourceRegistry dataSourceRegistry(ShardingProperties properties){
+        return new DataSourceRegistry(properties);
+    }
 }
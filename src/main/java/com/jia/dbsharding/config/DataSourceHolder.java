@@ -2,27 +2,79 @@ package com.jia.dbsharding.config;
 
 /**
  * 切换数据源
+ * 每个线程保存一个路由栈，嵌套调用 @RoutingDataSource 方法时，内层方法返回后恢复外层方法的数据源
  */
 public class DataSourceHolder {
     /**
      * 默认数据源
      */
     public static final String DEFALUT_DATASOURCE = DataSources.MASTER_DB;
-    private static final ThreadLocal<String> contextHolder = new ThreadLocal<String>();
+    private static final ThreadLocal<RouteStack> contextHolder = ThreadLocal.withInitial(RouteStack::new);
 
-    // 设置数据源名
-    public static void setDB(String datasource){
-        // 日志记录 切换到 + datasource + 数据源
-        contextHolder.set(datasource);
+    // 进入路由方法
+    public static void push(Route route){
+        contextHolder.get().push(route);
+    }
+
+    // 离开路由方法，恢复外层的数据源
+    public static void pop(){
+        contextHolder.get().pop();
+    }
+
+    // 当前的路由，没有时返回 null
+    public static Route current(){
+        return contextHolder.get().peek();
     }
 
     // 获取数据源名
     public static String getDB(){
-        return contextHolder.get();
+        Route route = current();
+        return route == null ? null : route.getDataSource();
+    }
+
+    // 是否只读
+    public static boolean isReadOnly(){
+        Route route = current();
+        return route != null && route.isReadOnly();
+    }
+
+    // 当前方法剩下的部分改为读主库，方法返回后自动恢复
+    public static void usePrimary(){
+        RouteStack stack = contextHolder.get();
+        Route route = stack.peek();
+        if(route != null){
+            stack.replace(route.primary());
+        }
     }
 
-    // 清楚数据源名
-    public static void cleanDB(){
-        contextHolder.remove();
+    /**
+     * 用数组实现的栈，线程复用时不需要重新分配
+     */
+    private static final class RouteStack {
+        private Route[] routes = new Route[4];
+        private int size;
+
+        void push(Route route){
+            if(size == routes.length){
+                Route[] grown = new Route[size * 2];
+                System.arraycopy(routes, 0, grown, 0, size);
+                routes = grown;
+            }
+            routes[size++] = route;
+        }
+
+        void pop(){
+            if(size > 0){
+                routes[--size] = null;
+            }
+        }
+
+        Route peek(){
+            return size == 0 ? null : routes[size - 1];
+        }
+
+        void replace(Route route){
+            routes[size - 1] = route;
+        }
     }
 }
@@ -0,0 +1,67 @@
+package com.jia.dbsharding.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 根据 sharding.data-sources 创建的所有分片数据源
+ * 拓扑重新加载时由 TopologyReloader 整体替换
+ */
+public class DataSourceRegistry {
+
+    private volatile Map<String, DruidDataSource> dataSources;
+
+    /**
+     * 创建每个连接池时使用的配置，重新加载时用来判断哪些数据源变了
+     */
+    private volatile Map<String, ShardingProperties.DataSourceProperty> properties;
+
+    public DataSourceRegistry(ShardingProperties properties) {
+        Map<String, DruidDataSource> dataSources = new LinkedHashMap<>();
+        properties.getDataSources().forEach((name, property) -> dataSources.put(name, create(property)));
+        this.dataSources = dataSources;
+        this.properties = new LinkedHashMap<>(properties.getDataSources());
+    }
+
+    public static DruidDataSource create(ShardingProperties.DataSourceProperty property) {
+        DruidDataSource dataSource = new DruidDataSource();
+        dataSource.setUrl(property.getUrl());
+        dataSource.setUsername(property.getUsername());
+        dataSource.setPassword(property.getPassword());
+        dataSource.setDriverClassName(property.getDriverClassName());
+        dataSource.setInitialSize(property.getInitialSize());
+        dataSource.setMinIdle(property.getMinIdle());
+        dataSource.setMaxActive(property.getMaxActive());
+        dataSource.setMaxWait(property.getMaxWait());
+        return dataSource;
+    }
+
+    public Map<String, DataSource> getDataSources() {
+        return Collections.unmodifiableMap(dataSources);
+    }
+
+    public DruidDataSource getDataSource(String name) {
+        return dataSources.get(name);
+    }
+
+    public Map<String, ShardingProperties.DataSourceProperty> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * 替换所有连接池，旧的连接池由调用方关闭
+     */
+    public synchronized void replace(Map<String, DruidDataSource> dataSources,
+                                     Map<String, ShardingProperties.DataSourceProperty> properties) {
+        this.dataSources = new LinkedHashMap<>(dataSources);
+        this.properties = new LinkedHashMap<>(properties);
+    }
+
+    public void close() {
+        dataSources.values().forEach(DruidDataSource::close);
+    }
+}
@@ -0,0 +1,175 @@
+package com.jia.dbsharding.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jia.dbsharding.metrics.InstrumentedDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动时的连接池预热和就绪耗时统计
+ * 默认不预热：连接池只创建对象，第一次路由到时才初始化并建立连接，用不到的库不会建立连接；
+ * 开启 sharding.startup.warm-up 后，在所有单例创建完、Web 端口开始监听之前，并行初始化每个连接池，
+ * 建立 min-idle 个连接并执行校验 SQL
+ */
+@Slf4j
+public class DataSourceWarmer implements SmartInitializingSingleton, ApplicationListener<ApplicationReadyEvent>, MeterBinder {
+
+    private final DynamicDataSource dynamicDataSource;
+    private final ShardingProperties.StartupProperty property;
+
+    /**
+     * 每个数据源的预热结果
+     */
+    private final Map<String, String> results = new LinkedHashMap<>();
+    private volatile long warmUpMillis = -1;
+    private volatile long readyMillis = -1;
+
+    public DataSourceWarmer(DynamicDataSource dynamicDataSource, ShardingProperties.StartupProperty property) {
+        this.dynamicDataSource = dynamicDataSource;
+        this.property = property;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (property.isWarmUp()) {
+            warmUpAll();
+        }
+    }
+
+    /**
+     * 并行预热所有数据源，超时或失败的数据源记录下来，fail-on-error 为 true 时启动失败
+     */
+    private void warmUpAll() {
+        long start = System.nanoTime();
+        Map<String, DruidDataSource> pools = new LinkedHashMap<>();
+        for (String name : new TreeSet<>(dynamicDataSource.getDataSourceNames())) {
+            DataSource pool = InstrumentedDataSource.unwrap(dynamicDataSource.getDataSource(name));
+            if (pool instanceof DruidDataSource) {
+                pools.put(name, (DruidDataSource) pool);
+            }
+        }
+        AtomicInteger sequence = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(property.getWarmUpThreads(), pools.size())), r -> {
+            Thread thread = new Thread(r, "datasource-warm-up-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, Future<Long>> futures = new LinkedHashMap<>();
+            pools.forEach((name, pool) -> futures.put(name, executor.submit(() -> {
+                long begin = System.nanoTime();
+                warmUp(pool, property.getValidationQuery());
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            })));
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(property.getWarmUpTimeoutMillis());
+            List<String> failed = new ArrayList<>();
+            for (Map.Entry<String, Future<Long>> entry : futures.entrySet()) {
+                String result;
+                try {
+                    result = "OK " + entry.getValue().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) + "ms";
+                } catch (TimeoutException e) {
+                    result = "TIMEOUT";
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("预热数据源时被中断", e);
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    result = "FAILED " + cause.getMessage();
+                }
+                if (!result.startsWith("OK")) {
+                    failed.add(entry.getKey());
+                }
+                synchronized (results) {
+                    results.put(entry.getKey(), result);
+                }
+            }
+            warmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.info("预热 {} 个数据源耗时 {} ms：{}", pools.size(), warmUpMillis, results);
+            if (!failed.isEmpty() && property.isFailOnError()) {
+                throw new IllegalStateException("数据源 " + failed + " 预热失败：" + results);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 初始化连接池，建立 min-idle 个连接（至少一个），在每个连接上执行校验 SQL 后归还
+     * @param validationQuery 为空时只建立连接
+     */
+    public static void warmUp(DruidDataSource pool, String validationQuery) throws SQLException {
+        pool.init();
+        int connections = Math.min(Math.max(1, pool.getMinIdle()), pool.getMaxActive());
+        List<Connection> borrowed = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                Connection connection = pool.getConnection(pool.getMaxWait());
+                borrowed.add(connection);
+                if (StringUtils.hasText(validationQuery)) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute(validationQuery);
+                    }
+                }
+            }
+        } finally {
+            for (Connection connection : borrowed) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * 从 JVM 启动到应用就绪的耗时
+     */
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        readyMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        log.info("应用就绪，从 JVM 启动耗时 {} ms，其中预热数据源 {} ms", readyMillis, Math.max(0, warmUpMillis));
+    }
+
+    /**
+     * 就绪耗时、预热耗时和每个数据源的预热结果，没有预热时 warmUpMillis 为 -1
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("readyMillis", readyMillis);
+        stats.put("warmUpMillis", warmUpMillis);
+        synchronized (results) {
+            stats.put("dataSources", new LinkedHashMap<>(results));
+        }
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("startup.ready", this, TimeUnit.MILLISECONDS, warmer -> warmer.readyMillis)
+                .description("从 JVM 启动到应用就绪的耗时")
+                .register(registry);
+        TimeGauge.builder("startup.warmup", this, TimeUnit.MILLISECONDS, warmer -> warmer.warmUpMillis)
+                .description("启动时预热数据源的耗时，没有预热时为负数")
+                .register(registry);
+    }
+}
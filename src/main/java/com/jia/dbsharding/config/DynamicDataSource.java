@@ -1,12 +1,305 @@
 package com.jia.dbsharding.config;
 
+import com.jia.dbsharding.metrics.InstrumentedDataSource;
+import com.jia.dbsharding.readwrite.CircuitBreaker;
+import com.jia.dbsharding.readwrite.DataSourceHealthChecker;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingTarget;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * 动态切换数据源
+ * 当前线程有分片路由结果时使用分片的数据源，否则使用 @RoutingDataSource 指定的数据源；
+ * 只读请求再由 ReadWriteRouter 分摊到从库
+ * 设置了 DataSourceHealthChecker 时，熔断的数据源直接拒绝；只读请求的从库失败后在时间预算内换其它从库或主库
+ * 目标数据源可以在运行时整体替换，见 TopologyReloader
  */
-public class DynamicDataSource extends AbstractRoutingDataSource {
+public class DynamicDataSource extends AbstractRoutingDataSource implements MeterBinder {
+
+    /**
+     * 没有指定数据源、走默认数据源的路由在指标中的名字
+     */
+    private static final String DEFAULT_KEY = "default";
+
+    /**
+     * 目标数据源和它们的路由次数，重新加载拓扑时整体替换，路由时一次 volatile 读
+     */
+    private static final class Targets {
+        private final Map<Object, Object> dataSources;
+        private final Map<Object, LongAdder> routeCounts;
+
+        private Targets(Map<Object, Object> dataSources, Targets previous) {
+            this.dataSources = Collections.unmodifiableMap(new HashMap<>(dataSources));
+            Map<Object, LongAdder> counts = new HashMap<>();
+            dataSources.keySet().forEach(key -> counts.put(key,
+                    previous.routeCounts.containsKey(key) ? previous.routeCounts.get(key) : new LongAdder()));
+            this.routeCounts = counts;
+        }
+
+        private Targets() {
+            this.dataSources = Collections.emptyMap();
+            this.routeCounts = Collections.emptyMap();
+        }
+    }
+
+    private final ReadWriteRouter readWriteRouter;
+    private volatile Targets targets = new Targets();
+    private Object defaultTargetDataSource;
+
+    private DataSourceHealthChecker healthChecker;
+    private long readBudgetNanos;
+
+    private final LongAdder defaultRouteCount = new LongAdder();
+
+    /**
+     * bindTo 之后新加入的数据源也注册到这里
+     */
+    private volatile MeterRegistry registry;
+
+    public DynamicDataSource(ReadWriteRouter readWriteRouter) {
+        this.readWriteRouter = readWriteRouter;
+    }
+
+    @Override
+    public void setTargetDataSources(Map<Object, Object> targetDataSources) {
+        super.setTargetDataSources(targetDataSources);
+        this.targets = new Targets(targetDataSources, this.targets);
+    }
+
+    /**
+     * 运行时整体替换目标数据源，替换后的请求立即按新的目标路由，已经取得的连接不受影响
+     * 新的目标先注册指标；连接池被替换或删除的数据源删除它的指标
+     */
+    public synchronized void swapTargetDataSources(Map<Object, Object> targetDataSources) {
+        Targets previous = this.targets;
+        Targets next = new Targets(targetDataSources, previous);
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            next.dataSources.forEach((key, target) -> {
+                Object old = previous.dataSources.get(key);
+                if (old == target) {
+                    return;
+                }
+                if (old != null && !samePool(old, target)) {
+                    unbind(registry, key, old, false);
+                }
+                bind(registry, key, target, next.routeCounts.get(key));
+            });
+        }
+        this.targets = next;
+        if (registry != null) {
+            previous.dataSources.forEach((key, old) -> {
+                if (!next.dataSources.containsKey(key)) {
+                    unbind(registry, key, old, true);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void setDefaultTargetDataSource(Object defaultTargetDataSource) {
+        super.setDefaultTargetDataSource(defaultTargetDataSource);
+        this.defaultTargetDataSource = defaultTargetDataSource;
+    }
+
+    /**
+     * 开启熔断和只读请求的重试
+     * @param readBudgetMillis 只读请求换数据源重试的总时间
+     */
+    public void setHealthChecker(DataSourceHealthChecker healthChecker, long readBudgetMillis) {
+        this.healthChecker = healthChecker;
+        this.readBudgetNanos = TimeUnit.MILLISECONDS.toNanos(readBudgetMillis);
+    }
+
+    /**
+     * 根据名字取得目标数据源
+     */
+    public DataSource getDataSource(String name) {
+        return (DataSource) targets.dataSources.get(name);
+    }
+
+    /**
+     * 所有目标数据源的名字
+     */
+    public Set<String> getDataSourceNames() {
+        Set<String> names = new HashSet<>();
+        targets.dataSources.keySet().forEach(key -> names.add(key.toString()));
+        return names;
+    }
+
     protected Object determineCurrentLookupKey() {
-        return DataSourceHolder.getDB();
+        String dataSource = primaryKey();
+        if(DataSourceHolder.isReadOnly()){
+            dataSource = readWriteRouter.routeRead(dataSource);
+        }
+        countRoute(dataSource);
+        return dataSource;
+    }
+
+    /**
+     * 不使用父类在启动时解析好的目标，按当前的目标数据源查找，拓扑重新加载后立即生效
+     */
+    @Override
+    protected DataSource determineTargetDataSource() {
+        Object key = determineCurrentLookupKey();
+        DataSource target = key == null ? null : (DataSource) targets.dataSources.get(key);
+        if (target == null) {
+            target = (DataSource) defaultTargetDataSource;
+        }
+        if (target == null) {
+            throw new IllegalStateException("数据源 " + key + " 不存在");
+        }
+        return target;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (healthChecker == null) {
+            return super.getConnection();
+        }
+        return route(null, null);
+    }
+
+    /**
+     * 指定用户名密码时同样经过读写路由和熔断器
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (healthChecker == null) {
+            return super.getConnection(username, password);
+        }
+        return route(username, password);
+    }
+
+    /**
+     * @param username 为 null 时使用数据源自身配置的账号
+     */
+    private Connection route(String username, String password) throws SQLException {
+        String primary = primaryKey();
+        if (!DataSourceHolder.isReadOnly()) {
+            return connect(primary, username, password);
+        }
+        long deadline = System.nanoTime() + readBudgetNanos;
+        String dataSource = readWriteRouter.routeRead(primary);
+        Set<String> tried = null;
+        while (true) {
+            try {
+                return connect(dataSource, username, password);
+            } catch (SQLException e) {
+                if (dataSource == null || dataSource.equals(primary) || System.nanoTime() - deadline >= 0) {
+                    throw e;
+                }
+                if (tried == null) {
+                    tried = new HashSet<>();
+                }
+                tried.add(dataSource);
+                dataSource = readWriteRouter.fallbackRead(primary, tried);
+                logger.warn("从 " + tried + " 获取连接失败，改用 " + dataSource + "：" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 经过熔断器获取连接，熔断中直接失败
+     */
+    private Connection connect(String dataSource, String username, String password) throws SQLException {
+        countRoute(dataSource);
+        DataSource target = dataSource == null ? null : (DataSource) targets.dataSources.get(dataSource);
+        if (target == null) {
+            target = (DataSource) defaultTargetDataSource;
+        }
+        if (target == null) {
+            throw new IllegalStateException("数据源 " + dataSource + " 不存在");
+        }
+        CircuitBreaker breaker = healthChecker.getBreaker(dataSource);
+        if (breaker == null) {
+            return open(target, username, password);
+        }
+        if (!breaker.allowRequest()) {
+            throw new SQLException("数据源 " + dataSource + " 熔断中");
+        }
+        long start = System.nanoTime();
+        try {
+            Connection connection = open(target, username, password);
+            healthChecker.onConnected(breaker, System.nanoTime() - start);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            breaker.onFailure();
+            throw e;
+        }
+    }
+
+    private static Connection open(DataSource target, String username, String password) throws SQLException {
+        return username == null ? target.getConnection() : target.getConnection(username, password);
+    }
+
+    /**
+     * 当前线程有分片路由结果时使用分片的数据源，否则使用 @RoutingDataSource 指定的数据源
+     */
+    private static String primaryKey() {
+        ShardingTarget target = ShardingContext.get();
+        return target != null ? target.getDataSource() : DataSourceHolder.getDB();
+    }
+
+    private void countRoute(String dataSource) {
+        LongAdder count = dataSource == null ? null : targets.routeCounts.get(dataSource);
+        (count != null ? count : defaultRouteCount).increment();
+    }
+
+    /**
+     * 输出每个数据源的路由次数，目标数据源自身带有指标时一起注册
+     */
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        Targets current = this.targets;
+        current.dataSources.forEach((key, target) -> bind(registry, key, target, current.routeCounts.get(key)));
+        routeCounter(registry, DEFAULT_KEY, defaultRouteCount);
+        this.registry = registry;
+    }
+
+    private static void bind(MeterRegistry registry, Object key, Object target, LongAdder count) {
+        routeCounter(registry, key.toString(), count);
+        if (target instanceof MeterBinder) {
+            ((MeterBinder) target).bindTo(registry);
+        }
+    }
+
+    /**
+     * @param removed 数据源被删除时同时删除路由次数
+     */
+    private static void unbind(MeterRegistry registry, Object key, Object target, boolean removed) {
+        if (removed) {
+            registry.find("sharding.route").tag("datasource", key.toString()).meters().forEach(registry::remove);
+        }
+        if (target instanceof InstrumentedDataSource) {
+            ((InstrumentedDataSource) target).unbindFrom(registry);
+        }
+    }
+
+    private static boolean samePool(Object a, Object b) {
+        return a instanceof DataSource && b instanceof DataSource
+                && InstrumentedDataSource.unwrap((DataSource) a) == InstrumentedDataSource.unwrap((DataSource) b);
+    }
+
+    private static void routeCounter(MeterRegistry registry, String dataSource, LongAdder count) {
+        FunctionCounter.builder("sharding.route", count, LongAdder::sum)
+                .description("路由到各数据源的次数")
+                .tag("datasource", dataSource)
+                .register(registry);
     }
 }
@@ -1,14 +1,23 @@
 package com.jia.dbsharding.config;
 
+import com.jia.dbsharding.metrics.InstrumentedDataSource;
+import com.jia.dbsharding.readwrite.DataSourceHealthChecker;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.readwrite.ReplicationLagMonitor;
+import com.jia.dbsharding.sharding.ShardingInterceptor;
+import com.jia.dbsharding.sharding.ShardingRule;
+import org.apache.ibatis.plugin.Interceptor;
 import org.mybatis.spring.SqlSessionFactoryBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import javax.sql.DataSource;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -19,38 +28,113 @@ public class MybatisDynamicDataSourceConfig {
 
     private final DataSource masterDB;
     private final DataSource slaveDB;
+    private final DataSourceRegistry registry;
+    private final ReadWriteRouter readWriteRouter;
 
     @Autowired
     public MybatisDynamicDataSourceConfig(@Qualifier(DataSources.MASTER_DB) DataSource masterDB
-            , @Qualifier(DataSources.SLAVE_DB) DataSource slaveDB) {
+            , @Qualifier(DataSources.SLAVE_DB) DataSource slaveDB, DataSourceRegistry registry
+            , ReadWriteRouter readWriteRouter) {
         this.masterDB = masterDB;
         this.slaveDB = slaveDB;
+        this.registry = registry;
+        this.readWriteRouter = readWriteRouter;
     }
 
     /**
      * 返回一个名为 dynamicDataSource 的动态数据源
      */
     @Bean(name = "dynamicDataSource")
-    public DataSource dynamicDataSource(){
-        DynamicDataSource dynamicDataSource = new DynamicDataSource();
-        // 默认数据源
-        dynamicDataSource.setDefaultTargetDataSource(masterDB);
+    public DynamicDataSource dynamicDataSource(){
+        DynamicDataSource dynamicDataSource = new DynamicDataSource(readWriteRouter);
 
-        Map<Object, Object> dsMap = new HashMap<Object, Object>();
+        Map<String, DataSource> dsMap = new HashMap<>();
 
         dsMap.put(DataSources.MASTER_DB, masterDB);
         dsMap.put(DataSources.SLAVE_DB, slaveDB);
-        dynamicDataSource.setTargetDataSources(dsMap);
+        // 分片数据源
+        dsMap.putAll(registry.getDataSources());
+        // 从库包装一层统计连接数和延迟给负载均衡用，最外层统计每个数据源的连接等待、SQL 耗时和连接池状态
+        Map<Object, Object> targets = TopologyReloader.targets(dsMap, readWriteRouter.getGroups());
+        // 默认数据源
+        dynamicDataSource.setDefaultTargetDataSource(targets.get(DataSources.MASTER_DB));
+        dynamicDataSource.setTargetDataSources(targets);
 
         return dynamicDataSource;
     }
 
+    /**
+     * 复制延迟检测，sharding.read-write.lag.enabled 为 true 时开启
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "sharding.read-write.lag", name = "enabled", havingValue = "true")
+    public ReplicationLagMonitor replicationLagMonitor(ShardingProperties properties){
+        ShardingProperties.LagProperty lag = properties.getReadWrite().getLag();
+        DynamicDataSource dynamicDataSource = dynamicDataSource();
+        // 检测直接访问连接池，不计入负载均衡和 SQL 耗时的统计
+        ReplicationLagMonitor monitor = new ReplicationLagMonitor(readWriteRouter,
+                name -> InstrumentedDataSource.unwrap(dynamicDataSource.getDataSource(name)),
+                lag.getMaxLagMillis(), lag.getIntervalMillis());
+        monitor.start();
+        return monitor;
+    }
+
+    /**
+     * 数据源熔断，熔断的从库不参与读请求
+     */
+    @Bean(destroyMethod = "close")
+    public DataSourceHealthChecker dataSourceHealthChecker(ShardingProperties properties){
+        ShardingProperties.HealthProperty health = properties.getReadWrite().getHealth();
+        DynamicDataSource dynamicDataSource = dynamicDataSource();
+        DataSourceHealthChecker checker = new DataSourceHealthChecker(readWriteRouter, dynamicDataSource.getDataSourceNames(),
+                name -> InstrumentedDataSource.unwrap(dynamicDataSource.getDataSource(name)), health);
+        dynamicDataSource.setHealthChecker(checker, health.getReadBudgetMillis());
+        checker.start();
+        return checker;
+    }
+
+    /**
+     * 启动时并行预热连接池，统计就绪耗时
+     */
+    @Bean
+    public DataSourceWarmer dataSourceWarmer(ShardingProperties properties){
+        return new DataSourceWarmer(dynamicDataSource(), properties.getStartup());
+    }
+
+    /**
+     * 按负载调整每个连接池的大小，sharding.pool-sizing.enabled 为 true 时开启
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "sharding.pool-sizing", name = "enabled", havingValue = "true")
+    public AdaptivePoolSizer adaptivePoolSizer(ShardingProperties properties){
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer(dynamicDataSource(), properties.getPoolSizing());
+        sizer.start();
+        return sizer;
+    }
+
+    /**
+     * 运行时重新加载分片数据源和主从分组
+     */
+    @Bean(destroyMethod = "close")
+    public TopologyReloader topologyReloader(ShardingProperties properties, ShardingRule shardingRule,
+                                             DataSourceHealthChecker healthChecker){
+        Map<String, DataSource> fixed = new LinkedHashMap<>();
+        fixed.put(DataSources.MASTER_DB, masterDB);
+        fixed.put(DataSources.SLAVE_DB, slaveDB);
+        TopologyReloader reloader = new TopologyReloader(registry, fixed, dynamicDataSource(), readWriteRouter,
+                healthChecker, shardingRule, properties);
+        reloader.start();
+        return reloader;
+    }
+
     @Bean
     @ConfigurationProperties(prefix = "mybatis")
-    public SqlSessionFactoryBean sqlSessionFactoryBean(){
+    public SqlSessionFactoryBean sqlSessionFactoryBean(ShardingInterceptor shardingInterceptor){
         SqlSessionFactoryBean sqlSessionFactoryBeans = new SqlSessionFactoryBean();
         // 配置数据源，如果没有 dynamicDataSource作为数据源将不能实现切换
         sqlSessionFactoryBeans.setDataSource(dynamicDataSource());
+        // mapper 中的逻辑表改写为物理表
+        sqlSessionFactoryBeans.setPlugins(new Interceptor[]{shardingInterceptor});
         return sqlSessionFactoryBeans;
     }
 }
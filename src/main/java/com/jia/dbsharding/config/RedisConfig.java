@@ -4,6 +4,11 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ser.std.StringSerializer;
+import com.jia.dbsharding.codec.CompactRedisSerializer;
+import com.jia.dbsharding.codec.DBEntityCodec;
+import com.jia.dbsharding.codec.EntityCodec;
+import com.jia.dbsharding.util.RedisTemplateUtil;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
@@ -11,17 +16,26 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 1、先使用JedisConnectionFactory创建连接工厂
  * 2、再创建RedisTemplate模板
- * 3、配置序列化器
+ * 3、配置序列化器：注册了 EntityCodec 的实体使用二进制编码，其它类型使用 Jackson
+ * 4、配置了 cache.redis.nodes 时缓存数据按一致性哈希分布在这些节点上
  */
 @Configuration
 public class RedisConfig {
 
     @Bean
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory factory, List<EntityCodec<?>> codecs){
+        return newRedisTemplate(factory, codecs);
+    }
+
     @SuppressWarnings("all")
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory factory){
+    private static RedisTemplate<String, Object> newRedisTemplate(RedisConnectionFactory factory, List<EntityCodec<?>> codecs){
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(factory);
 
@@ -30,19 +44,47 @@ public class RedisConfig {
         om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
         om.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
         jackson2JsonRedisSerializer.setObjectMapper(om);
+        CompactRedisSerializer compactRedisSerializer = new CompactRedisSerializer(codecs, jackson2JsonRedisSerializer);
 
         StringRedisSerializer stringRedisSerializer = new StringRedisSerializer();
         // key 和 hash 采用String的序列化方式
         template.setKeySerializer(stringRedisSerializer);
         template.setHashKeySerializer(stringRedisSerializer);
 
-        // value 和 hash 的 value 采用 Jackson 的序列化
-        template.setValueSerializer(jackson2JsonRedisSerializer);
-        template.setHashValueSerializer(jackson2JsonRedisSerializer);
+        // value 和 hash 的 value 优先使用二进制编码，旧的 JSON 数据仍然可以读取
+        template.setValueSerializer(compactRedisSerializer);
+        template.setHashValueSerializer(compactRedisSerializer);
 
         template.afterPropertiesSet();
         return template;
     }
 
+    @Bean
+    public RedisNodeFactories redisNodeFactories(CacheProperties properties, RedisProperties redisProperties){
+        return new RedisNodeFactories(properties.getRedis().getNodes(), redisProperties);
+    }
+
+    /**
+     * 没有配置 cache.redis.nodes 时所有数据都在 spring.redis 的节点上
+     */
+    @Bean
+    public RedisTemplateUtil redisTemplateUtil(RedisTemplate<String, Object> redisTemplate, RedisNodeFactories nodeFactories,
+                                               CacheProperties properties, List<EntityCodec<?>> codecs){
+        if(nodeFactories.getFactories().isEmpty()){
+            return new RedisTemplateUtil(redisTemplate);
+        }
+        Map<String, RedisTemplate<String, Object>> nodes = new LinkedHashMap<>();
+        nodeFactories.getFactories().forEach((name, factory) -> nodes.put(name, newRedisTemplate(factory, codecs)));
+        return new RedisTemplateUtil(redisTemplate, nodes, properties.getRedis().getVirtualNodes());
+    }
+
+    /**
+     * DBEntity 的二进制编码，新的缓存实体在这里注册对应的 EntityCodec
+     */
+    @Bean
+    public DBEntityCodec dbEntityCodec(){
+        return new DBEntityCodec();
+    }
+
 
 }
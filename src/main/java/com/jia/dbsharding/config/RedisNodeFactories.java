@@ -0,0 +1,71 @@
+package com.jia.dbsharding.config;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * cache.redis.nodes 中每个缓存节点的连接工厂
+ * 密码、数据库、超时和连接池沿用 spring.redis 的配置
+ */
+public class RedisNodeFactories implements DisposableBean {
+
+    private final Map<String, JedisConnectionFactory> factories = new LinkedHashMap<>();
+
+    /**
+     * @param nodes 节点名到 host:port
+     */
+    public RedisNodeFactories(Map<String, String> nodes, RedisProperties redis) {
+        nodes.forEach((name, address) -> {
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0 || colon == address.length() - 1) {
+                throw new IllegalArgumentException("redis 节点 " + name + " 的地址不是 host:port：" + address);
+            }
+            RedisStandaloneConfiguration standalone = new RedisStandaloneConfiguration(
+                    address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            standalone.setDatabase(redis.getDatabase());
+            standalone.setPassword(RedisPassword.of(redis.getPassword()));
+            JedisConnectionFactory factory = new JedisConnectionFactory(standalone, clientConfiguration(redis));
+            factory.afterPropertiesSet();
+            factories.put(name, factory);
+        });
+    }
+
+    private static JedisClientConfiguration clientConfiguration(RedisProperties redis) {
+        JedisClientConfiguration.JedisClientConfigurationBuilder builder = JedisClientConfiguration.builder();
+        Duration timeout = redis.getTimeout();
+        if (timeout != null && !timeout.isZero()) {
+            builder.connectTimeout(timeout).readTimeout(timeout);
+        }
+        RedisProperties.Pool pool = redis.getJedis().getPool();
+        if (pool != null) {
+            GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+            config.setMaxTotal(pool.getMaxActive());
+            config.setMaxIdle(pool.getMaxIdle());
+            config.setMinIdle(pool.getMinIdle());
+            if (pool.getMaxWait() != null) {
+                config.setMaxWaitMillis(pool.getMaxWait().toMillis());
+            }
+            builder.usePooling().poolConfig(config);
+        }
+        return builder.build();
+    }
+
+    public Map<String, JedisConnectionFactory> getFactories() {
+        return Collections.unmodifiableMap(factories);
+    }
+
+    @Override
+    public void destroy() {
+        factories.values().forEach(JedisConnectionFactory::destroy);
+    }
+}
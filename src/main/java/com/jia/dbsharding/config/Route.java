@@ -0,0 +1,47 @@
+package com.jia.dbsharding.config;
+
+/**
+ * 一个方法的路由信息，由 @RoutingDataSource 解析得到，解析后不再变化
+ */
+public final class Route {
+
+    /**
+     * 方法上没有 @RoutingDataSource
+     */
+    public static final Route NONE = new Route(null, false, null);
+
+    private final String dataSource;
+    private final boolean readOnly;
+    private final Route primary;
+
+    private Route(String dataSource, boolean readOnly, Route primary) {
+        this.dataSource = dataSource;
+        this.readOnly = readOnly;
+        this.primary = primary == null ? this : primary;
+    }
+
+    public static Route of(String dataSource, boolean readOnly) {
+        Route primary = new Route(dataSource, false, null);
+        return readOnly ? new Route(dataSource, true, primary) : primary;
+    }
+
+    public String getDataSource() {
+        return dataSource;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * 同一个数据源读主库的路由，提前创建好，切换时不需要分配对象
+     */
+    public Route primary() {
+        return primary;
+    }
+
+    @Override
+    public String toString() {
+        return readOnly ? dataSource + "(readOnly)" : String.valueOf(dataSource);
+    }
+}
@@ -7,13 +7,20 @@ import java.lang.annotation.Target;
 
 /**
  * 切换数据源的注解类
+ * 可以写在方法上，也可以写在类或接口上作用于所有方法；方法上的注解优先
  */
 
 @Retention(RetentionPolicy.RUNTIME)
 @Target({
-        ElementType.METHOD
+        ElementType.METHOD,
+        ElementType.TYPE
 })
 public @interface RoutingDataSource {
 
     String value() default DataSources.MASTER_DB;
+
+    /**
+     * 只读请求，为 true 时从 value 对应主库的从库中选一个执行
+     */
+    boolean readOnly() default false;
 }
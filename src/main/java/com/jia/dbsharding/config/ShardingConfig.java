@@ -0,0 +1,223 @@
+package com.jia.dbsharding.config;
+
+import com.jia.dbsharding.batch.InsertCoalescer;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.id.SegmentIdGenerator;
+import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.readwrite.LoadBalancers;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.readwrite.ReadYourWritesTracker;
+import com.jia.dbsharding.readwrite.Replica;
+import com.jia.dbsharding.readwrite.ReplicaGroup;
+import com.jia.dbsharding.resharding.ReshardingCoordinator;
+import com.jia.dbsharding.sharding.HashShardingAlgorithm;
+import com.jia.dbsharding.sharding.ModShardingAlgorithm;
+import com.jia.dbsharding.sharding.RangeShardingAlgorithm;
+import com.jia.dbsharding.sharding.ShardBloomFilter;
+import com.jia.dbsharding.sharding.ShardBulkhead;
+import com.jia.dbsharding.sharding.ShardStreamer;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingExecutor;
+import com.jia.dbsharding.sharding.ShardingInterceptor;
+import com.jia.dbsharding.sharding.ShardingAlgorithm;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.TableRule;
+import com.jia.dbsharding.util.RedisTemplateUtil;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 根据 application.yml 中的配置创建分片规则
+ */
+@Configuration
+@EnableConfigurationProperties(ShardingProperties.class)
+public class ShardingConfig {
+
+    /**
+     * redis 中 id 计数器的 key 前缀
+     */
+    private static final String ID_KEY_PREFIX = "sharding:id:";
+
+    @Bean
+    public ShardingRule shardingRule(ShardingProperties properties) {
+        List<TableRule> rules = new ArrayList<>();
+        properties.getTables().forEach((logicTable, table) -> rules.add(tableRule(logicTable, table)));
+        return new ShardingRule(rules);
+    }
+
+    /**
+     * 在线重新分片，开启了 Bloom 过滤器时复制到新表的 id 同时放入过滤器
+     */
+    @Bean(destroyMethod = "close")
+    public ReshardingCoordinator reshardingCoordinator(ShardingProperties properties, ShardingRule shardingRule,
+                                                       DBMapper mapper, DataSourceRegistry registry,
+                                                       ObjectProvider<ShardBloomFilter> idFilter) {
+        ReshardingCoordinator coordinator = new ReshardingCoordinator(shardingRule, mapper,
+                () -> registry.getDataSources().keySet(), properties.getResharding());
+        idFilter.ifAvailable(filter -> coordinator.addCopyListener(rows -> rows.forEach(row -> filter.put(row.getId()))));
+        return coordinator;
+    }
+
+    /**
+     * 跨分片查询的执行器
+     */
+    @Bean(destroyMethod = "close")
+    public ShardingExecutor shardingExecutor(ShardingProperties properties) {
+        ShardingProperties.ExecutorProperty executor = properties.getExecutor();
+        return new ShardingExecutor(executor.getThreadsPerDataSource(), executor.getQueueSize(), executor.getTimeoutMillis());
+    }
+
+    /**
+     * 把 mapper 中的逻辑表改写为物理表的 MyBatis 插件
+     */
+    @Bean
+    public ShardingInterceptor shardingInterceptor(ShardingProperties properties, ShardingRule shardingRule,
+                                                   ShardingExecutor shardingExecutor) {
+        return new ShardingInterceptor(shardingRule, shardingExecutor, properties.getSqlTemplateCacheSize());
+    }
+
+    /**
+     * 异步接口的舱壁，每个分片数据源一个线程池，数据源随拓扑重新加载变化
+     */
+    @Bean(destroyMethod = "close")
+    public ShardBulkhead shardBulkhead(ShardingProperties properties, DataSourceRegistry registry) {
+        ShardingProperties.BulkheadProperty bulkhead = properties.getBulkhead();
+        return new ShardBulkhead(() -> registry.getDataSources().keySet(), bulkhead.getThreadsPerDataSource(), bulkhead.getQueueSize());
+    }
+
+    /**
+     * 全表导出时并发读取各张物理表
+     */
+    @Bean(destroyMethod = "close")
+    public ShardStreamer shardStreamer(ShardingProperties properties) {
+        ShardingProperties.ExportProperty export = properties.getExport();
+        return new ShardStreamer(export.getThreads(), export.getMaxConcurrentExports(), export.getQueueSize(),
+                export.getStallTimeoutMillis());
+    }
+
+    /**
+     * 读写分离路由，主从关系来自 sharding.read-write.groups
+     */
+    @Bean
+    public ReadWriteRouter readWriteRouter(ShardingProperties properties) {
+        ShardingProperties.ReadWriteProperty readWrite = properties.getReadWrite();
+        return new ReadWriteRouter(replicaGroups(readWrite.getGroups(), readWrite.getLoadBalancer()));
+    }
+
+    /**
+     * @param defaultLoadBalancer 分组没有配置负载均衡策略时使用
+     */
+    public static List<ReplicaGroup> replicaGroups(Map<String, ShardingProperties.GroupProperty> properties,
+                                                   String defaultLoadBalancer) {
+        List<ReplicaGroup> groups = new ArrayList<>();
+        properties.forEach((master, group) -> {
+            List<Replica> replicas = new ArrayList<>();
+            group.getReplicas().forEach((name, weight) -> replicas.add(new Replica(name, weight)));
+            String loadBalancer = group.getLoadBalancer() != null ? group.getLoadBalancer() : defaultLoadBalancer;
+            groups.add(new ReplicaGroup(master, replicas, LoadBalancers.create(loadBalancer)));
+        });
+        return groups;
+    }
+
+    /**
+     * 记录最近写过的 key，读这些 key 时走主库
+     */
+    @Bean
+    public ReadYourWritesTracker readYourWritesTracker(ShardingProperties properties, ReadWriteRouter readWriteRouter) {
+        ShardingProperties.ReadWriteProperty readWrite = properties.getReadWrite();
+        long lagCheckInterval = readWrite.getLag().isEnabled() ? readWrite.getLag().getIntervalMillis() : 0;
+        return new ReadYourWritesTracker(readWriteRouter, readWrite.getConsistencyWindowMillis(), lagCheckInterval);
+    }
+
+    /**
+     * user 表的 id 生成器，号段从 spring.redis 默认节点上的计数器领取，不随 cache.redis.nodes 的哈希环迁移
+     */
+    @Bean(destroyMethod = "close")
+    public SegmentIdGenerator userIdGenerator(ShardingProperties properties, RedisTemplateUtil redisTemplateUtil) {
+        String key = ID_KEY_PREFIX + "user";
+        AtomicBoolean aligned = new AtomicBoolean();
+        return new SegmentIdGenerator("user", properties.getId().getStep(), step -> {
+            // 领取第一个号段前追上旧版本留在哈希环节点上的计数器，重复追赶也只会让计数器变大
+            if (!aligned.get()) {
+                redisTemplateUtil.raiseDefaultCounterToNodes(key);
+                aligned.set(true);
+            }
+            return redisTemplateUtil.incrementOnDefaultNode(key, step);
+        });
+    }
+
+    /**
+     * user 表的 id Bloom 过滤器，sharding.bloom-filter.enabled 为 true 时开启，创建后在后台构建
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "sharding.bloom-filter", name = "enabled", havingValue = "true")
+    public ShardBloomFilter userBloomFilter(ShardingProperties properties, ShardingRule shardingRule, DBMapper mapper) {
+        ShardingProperties.BloomFilterProperty bloomFilter = properties.getBloomFilter();
+        ShardBloomFilter filter = new ShardBloomFilter(shardingRule, "user", bloomFilter.getExpectedIdsPerShard(), bloomFilter.getFpp());
+        filter.build((target, afterId, limit) -> {
+            DataSourceHolder.push(Route.of(target.getDataSource(), true));
+            ShardingContext.set(target);
+            try {
+                return mapper.selectIdsAfter(afterId, limit);
+            } finally {
+                ShardingContext.clear();
+                DataSourceHolder.pop();
+            }
+        }, bloomFilter.getScanBatchSize(), bloomFilter.getBuildThreads());
+        return filter;
+    }
+
+    /**
+     * user 表的合并插入，sharding.insert-coalescing.enabled 为 true 时开启
+     * 在刷新线程上执行，需要自己设置分片路由
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "sharding.insert-coalescing", name = "enabled", havingValue = "true")
+    public InsertCoalescer<DBEntity> userInsertCoalescer(ShardingProperties properties, DBMapper mapper) {
+        ShardingProperties.InsertCoalescingProperty coalescing = properties.getInsertCoalescing();
+        return new InsertCoalescer<>(coalescing.getMaxBatchSize(), coalescing.getMaxDelayMillis(),
+                coalescing.getTimeoutMillis(), coalescing.getFlushThreads(),
+                (target, rows) -> {
+                    ShardingContext.set(target);
+                    try {
+                        mapper.insertBatch(rows);
+                    } finally {
+                        ShardingContext.clear();
+                    }
+                },
+                (target, row) -> {
+                    ShardingContext.set(target);
+                    try {
+                        mapper.insertName(row.getId(), row.getName());
+                    } finally {
+                        ShardingContext.clear();
+                    }
+                });
+    }
+
+    public static TableRule tableRule(String logicTable, ShardingProperties.TableProperty table) {
+        return new TableRule(logicTable, table.getShardingColumn(), table.getDataSources(),
+                table.getActualTables(), algorithm(table));
+    }
+
+    static ShardingAlgorithm algorithm(ShardingProperties.TableProperty table) {
+        switch (table.getAlgorithm()) {
+            case "mod":
+                return new ModShardingAlgorithm();
+            case "hash":
+                return new HashShardingAlgorithm();
+            case "range":
+                return new RangeShardingAlgorithm(table.getRangeStep());
+            default:
+                throw new IllegalArgumentException("不支持的分片算法：" + table.getAlgorithm());
+        }
+    }
+}
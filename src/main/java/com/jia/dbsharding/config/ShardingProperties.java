@@ -0,0 +1,404 @@
+package com.jia.dbsharding.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * application.yml 中 sharding 前缀的分片拓扑配置
+ */
+@Data
+@ConfigurationProperties(prefix = "sharding")
+public class ShardingProperties {
+
+    /**
+     * 分片数据源，key 为数据源名
+     */
+    private Map<String, DataSourceProperty> dataSources = new LinkedHashMap<>();
+
+    /**
+     * 逻辑表的分片规则，key 为逻辑表名
+     */
+    private Map<String, TableProperty> tables = new LinkedHashMap<>();
+
+    /**
+     * id 生成器配置
+     */
+    private IdProperty id = new IdProperty();
+
+    /**
+     * 读写分离配置
+     */
+    private ReadWriteProperty readWrite = new ReadWriteProperty();
+
+    /**
+     * 跨分片查询的线程池配置
+     */
+    private ExecutorProperty executor = new ExecutorProperty();
+
+    /**
+     * 合并插入配置
+     */
+    private InsertCoalescingProperty insertCoalescing = new InsertCoalescingProperty();
+
+    /**
+     * 异步接口的舱壁线程池配置
+     */
+    private BulkheadProperty bulkhead = new BulkheadProperty();
+
+    /**
+     * 重新分片时回填的限速配置
+     */
+    private ReshardingProperty resharding = new ReshardingProperty();
+
+    /**
+     * 改写逻辑表时缓存的 SQL 解析结果数量
+     */
+    private int sqlTemplateCacheSize = 4096;
+
+    /**
+     * 运行时重新加载数据源拓扑的配置
+     */
+    private TopologyProperty topology = new TopologyProperty();
+
+    /**
+     * 启动时的连接池预热配置
+     */
+    private StartupProperty startup = new StartupProperty();
+
+    /**
+     * 按负载自动调整每个连接池大小的配置
+     */
+    private PoolSizingProperty poolSizing = new PoolSizingProperty();
+
+    /**
+     * 每张物理表已有 id 的 Bloom 过滤器
+     */
+    private BloomFilterProperty bloomFilter = new BloomFilterProperty();
+
+    /**
+     * 全表导出
+     */
+    private ExportProperty export = new ExportProperty();
+
+    @Data
+    public static class DataSourceProperty {
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName = "com.mysql.jdbc.Driver";
+        private int initialSize = 0;
+        private int minIdle = 0;
+        private int maxActive = 8;
+        /**
+         * 获取连接的最大等待时间，毫秒
+         */
+        private long maxWait = 3000;
+    }
+
+    @Data
+    public static class TableProperty {
+        /**
+         * 物理表分布的数据源，按顺序平均分配
+         */
+        private List<String> dataSources = new ArrayList<>();
+        /**
+         * 物理表总数，物理表名为 逻辑表名_下标
+         */
+        private int actualTables = 1;
+        private String shardingColumn = "id";
+        /**
+         * 分片算法：mod、hash、range
+         */
+        private String algorithm = "mod";
+        /**
+         * range 算法每张表存放的 id 数量
+         */
+        private long rangeStep;
+    }
+
+    @Data
+    public static class ReadWriteProperty {
+        /**
+         * 负载均衡策略：round-robin、weighted、least-active、ewma，或者 LoadBalancer 实现类的全类名
+         */
+        private String loadBalancer = "round-robin";
+        /**
+         * key 为主库名，value 为它的从库
+         */
+        private Map<String, GroupProperty> groups = new LinkedHashMap<>();
+        /**
+         * 写入某个 key 之后，这段时间内读这个 key 都走主库，毫秒
+         */
+        private long consistencyWindowMillis = 1000;
+        /**
+         * 复制延迟检测
+         */
+        private LagProperty lag = new LagProperty();
+        /**
+         * 数据源健康检查和熔断
+         */
+        private HealthProperty health = new HealthProperty();
+    }
+
+    @Data
+    public static class HealthProperty {
+        /**
+         * 连续失败（包括获取连接过慢）这么多次后熔断，熔断的从库不参与读请求
+         */
+        private int failureThreshold = 3;
+        /**
+         * 获取连接超过这个时间算一次失败，毫秒
+         */
+        private long slowMillis = 1000;
+        /**
+         * 熔断后至少等待这么久才重新尝试，毫秒
+         */
+        private long openMillis = 10000;
+        /**
+         * 检查间隔，毫秒
+         */
+        private long intervalMillis = 1000;
+        /**
+         * 是否主动探测：开启后定时对每个数据源执行连接检查，熔断的数据源探测成功才恢复；
+         * 关闭时熔断时间到了直接放行请求试探，失败则再次熔断
+         */
+        private boolean probe = false;
+        private long probeTimeoutMillis = 1000;
+        /**
+         * 只读请求在从库失败时换其它从库或主库重试，总耗时超过这个值后不再重试，毫秒
+         */
+        private long readBudgetMillis = 2000;
+    }
+
+    @Data
+    public static class LagProperty {
+        private boolean enabled = false;
+        /**
+         * 检测间隔，毫秒
+         */
+        private long intervalMillis = 1000;
+        /**
+         * 延迟超过这个值的从库不参与读请求，毫秒
+         */
+        private long maxLagMillis = 3000;
+    }
+
+    @Data
+    public static class GroupProperty {
+        /**
+         * 不配置时使用 read-write.load-balancer
+         */
+        private String loadBalancer;
+        /**
+         * key 为从库的数据源名，value 为权重
+         */
+        private Map<String, Integer> replicas = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class ExecutorProperty {
+        /**
+         * 每个数据源的查询线程数
+         */
+        private int threadsPerDataSource = 4;
+        /**
+         * 每个数据源最多排队的查询数，超过后直接拒绝
+         */
+        private int queueSize = 64;
+        /**
+         * 一次跨分片查询的超时时间，毫秒
+         */
+        private long timeoutMillis = 3000;
+    }
+
+    @Data
+    public static class BulkheadProperty {
+        /**
+         * 每个分片数据源处理异步请求的线程数
+         */
+        private int threadsPerDataSource = 8;
+        /**
+         * 每个分片数据源最多排队的请求数，超过后直接拒绝
+         */
+        private int queueSize = 100;
+    }
+
+    @Data
+    public static class ReshardingProperty {
+        /**
+         * 每批复制的行数，运行时可以通过 /admin/resharding/throttle 调整
+         */
+        private int batchSize = 500;
+        /**
+         * 每秒最多复制的行数，运行时可以调整
+         */
+        private int rowsPerSecond = 2000;
+        /**
+         * 开启双写后等待这么久再开始回填，让按旧规则路由的写入执行完，毫秒
+         */
+        private long startDelayMillis = 1000;
+        /**
+         * 校验通过后自动切换路由，否则需要调用 /admin/resharding/flip
+         */
+        private boolean autoFlip = false;
+    }
+
+    @Data
+    public static class TopologyProperty {
+        /**
+         * 拓扑配置文件，格式和 application.yml 中 sharding 前缀相同，只使用 data-sources 和 read-write.groups；
+         * 不配置时只能通过 /admin/datasource/topology 重新加载
+         */
+        private String file;
+        /**
+         * 检查配置文件是否修改的间隔，毫秒
+         */
+        private long watchIntervalMillis = 5000;
+        /**
+         * 被替换或删除的连接池最多等待这么久让借出的连接归还，之后关闭，毫秒
+         */
+        private long drainTimeoutMillis = 30000;
+        /**
+         * 切换后至少等这么久才开始检查旧连接池借出的连接，让切换前已经选中旧连接池的请求拿到连接，毫秒
+         */
+        private long drainGraceMillis = 1000;
+    }
+
+    @Data
+    public static class StartupProperty {
+        /**
+         * 启动时并行预热所有连接池，预热完成后 Web 端口才开始监听；
+         * 关闭时连接池在第一次路由到时才初始化
+         */
+        private boolean warmUp = false;
+        private int warmUpThreads = 8;
+        /**
+         * 所有数据源预热的总超时，毫秒
+         */
+        private long warmUpTimeoutMillis = 30000;
+        /**
+         * 预热和重新加载拓扑时在每个新连接上执行，为空时只建立连接
+         */
+        private String validationQuery = "SELECT 1";
+        /**
+         * 有数据源预热失败或超时时启动失败，否则只记录下来
+         */
+        private boolean failOnError = false;
+    }
+
+    @Data
+    public static class PoolSizingProperty {
+        private boolean enabled = false;
+        /**
+         * 采样和调整的间隔，毫秒
+         */
+        private long intervalMillis = 10000;
+        /**
+         * 所有连接池 maxActive 之和的上限，不配置时取启动时所有连接池的 maxActive 之和
+         */
+        private int totalMaxActive = 0;
+        /**
+         * 每个连接池 maxActive 的下限和上限
+         */
+        private int minActive = 2;
+        private int maxActive = 64;
+        /**
+         * maxActive 相对平均并发连接数的余量倍数
+         */
+        private double headroom = 1.5;
+        /**
+         * 每个周期扩容或收缩的连接数
+         */
+        private int step = 4;
+        /**
+         * 获取连接的平均等待超过这个值时扩容，毫秒
+         */
+        private double waitThresholdMillis = 5;
+        /**
+         * 平均并发连接数的指数平滑系数，越大越跟随最近一个周期
+         */
+        private double smoothing = 0.5;
+    }
+
+    @Data
+    public static class BloomFilterProperty {
+        /**
+         * 开启后启动时在后台扫描每张表的 id，查询不存在的 id 直接返回 null
+         */
+        private boolean enabled = false;
+        /**
+         * 每张表预计的行数，超过后误判率上升
+         */
+        private long expectedIdsPerShard = 1000000;
+        /**
+         * 误判率，误判的 id 照常查询
+         */
+        private double fpp = 0.01;
+        /**
+         * 扫描时每批读取的 id 数
+         */
+        private int scanBatchSize = 10000;
+        private int buildThreads = 4;
+    }
+
+    @Data
+    public static class ExportProperty {
+        /**
+         * 一个导出同时读取的物理表数
+         */
+        private int threads = 4;
+        /**
+         * 同时进行的导出数，超出时返回 503；读取线程共 threads * maxConcurrentExports 个
+         */
+        private int maxConcurrentExports = 2;
+        /**
+         * 读取线程和写出线程之间最多缓冲的行数
+         */
+        private int queueSize = 1024;
+        /**
+         * 每张表每次查询的行数，一次查询结束就归还连接
+         */
+        private int batchSize = 1000;
+        /**
+         * 客户端超过这么久没有读取数据，或者数据库超过这么久没有返回数据时放弃导出，释放数据库连接，毫秒
+         */
+        private long stallTimeoutMillis = 30000;
+    }
+
+    @Data
+    public static class InsertCoalescingProperty {
+        /**
+         * 开启后并发的 insertName 按物理表合并成多行 INSERT
+         */
+        private boolean enabled = false;
+        /**
+         * 攒够这么多行立即写入
+         */
+        private int maxBatchSize = 100;
+        /**
+         * 第一行进入缓冲区后最多等待这么久就写入，毫秒
+         */
+        private long maxDelayMillis = 5;
+        /**
+         * 调用方等待写入结果的最长时间，毫秒
+         */
+        private long timeoutMillis = 3000;
+        /**
+         * 执行定时刷新的线程数
+         */
+        private int flushThreads = 4;
+    }
+
+    @Data
+    public static class IdProperty {
+        /**
+         * 每次从 redis 领取的号段长度，越大访问 redis 越少，重启时浪费的 id 也越多
+         */
+        private long step = 1000;
+    }
+}
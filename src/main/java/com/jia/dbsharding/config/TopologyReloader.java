@@ -0,0 +1,317 @@
+package com.jia.dbsharding.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jia.dbsharding.metrics.InstrumentedDataSource;
+import com.jia.dbsharding.readwrite.DataSourceHealthChecker;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.readwrite.Replica;
+import com.jia.dbsharding.readwrite.ReplicaGroup;
+import com.jia.dbsharding.readwrite.TrackedDataSource;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.ShardingTarget;
+import com.jia.dbsharding.sharding.TableRule;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 运行时重新加载分片数据源和主从分组，不需要重启
+ * 新的连接池先创建并预热，再分三步切换：先让新旧目标同时可用，再切换熔断器和读写分离路由，最后去掉删除的目标；
+ * 被替换或删除的连接池等借出的连接归还后关闭
+ * masterDB、slaveDB 和逻辑表的分片规则不在重新加载的范围内
+ */
+@Slf4j
+public class TopologyReloader {
+
+    private static final long DRAIN_POLL_MILLIS = 100;
+
+    private final DataSourceRegistry registry;
+    private final Map<String, DataSource> fixedDataSources;
+    private final DynamicDataSource dynamicDataSource;
+    private final ReadWriteRouter router;
+    private final DataSourceHealthChecker healthChecker;
+    private final ShardingRule shardingRule;
+    private final String defaultLoadBalancer;
+    private final String validationQuery;
+    private final ShardingProperties.TopologyProperty property;
+    private final long drainTimeoutNanos;
+    private final long drainGraceMillis;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 等待关闭的旧连接池
+     */
+    private final Map<DruidDataSource, String> draining = new ConcurrentHashMap<>();
+
+    private Map<String, ShardingProperties.GroupProperty> groups;
+    private long fileModified;
+
+    /**
+     * @param fixedDataSources 不参与重新加载的数据源，例如 masterDB、slaveDB
+     */
+    public TopologyReloader(DataSourceRegistry registry, Map<String, DataSource> fixedDataSources,
+                            DynamicDataSource dynamicDataSource, ReadWriteRouter router,
+                            DataSourceHealthChecker healthChecker, ShardingRule shardingRule,
+                            ShardingProperties properties) {
+        this.registry = registry;
+        this.fixedDataSources = new LinkedHashMap<>(fixedDataSources);
+        this.dynamicDataSource = dynamicDataSource;
+        this.router = router;
+        this.healthChecker = healthChecker;
+        this.shardingRule = shardingRule;
+        this.defaultLoadBalancer = properties.getReadWrite().getLoadBalancer();
+        this.validationQuery = properties.getStartup().getValidationQuery();
+        this.groups = new LinkedHashMap<>(properties.getReadWrite().getGroups());
+        this.property = properties.getTopology();
+        this.drainTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(property.getDrainTimeoutMillis());
+        this.drainGraceMillis = Math.max(DRAIN_POLL_MILLIS, property.getDrainGraceMillis());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "topology-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 配置了拓扑文件时定时检查文件是否修改
+     */
+    public void start() {
+        if (property.getFile() != null) {
+            scheduler.scheduleWithFixedDelay(this::checkFile, property.getWatchIntervalMillis(),
+                    property.getWatchIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 把连接池包装成 DynamicDataSource 的路由目标：从库统计连接数和延迟给负载均衡用，最外层统计 SQL 耗时和连接池状态
+     */
+    public static Map<Object, Object> targets(Map<String, DataSource> dataSources, Collection<ReplicaGroup> groups) {
+        Map<Object, Object> targets = new HashMap<>(dataSources);
+        for (ReplicaGroup group : groups) {
+            if (!dataSources.containsKey(group.getMaster())) {
+                throw new IllegalStateException("主库 " + group.getMaster() + " 没有配置数据源");
+            }
+            for (Replica replica : group.getReplicas()) {
+                DataSource target = dataSources.get(replica.getName());
+                if (target == null) {
+                    throw new IllegalStateException("从库 " + replica.getName() + " 没有配置数据源");
+                }
+                targets.put(replica.getName(), new TrackedDataSource(target, replica));
+            }
+        }
+        targets.replaceAll((name, target) -> new InstrumentedDataSource((DataSource) target, (String) name));
+        return targets;
+    }
+
+    /**
+     * 按新的配置重新加载，配置有误或新的连接池预热失败时拓扑保持不变
+     * @param dataSources 新的全部分片数据源，格式同 sharding.data-sources
+     * @param groups 新的全部主从分组，格式同 sharding.read-write.groups
+     * @return 新增、替换和删除的数据源
+     */
+    public synchronized Map<String, Object> reload(Map<String, ShardingProperties.DataSourceProperty> dataSources,
+                                                   Map<String, ShardingProperties.GroupProperty> groups) {
+        validate(dataSources, groups);
+        Map<String, ShardingProperties.DataSourceProperty> current = registry.getProperties();
+        List<String> added = new ArrayList<>();
+        List<String> replaced = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        dataSources.forEach((name, dataSource) -> {
+            if (!current.containsKey(name)) {
+                added.add(name);
+            } else if (!current.get(name).equals(dataSource)) {
+                replaced.add(name);
+            }
+        });
+        current.keySet().stream().filter(name -> !dataSources.containsKey(name)).forEach(removed::add);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("added", added);
+        result.put("replaced", replaced);
+        result.put("removed", removed);
+        if (added.isEmpty() && replaced.isEmpty() && removed.isEmpty() && groups.equals(this.groups)) {
+            return result;
+        }
+
+        Map<String, DruidDataSource> created = warmUp(dataSources, added, replaced);
+        Map<String, DruidDataSource> pools = new LinkedHashMap<>();
+        dataSources.keySet().forEach(name -> pools.put(name,
+                created.containsKey(name) ? created.get(name) : registry.getDataSource(name)));
+        List<ReplicaGroup> replicaGroups = ShardingConfig.replicaGroups(groups, defaultLoadBalancer);
+        Map<String, DataSource> all = new LinkedHashMap<>(fixedDataSources);
+        all.putAll(pools);
+        Map<Object, Object> targets = targets(all, replicaGroups);
+
+        // 1. 新旧目标同时可用，按旧分组路由的读请求选中的数据源都还在
+        Map<Object, Object> union = new HashMap<>();
+        dynamicDataSource.getDataSourceNames().forEach(name -> union.put(name, dynamicDataSource.getDataSource(name)));
+        union.putAll(targets);
+        dynamicDataSource.swapTargetDataSources(union);
+        // 2. 先更新熔断器，熔断中的从库不会被新分组选中，再切换读写分离路由
+        healthChecker.update(replicaGroups, all.keySet(), replaced);
+        router.setGroups(replicaGroups);
+        // 3. 去掉删除的目标
+        dynamicDataSource.swapTargetDataSources(targets);
+
+        Map<String, DruidDataSource> retired = new LinkedHashMap<>();
+        replaced.forEach(name -> retired.put(name, registry.getDataSource(name)));
+        removed.forEach(name -> retired.put(name, registry.getDataSource(name)));
+        registry.replace(pools, dataSources);
+        this.groups = new LinkedHashMap<>(groups);
+        retired.forEach(this::drain);
+        log.info("数据源拓扑已重新加载，新增 {}，替换 {}，删除 {}", added, replaced, removed);
+        return result;
+    }
+
+    private void validate(Map<String, ShardingProperties.DataSourceProperty> dataSources,
+                          Map<String, ShardingProperties.GroupProperty> groups) {
+        if (dataSources == null || groups == null) {
+            throw new IllegalArgumentException("没有配置数据源或主从分组");
+        }
+        Set<String> names = new HashSet<>(fixedDataSources.keySet());
+        for (String name : dataSources.keySet()) {
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("数据源 " + name + " 不能重新加载");
+            }
+        }
+        groups.forEach((master, group) -> {
+            if (!names.contains(master)) {
+                throw new IllegalArgumentException("主库 " + master + " 没有配置数据源");
+            }
+            group.getReplicas().keySet().forEach(replica -> {
+                if (!names.contains(replica)) {
+                    throw new IllegalArgumentException("从库 " + replica + " 没有配置数据源");
+                }
+            });
+        });
+        for (TableRule rule : shardingRule.getTableRules()) {
+            checkTargets(rule, names);
+            TableRule pending = shardingRule.getPendingRule(rule.getLogicTable());
+            if (pending != null) {
+                checkTargets(pending, names);
+            }
+        }
+    }
+
+    private static void checkTargets(TableRule rule, Set<String> names) {
+        for (ShardingTarget target : rule.getTargets()) {
+            if (!names.contains(target.getDataSource())) {
+                throw new IllegalArgumentException("数据源 " + target.getDataSource() + " 还在被逻辑表 "
+                        + rule.getLogicTable() + " 使用");
+            }
+        }
+    }
+
+    /**
+     * 创建新的连接池并预热，有一个失败就全部关闭
+     */
+    private Map<String, DruidDataSource> warmUp(Map<String, ShardingProperties.DataSourceProperty> dataSources,
+                                                List<String> added, List<String> replaced) {
+        List<String> names = new ArrayList<>(added);
+        names.addAll(replaced);
+        Map<String, DruidDataSource> created = new LinkedHashMap<>();
+        String name = null;
+        try {
+            for (String each : names) {
+                name = each;
+                DruidDataSource pool = DataSourceRegistry.create(dataSources.get(name));
+                created.put(name, pool);
+                DataSourceWarmer.warmUp(pool, validationQuery);
+            }
+        } catch (SQLException | RuntimeException e) {
+            created.values().forEach(DruidDataSource::close);
+            throw new IllegalStateException("预热数据源 " + name + " 失败，拓扑没有变化：" + e.getMessage(), e);
+        }
+        return created;
+    }
+
+    /**
+     * 切换之前读到旧目标的线程可能还没有调用 getConnection，先等 drainGraceMillis 再检查借出的连接数，
+     * 否则借出数为 0 时连接池马上关闭，这些线程会拿到已经关闭的连接池
+     */
+    private void drain(String name, DruidDataSource pool) {
+        draining.put(pool, name);
+        long deadline = System.nanoTime() + drainTimeoutNanos;
+        scheduler.schedule(() -> drain(name, pool, deadline), drainGraceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 借出的连接都归还或者超时后关闭旧连接池
+     */
+    private void drain(String name, DruidDataSource pool, long deadline) {
+        int active = pool.getActiveCount();
+        if (active > 0 && System.nanoTime() - deadline < 0) {
+            scheduler.schedule(() -> drain(name, pool, deadline), DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (active > 0) {
+            log.warn("数据源 {} 的旧连接池还有 {} 个连接没有归还，直接关闭", name, active);
+        }
+        pool.close();
+        draining.remove(pool);
+        log.info("数据源 {} 的旧连接池已关闭", name);
+    }
+
+    void checkFile() {
+        File file = new File(property.getFile());
+        long modified = file.lastModified();
+        if (modified == 0 || modified == fileModified) {
+            return;
+        }
+        fileModified = modified;
+        try {
+            ShardingProperties properties = load(file);
+            reload(properties.getDataSources(), properties.getReadWrite().getGroups());
+        } catch (IOException | RuntimeException e) {
+            log.error("重新加载拓扑文件 {} 失败，保持当前拓扑", file, e);
+        }
+    }
+
+    /**
+     * 按 application.yml 的格式读取 sharding 前缀的配置
+     */
+    static ShardingProperties load(File file) throws IOException {
+        List<PropertySource<?>> sources = new YamlPropertySourceLoader().load(file.getName(), new FileSystemResource(file));
+        return new Binder(ConfigurationPropertySources.from(sources))
+                .bind("sharding", ShardingProperties.class)
+                .orElseGet(ShardingProperties::new);
+    }
+
+    /**
+     * 当前的分片数据源和主从分组
+     */
+    public synchronized Map<String, Object> topology() {
+        Map<String, String> dataSources = new LinkedHashMap<>();
+        registry.getProperties().forEach((name, dataSource) -> dataSources.put(name, dataSource.getUrl()));
+        Map<String, Object> topology = new LinkedHashMap<>();
+        topology.put("dataSources", dataSources);
+        topology.put("groups", groups);
+        topology.put("draining", new ArrayList<>(draining.values()));
+        return topology;
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+        draining.keySet().forEach(DruidDataSource::close);
+    }
+}
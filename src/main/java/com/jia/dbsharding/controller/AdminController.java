@@ -0,0 +1,173 @@
+package com.jia.dbsharding.controller;
+
+import com.jia.dbsharding.batch.InsertCoalescer;
+import com.jia.dbsharding.cache.TwoLevelCache;
+import com.jia.dbsharding.config.AdaptivePoolSizer;
+import com.jia.dbsharding.config.ShardingConfig;
+import com.jia.dbsharding.config.DataSourceWarmer;
+import com.jia.dbsharding.config.ShardingProperties;
+import com.jia.dbsharding.config.TopologyReloader;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.readwrite.DataSourceHealthChecker;
+import com.jia.dbsharding.resharding.ReshardingCoordinator;
+import com.jia.dbsharding.sharding.ShardBloomFilter;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 运维接口
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    private final TwoLevelCache twoLevelCache;
+    private final InsertCoalescer<DBEntity> insertCoalescer;
+    private final DataSourceHealthChecker healthChecker;
+    private final ReshardingCoordinator reshardingCoordinator;
+    private final TopologyReloader topologyReloader;
+    private final DataSourceWarmer dataSourceWarmer;
+    private final AdaptivePoolSizer poolSizer;
+    private final ShardBloomFilter idFilter;
+
+    @Autowired
+    public AdminController(TwoLevelCache twoLevelCache, ObjectProvider<InsertCoalescer<DBEntity>> insertCoalescer,
+                           DataSourceHealthChecker healthChecker, ReshardingCoordinator reshardingCoordinator,
+                           TopologyReloader topologyReloader, DataSourceWarmer dataSourceWarmer,
+                           ObjectProvider<AdaptivePoolSizer> poolSizer, ObjectProvider<ShardBloomFilter> idFilter) {
+        this.twoLevelCache = twoLevelCache;
+        this.insertCoalescer = insertCoalescer.getIfAvailable();
+        this.healthChecker = healthChecker;
+        this.reshardingCoordinator = reshardingCoordinator;
+        this.topologyReloader = topologyReloader;
+        this.dataSourceWarmer = dataSourceWarmer;
+        this.poolSizer = poolSizer.getIfAvailable();
+        this.idFilter = idFilter.getIfAvailable();
+    }
+
+    /**
+     * 启动就绪耗时和每个数据源的预热结果
+     */
+    @GetMapping("/startup")
+    public Map<String, Object> startup() {
+        return dataSourceWarmer.stats();
+    }
+
+    /**
+     * 近端缓存和 redis 各自的命中情况
+     */
+    @GetMapping("/cache/stats")
+    public Map<String, Object> cacheStats() {
+        return twoLevelCache.stats();
+    }
+
+    /**
+     * 当前的热点 key 和一个窗口内估计的访问次数
+     */
+    @GetMapping("/cache/hot-keys")
+    public Map<String, Long> hotKeys() {
+        return twoLevelCache.hotKeys();
+    }
+
+    /**
+     * 每张表 Bloom 过滤器的构建状态和拦截的查询数，没有开启时返回空
+     */
+    @GetMapping("/cache/bloom-filter")
+    public Map<String, Object> bloomFilter() {
+        return idFilter == null ? Collections.emptyMap() : idFilter.stats();
+    }
+
+    /**
+     * 合并插入的批量大小分布，没有开启时返回空
+     */
+    @GetMapping("/insert/stats")
+    public Map<String, Object> insertStats() {
+        return insertCoalescer == null ? Collections.emptyMap() : insertCoalescer.stats();
+    }
+
+    /**
+     * 每个数据源的熔断状态
+     */
+    @GetMapping("/datasource/health")
+    public Map<String, String> dataSourceHealth() {
+        return healthChecker.states();
+    }
+
+    /**
+     * 每个连接池最近一个周期的负载和调整后的大小，没有开启时返回空
+     */
+    @GetMapping("/datasource/pools")
+    public Map<String, Object> pools() {
+        return poolSizer == null ? Collections.emptyMap() : poolSizer.stats();
+    }
+
+    @GetMapping("/datasource/topology")
+    public Map<String, Object> topology() {
+        return topologyReloader.topology();
+    }
+
+    /**
+     * 重新加载分片数据源和主从分组，请求体和 sharding 前缀下的配置格式相同，只使用 dataSources 和 readWrite.groups
+     */
+    @PostMapping("/datasource/topology")
+    public Map<String, Object> reloadTopology(@RequestBody ShardingProperties topology) {
+        return topologyReloader.reload(topology.getDataSources(), topology.getReadWrite().getGroups());
+    }
+
+    /**
+     * 开始重新分片，请求体和 sharding.tables 下的配置格式相同，新表需要事先建好
+     */
+    @PostMapping("/resharding/{table}/start")
+    public Map<String, Object> startResharding(@PathVariable String table, @RequestBody ShardingProperties.TableProperty rule) {
+        reshardingCoordinator.start(ShardingConfig.tableRule(table, rule));
+        return reshardingCoordinator.progress();
+    }
+
+    @GetMapping("/resharding")
+    public Map<String, Object> reshardingProgress() {
+        return reshardingCoordinator.progress();
+    }
+
+    @PostMapping("/resharding/throttle")
+    public Map<String, Object> throttleResharding(@RequestParam int rowsPerSecond, @RequestParam int batchSize) {
+        reshardingCoordinator.setThrottle(rowsPerSecond, batchSize);
+        return reshardingCoordinator.progress();
+    }
+
+    @PostMapping("/resharding/pause")
+    public Map<String, Object> pauseResharding() {
+        reshardingCoordinator.pause();
+        return reshardingCoordinator.progress();
+    }
+
+    @PostMapping("/resharding/resume")
+    public Map<String, Object> resumeResharding() {
+        reshardingCoordinator.resume();
+        return reshardingCoordinator.progress();
+    }
+
+    @PostMapping("/resharding/cancel")
+    public Map<String, Object> cancelResharding() {
+        reshardingCoordinator.cancel();
+        return reshardingCoordinator.progress();
+    }
+
+    /**
+     * 校验通过后切换到新规则
+     */
+    @PostMapping("/resharding/flip")
+    public Map<String, Object> flipResharding() {
+        reshardingCoordinator.flip();
+        return reshardingCoordinator.progress();
+    }
+}
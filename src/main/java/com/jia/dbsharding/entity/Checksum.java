@@ -0,0 +1,13 @@
+package com.jia.dbsharding.entity;
+
+import lombok.Data;
+
+/**
+ * 一组行的校验和：行数和每行 CRC32(id|name) 的和
+ */
+@Data
+public class Checksum {
+
+    private long total;
+    private long crc;
+}
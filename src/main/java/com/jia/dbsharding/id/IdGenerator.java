@@ -0,0 +1,9 @@
+package com.jia.dbsharding.id;
+
+/**
+ * 全局唯一 id 生成器，生成的 id 可以直接作为分片键使用
+ */
+public interface IdGenerator {
+
+    long nextId();
+}
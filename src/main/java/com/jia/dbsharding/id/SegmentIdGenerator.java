@@ -0,0 +1,113 @@
+package com.jia.dbsharding.id;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * 号段模式的 id 生成器（参考美团 Leaf-segment）
+ * 每次从计数器（redis INCRBY）领取 step 个 id 放在本地发放，发放只是一次 AtomicLong 自增，不加锁；
+ * 当前号段用掉 10% 时在后台预取下一个号段，号段用完时直接切换，不需要等待 redis
+ */
+@Slf4j
+public class SegmentIdGenerator implements IdGenerator {
+
+    /**
+     * 入参为号段长度，返回计数器递增后的值，即新号段的最大 id
+     */
+    private final LongUnaryOperator allocator;
+    private final long step;
+    private final ExecutorService prefetcher;
+
+    private volatile Segment current;
+    private volatile CompletableFuture<Segment> next;
+
+    public SegmentIdGenerator(String name, long step, LongUnaryOperator allocator) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("号段长度必须大于 0");
+        }
+        this.allocator = allocator;
+        this.step = step;
+        this.prefetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "id-segment-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public long nextId() {
+        for (;;) {
+            Segment segment = current;
+            if (segment != null) {
+                long id = segment.cursor.getAndIncrement();
+                if (id <= segment.max) {
+                    if (id == segment.prefetchAt) {
+                        prefetch(segment);
+                    }
+                    return id;
+                }
+            }
+            switchSegment(segment);
+        }
+    }
+
+    /**
+     * 号段用完后的慢路径，每个号段只会进来一次
+     */
+    private synchronized void switchSegment(Segment exhausted) {
+        if (current != exhausted) {
+            // 其它线程已经切换过了
+            return;
+        }
+        CompletableFuture<Segment> prefetched = next;
+        next = null;
+        Segment segment = null;
+        if (prefetched != null) {
+            try {
+                segment = prefetched.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待号段时被中断", e);
+            } catch (ExecutionException e) {
+                log.warn("预取号段失败，改为同步获取", e.getCause());
+            }
+        }
+        current = segment != null ? segment : allocate();
+    }
+
+    /**
+     * 同样每个号段只会进来一次；号段已经被切换掉时不再预取，避免覆盖掉下一个号段的预取结果
+     */
+    private synchronized void prefetch(Segment segment) {
+        if (current == segment && next == null) {
+            next = CompletableFuture.supplyAsync(this::allocate, prefetcher);
+        }
+    }
+
+    private Segment allocate() {
+        long max = allocator.applyAsLong(step);
+        return new Segment(max - step + 1, max);
+    }
+
+    public void close() {
+        prefetcher.shutdownNow();
+    }
+
+    private final class Segment {
+        private final AtomicLong cursor;
+        private final long max;
+        private final long prefetchAt;
+
+        private Segment(long start, long max) {
+            this.cursor = new AtomicLong(start);
+            this.max = max;
+            this.prefetchAt = start + step / 10;
+        }
+    }
+}
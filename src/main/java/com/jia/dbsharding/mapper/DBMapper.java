@@ -1,19 +1,74 @@
 package com.jia.dbsharding.mapper;
 
+import com.jia.dbsharding.entity.Checksum;
 import com.jia.dbsharding.entity.DBEntity;
 import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
+/**
+ * SQL 中写逻辑表 user，由 ShardingInterceptor 按分片键条件改写为物理库和物理表
+ * 没有分片键条件的语句（分页、按 name 查询、游标复制）需要调用方先设置 ShardingContext
+ */
 @Repository
 public interface DBMapper {
 
-    @Insert("INSERT INTO master_db.user (name) values (#{name})")
-    public void insertName(@Param("name") String name);
+    @Insert("INSERT INTO user (id, name) values (#{id}, #{name})")
+    public void insertName(@Param("id") Integer id, @Param("name") String name);
+
+    @Insert({"<script>",
+            "INSERT INTO user (id, name) values",
+            "<foreach collection='rows' item='row' separator=','>(#{row.id}, #{row.name})</foreach>",
+            "</script>"})
+    public void insertBatch(@Param("rows") List<DBEntity> rows);
 
-    @Select("SELECT id, name FROM master_db.user WHERE id = #{id}")
+    @Select("SELECT id, name FROM user WHERE id = #{id}")
     public DBEntity selectName(@Param("id") Integer id);
 
+    @Select({"<script>",
+            "SELECT id, name FROM user WHERE id IN",
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>",
+            "</script>"})
+    public List<DBEntity> selectByIds(@Param("ids") List<Integer> ids);
+
+    /**
+     * 按 name 查询 id 大于 afterId 的前 limit 条
+     */
+    @Select("SELECT id, name FROM user WHERE name = #{name} AND id > #{afterId} ORDER BY id LIMIT #{limit}")
+    public List<DBEntity> selectByName(@Param("name") String name, @Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 按 id 游标分页，用于跨分片分页和重新分片时复制数据
+     */
+    @Select("SELECT id, name FROM user WHERE id > #{afterId} ORDER BY id LIMIT #{limit}")
+    public List<DBEntity> selectAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 按 id 游标分批读取 id，用于构建 Bloom 过滤器
+     */
+    @Select("SELECT id FROM user WHERE id > #{afterId} ORDER BY id LIMIT #{limit}")
+    public List<Long> selectIdsAfter(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 重新分片时回填和双写可能写入同一行，重复执行结果相同
+     */
+    @Insert({"<script>",
+            "INSERT INTO user (id, name) values",
+            "<foreach collection='rows' item='row' separator=','>(#{row.id}, #{row.name})</foreach>",
+            "ON DUPLICATE KEY UPDATE name = VALUES(name)",
+            "</script>"})
+    public void upsertBatch(@Param("rows") List<DBEntity> rows);
+
+    /**
+     * 指定 id 的行数和校验和，和 ReshardingCoordinator 在内存中计算的结果比较
+     */
+    @Select({"<script>",
+            "SELECT COUNT(*) AS total, COALESCE(SUM(CRC32(CONCAT(id, '|', IFNULL(name, '')))), 0) AS crc FROM user WHERE id IN",
+            "<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>",
+            "</script>"})
+    public Checksum checksumByIds(@Param("ids") List<Integer> ids);
 
 }
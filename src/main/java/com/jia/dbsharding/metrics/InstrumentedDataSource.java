@@ -0,0 +1,171 @@
+package com.jia.dbsharding.metrics;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 包装一个路由目标，统计获取连接的等待时间和 SQL 执行时间（p50/p99/p999），底层是 Druid 时同时输出连接池的活跃和空闲数
+ * 记录只是对 Timer 的无锁累加；注册到 MeterRegistry 之前不记录
+ */
+public class InstrumentedDataSource extends DelegatingDataSource implements MeterBinder {
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private static final String[] METERS = {"db.connection.acquire", "db.query",
+            "db.pool.active", "db.pool.idle", "db.pool.max", "db.pool.waiting"};
+
+    private final String name;
+    private volatile Timer acquireTimer;
+    private volatile Timer queryTimer;
+
+    /**
+     * 累计的获取连接次数、获取连接等待时间和连接占用时间，给 AdaptivePoolSizer 计算平均并发
+     */
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAdder holdNanos = new LongAdder();
+
+    public InstrumentedDataSource(DataSource target, String name) {
+        super(target);
+        this.name = name;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        acquireTimer = Timer.builder("db.connection.acquire")
+                .description("从连接池获取连接的等待时间")
+                .tag("datasource", name)
+                .publishPercentiles(PERCENTILES)
+                .register(registry);
+        queryTimer = Timer.builder("db.query")
+                .description("SQL 执行时间")
+                .tag("datasource", name)
+                .publishPercentiles(PERCENTILES)
+                .register(registry);
+        DataSource pool = unwrap(getTargetDataSource());
+        if (pool instanceof DruidDataSource) {
+            DruidDataSource druid = (DruidDataSource) pool;
+            Gauge.builder("db.pool.active", druid, DruidDataSource::getActiveCount).tag("datasource", name).register(registry);
+            Gauge.builder("db.pool.idle", druid, DruidDataSource::getPoolingCount).tag("datasource", name).register(registry);
+            Gauge.builder("db.pool.max", druid, DruidDataSource::getMaxActive).tag("datasource", name).register(registry);
+            Gauge.builder("db.pool.waiting", druid, DruidDataSource::getNotEmptyWaitThreadCount).tag("datasource", name).register(registry);
+        }
+    }
+
+    /**
+     * 删除这个数据源的指标，连接池被替换或删除后调用
+     */
+    public void unbindFrom(MeterRegistry registry) {
+        for (String meter : METERS) {
+            registry.find(meter).tag("datasource", name).meters().forEach(registry::remove);
+        }
+    }
+
+    /**
+     * 去掉所有 DelegatingDataSource 包装，得到真正的连接池
+     */
+    public static DataSource unwrap(DataSource dataSource) {
+        while (dataSource instanceof DelegatingDataSource) {
+            dataSource = ((DelegatingDataSource) dataSource).getTargetDataSource();
+        }
+        return dataSource;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection();
+        return instrument(connection, start);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        Connection connection = super.getConnection(username, password);
+        return instrument(connection, start);
+    }
+
+    private Connection instrument(Connection connection, long start) {
+        Timer acquire = acquireTimer;
+        Timer query = queryTimer;
+        if (acquire == null || query == null) {
+            return connection;
+        }
+        long acquired = System.nanoTime();
+        acquire.record(acquired - start, TimeUnit.NANOSECONDS);
+        acquireCount.increment();
+        acquireNanos.add(acquired - start);
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+                        holdNanos.add(System.nanoTime() - acquired);
+                    }
+                    Object result = invoke(method, connection, args);
+                    if (result instanceof Statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+                        return time((Statement) result, method.getReturnType(), query);
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * 包装 Statement，所有 execute* 方法计入 SQL 执行时间
+     */
+    private static Object time(Statement statement, Class<?> type, Timer query) {
+        return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (!method.getName().startsWith("execute")) {
+                        return invoke(method, statement, args);
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        return invoke(method, statement, args);
+                    } finally {
+                        query.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                });
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    public long getAcquireNanos() {
+        return acquireNanos.sum();
+    }
+
+    /**
+     * 已归还的连接累计占用的时间
+     */
+    public long getHoldNanos() {
+        return holdNanos.sum();
+    }
+}
@@ -0,0 +1,150 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 一个数据源的熔断器
+ * CLOSED 正常；连续失败 failureThreshold 次后 OPEN，直接拒绝请求；
+ * 熔断时间到了由 DataSourceHealthChecker 探测恢复，或者转为 HALF_OPEN 只放行一个请求试探，成功后 CLOSED，失败再次 OPEN；
+ * 试探期间其它请求照样拒绝，试探超过 openMillis 没有结果时再放行一个
+ * 请求路径上只有原子变量的读写，没有锁
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Consumer<CircuitBreaker> listener;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long openedAt;
+
+    /**
+     * HALF_OPEN 时是否已经放行了试探请求
+     */
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+    private final AtomicLong trialStartedAt = new AtomicLong();
+
+    /**
+     * @param listener 状态变化时调用
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, Consumer<CircuitBreaker> listener) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("熔断的失败次数必须大于 0");
+        }
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * @return 是否允许请求：CLOSED 全部放行，OPEN 全部拒绝，HALF_OPEN 只放行一个试探请求
+     */
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (trialInFlight.compareAndSet(false, true)) {
+            trialStartedAt.set(now);
+            return true;
+        }
+        // 试探请求迟迟没有结果（例如调用方没有上报），过了 openMillis 再放行一个
+        long startedAt = trialStartedAt.get();
+        return now - startedAt >= openMillis && trialStartedAt.compareAndSet(startedAt, now);
+    }
+
+    public void onSuccess() {
+        if (failures.get() != 0) {
+            failures.set(0);
+        }
+        if (state.get() == State.HALF_OPEN && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            trialInFlight.set(false);
+            listener.accept(this);
+        }
+    }
+
+    public void onFailure() {
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            open(State.HALF_OPEN);
+            trialInFlight.set(false);
+        } else if (current == State.CLOSED && failures.incrementAndGet() >= failureThreshold) {
+            open(State.CLOSED);
+        }
+    }
+
+    /**
+     * 熔断时间已到，可以尝试恢复
+     */
+    public boolean isRetryDue() {
+        return state.get() == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis;
+    }
+
+    /**
+     * 放行请求试探
+     */
+    public void halfOpen() {
+        trialInFlight.set(false);
+        if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * 探测成功，恢复正常
+     */
+    public void reset() {
+        failures.set(0);
+        if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * 探测失败，重新开始计算熔断时间
+     */
+    public void trip() {
+        openedAt = System.currentTimeMillis();
+        if (state.getAndSet(State.OPEN) != State.OPEN) {
+            listener.accept(this);
+        }
+    }
+
+    private void open(State from) {
+        long now = System.currentTimeMillis();
+        if (state.get() == from) {
+            openedAt = now;
+        }
+        if (state.compareAndSet(from, State.OPEN)) {
+            listener.accept(this);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{" + state.get() + ", failures=" + failures.get() + "}";
+    }
+}
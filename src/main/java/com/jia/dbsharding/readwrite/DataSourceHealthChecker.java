@@ -0,0 +1,219 @@
+package com.jia.dbsharding.readwrite;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jia.dbsharding.config.ShardingProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 每个数据源一个熔断器
+ * 被动检查：DynamicDataSource 获取连接失败或过慢时记一次失败，连续失败后熔断，熔断的从库从读路由中摘除；
+ * 主动检查：开启 probe 时定时检查每个数据源的连接，熔断的数据源探测成功后重新加入
+ */
+@Slf4j
+public class DataSourceHealthChecker implements MeterBinder {
+
+    /**
+     * 熔断器和从库的对应关系，拓扑重新加载时整体替换
+     */
+    private static final class Topology {
+        private final Map<String, CircuitBreaker> breakers;
+        private final Map<String, Replica> replicas = new HashMap<>();
+        private final Map<String, ReplicaGroup> replicaGroups = new HashMap<>();
+
+        private Topology(Map<String, CircuitBreaker> breakers, Collection<ReplicaGroup> groups) {
+            this.breakers = breakers;
+            for (ReplicaGroup group : groups) {
+                for (Replica replica : group.getReplicas()) {
+                    replicas.put(replica.getName(), replica);
+                    replicaGroups.put(replica.getName(), group);
+                }
+            }
+        }
+    }
+
+    private volatile Topology topology;
+    private final Function<String, DataSource> dataSources;
+    private final ShardingProperties.HealthProperty property;
+    private final long slowNanos;
+    private final long intervalMillis;
+    private final boolean probe;
+    private final long probeTimeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private volatile MeterRegistry registry;
+
+    /**
+     * @param names 所有数据源名
+     * @param dataSources 根据名字取得连接池，探测时直接访问连接池
+     */
+    public DataSourceHealthChecker(ReadWriteRouter router, Collection<String> names,
+                                   Function<String, DataSource> dataSources, ShardingProperties.HealthProperty property) {
+        this.property = property;
+        Map<String, CircuitBreaker> breakers = new LinkedHashMap<>();
+        for (String name : names) {
+            breakers.put(name, newBreaker(name));
+        }
+        this.topology = new Topology(breakers, router.getGroups());
+        this.dataSources = dataSources;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(property.getSlowMillis());
+        this.intervalMillis = property.getIntervalMillis();
+        this.probe = property.isProbe();
+        this.probeTimeoutMillis = property.getProbeTimeoutMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "datasource-health-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private CircuitBreaker newBreaker(String name) {
+        return new CircuitBreaker(name, property.getFailureThreshold(), property.getOpenMillis(), this::onStateChange);
+    }
+
+    /**
+     * 拓扑重新加载时在切换读写分离路由之前调用：保留仍然存在的数据源的熔断状态，新分组中熔断的从库不参与读请求
+     * @param groups 新的主从分组
+     * @param names 新的所有数据源名
+     * @param replaced 连接池被替换的数据源，熔断状态重新开始
+     */
+    public synchronized void update(Collection<ReplicaGroup> groups, Collection<String> names, Collection<String> replaced) {
+        Topology previous = this.topology;
+        Map<String, CircuitBreaker> breakers = new LinkedHashMap<>();
+        for (String name : names) {
+            CircuitBreaker breaker = replaced.contains(name) ? null : previous.breakers.get(name);
+            breakers.put(name, breaker != null ? breaker : newBreaker(name));
+        }
+        Topology next = new Topology(breakers, groups);
+        next.replicas.forEach((name, replica) -> {
+            CircuitBreaker breaker = breakers.get(name);
+            replica.setEjected(breaker != null && breaker.getState() == CircuitBreaker.State.OPEN);
+        });
+        next.replicaGroups.values().forEach(ReplicaGroup::refresh);
+        this.topology = next;
+
+        MeterRegistry registry = this.registry;
+        if (registry != null) {
+            breakers.forEach((name, breaker) -> circuitGauge(registry, name, breaker));
+            previous.breakers.keySet().stream().filter(name -> !breakers.containsKey(name)).forEach(name ->
+                    registry.find("db.circuit.open").tag("datasource", name).meters().forEach(registry::remove));
+        }
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return 数据源的熔断器，不认识的数据源返回 null
+     */
+    public CircuitBreaker getBreaker(String name) {
+        return name == null ? null : topology.breakers.get(name);
+    }
+
+    /**
+     * 记录一次成功获取连接，耗时超过 slow-millis 算失败
+     */
+    public void onConnected(CircuitBreaker breaker, long elapsedNanos) {
+        if (elapsedNanos > slowNanos) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    private void onStateChange(CircuitBreaker breaker) {
+        log.warn("数据源 {} 熔断状态变为 {}", breaker.getName(), breaker.getState());
+        Topology current = this.topology;
+        Replica replica = current.replicas.get(breaker.getName());
+        if (replica != null) {
+            replica.setEjected(breaker.getState() == CircuitBreaker.State.OPEN);
+            current.replicaGroups.get(breaker.getName()).refresh();
+        }
+    }
+
+    void check() {
+        for (CircuitBreaker breaker : topology.breakers.values()) {
+            try {
+                if (breaker.getState() == CircuitBreaker.State.OPEN) {
+                    if (!breaker.isRetryDue()) {
+                        continue;
+                    }
+                    if (!probe) {
+                        breaker.halfOpen();
+                    } else if (probe(breaker.getName())) {
+                        breaker.reset();
+                    } else {
+                        breaker.trip();
+                    }
+                } else if (probe) {
+                    if (probe(breaker.getName())) {
+                        breaker.onSuccess();
+                    } else {
+                        breaker.onFailure();
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("检查数据源 {} 失败：{}", breaker.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 还没有初始化的连接池不探测，避免为用不到的库建立连接
+     */
+    private boolean probe(String name) {
+        long start = System.nanoTime();
+        DataSource dataSource = dataSources.apply(name);
+        if (dataSource instanceof DruidDataSource && !((DruidDataSource) dataSource).isInited()) {
+            return true;
+        }
+        try (Connection connection = dataSource instanceof DruidDataSource
+                ? ((DruidDataSource) dataSource).getConnection(probeTimeoutMillis) : dataSource.getConnection()) {
+            return connection.isValid((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(probeTimeoutMillis)))
+                    && System.nanoTime() - start <= slowNanos;
+        } catch (SQLException e) {
+            log.warn("探测数据源 {} 失败：{}", name, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 每个数据源的熔断状态
+     */
+    public Map<String, String> states() {
+        Map<String, String> states = new LinkedHashMap<>();
+        topology.breakers.forEach((name, breaker) -> states.put(name, breaker.getState().name()));
+        return states;
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        topology.breakers.forEach((name, breaker) -> circuitGauge(registry, name, breaker));
+        this.registry = registry;
+    }
+
+    private static void circuitGauge(MeterRegistry registry, String name, CircuitBreaker breaker) {
+        Gauge.builder("db.circuit.open", breaker, b -> b.getState() == CircuitBreaker.State.OPEN ? 1 : 0)
+                .description("数据源是否熔断")
+                .tag("datasource", name)
+                .register(registry);
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,33 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 延迟感知：随机挑两个从库（power of two choices），选 EWMA 延迟 * (活跃连接数 + 1) 较小的一个
+ * 只比较两个而不是全部，可以避免所有请求同时涌向当前最快的从库
+ * 这里的延迟是 TrackedDataSource 统计的连接占用时间，不是单条 SQL 的执行时间，事务中的读会偏大
+ */
+public class EwmaLoadBalancer implements LoadBalancer {
+
+    @Override
+    public Replica choose(List<Replica> replicas) {
+        int size = replicas.size();
+        if (size == 1) {
+            return replicas.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        Replica a = replicas.get(first);
+        Replica b = replicas.get(second);
+        return cost(a) <= cost(b) ? a : b;
+    }
+
+    private static double cost(Replica replica) {
+        return replica.getEwmaNanos() * (replica.getActive() + 1);
+    }
+}
@@ -0,0 +1,28 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最少活跃连接：选择当前借出连接最少的从库，相同时随机选一个
+ */
+public class LeastActiveLoadBalancer implements LoadBalancer {
+
+    @Override
+    public Replica choose(List<Replica> replicas) {
+        Replica chosen = null;
+        int least = Integer.MAX_VALUE;
+        int ties = 0;
+        for (Replica replica : replicas) {
+            int active = replica.getActive();
+            if (active < least) {
+                least = active;
+                chosen = replica;
+                ties = 1;
+            } else if (active == least && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                chosen = replica;
+            }
+        }
+        return chosen;
+    }
+}
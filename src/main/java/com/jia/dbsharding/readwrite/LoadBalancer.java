@@ -0,0 +1,15 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.List;
+
+/**
+ * 从一组从库中选出一个处理读请求
+ * 可以通过 sharding.read-write.load-balancer 配置内置的实现名，或者自定义实现的全类名
+ */
+public interface LoadBalancer {
+
+    /**
+     * @param replicas 不为空
+     */
+    Replica choose(List<Replica> replicas);
+}
@@ -0,0 +1,36 @@
+package com.jia.dbsharding.readwrite;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ClassUtils;
+
+/**
+ * 根据名字创建负载均衡器
+ */
+public final class LoadBalancers {
+
+    private LoadBalancers() {
+    }
+
+    /**
+     * @param name round-robin、weighted、least-active、ewma，或者 LoadBalancer 实现类的全类名
+     */
+    public static LoadBalancer create(String name) {
+        switch (name) {
+            case "round-robin":
+                return new RoundRobinLoadBalancer();
+            case "weighted":
+                return new WeightedLoadBalancer();
+            case "least-active":
+                return new LeastActiveLoadBalancer();
+            case "ewma":
+                return new EwmaLoadBalancer();
+            default:
+                try {
+                    Class<?> type = ClassUtils.forName(name, LoadBalancers.class.getClassLoader());
+                    return (LoadBalancer) BeanUtils.instantiateClass(type);
+                } catch (ClassNotFoundException | ClassCastException e) {
+                    throw new IllegalArgumentException("不支持的负载均衡策略：" + name, e);
+                }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 读写分离路由：写请求和没有配置从库的数据源保持原样，只读请求分摊到主库对应的从库上
+ * 拓扑重新加载时整体替换所有主从分组
+ */
+public class ReadWriteRouter {
+
+    private volatile Map<String, ReplicaGroup> groups;
+
+    public ReadWriteRouter(Collection<ReplicaGroup> groups) {
+        setGroups(groups);
+    }
+
+    /**
+     * 替换所有主从分组，之后的读请求按新的分组路由
+     */
+    public void setGroups(Collection<ReplicaGroup> groups) {
+        Map<String, ReplicaGroup> byMaster = new HashMap<>();
+        for (ReplicaGroup group : groups) {
+            byMaster.put(group.getMaster(), group);
+        }
+        this.groups = byMaster;
+    }
+
+    /**
+     * @param dataSource 主库名
+     * @return 实际读取的数据源名
+     */
+    public String routeRead(String dataSource) {
+        ReplicaGroup group = dataSource == null ? null : groups.get(dataSource);
+        return group == null ? dataSource : group.routeRead();
+    }
+
+    /**
+     * 从库获取连接失败后选择下一个数据源
+     * @param dataSource 主库名
+     * @param tried 已经失败的从库
+     */
+    public String fallbackRead(String dataSource, Set<String> tried) {
+        ReplicaGroup group = dataSource == null ? null : groups.get(dataSource);
+        return group == null ? dataSource : group.fallbackRead(tried);
+    }
+
+    /**
+     * @return 主库对应可用从库的最大复制延迟，-1 表示未知
+     */
+    public long maxLagMillis(String dataSource) {
+        ReplicaGroup group = dataSource == null ? null : groups.get(dataSource);
+        return group == null ? -1 : group.getMaxLagMillis();
+    }
+
+    public Collection<ReplicaGroup> getGroups() {
+        return Collections.unmodifiableCollection(groups.values());
+    }
+}
@@ -0,0 +1,63 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 记录最近写过的 key，保证写完之后马上读能读到自己写的数据
+ * 写入后的 window 时间内读主库；开启了复制延迟检测时，只要距离写入的时间超过了从库的延迟就可以提前回到从库
+ */
+public class ReadYourWritesTracker {
+
+    /**
+     * 每写入多少次清理一次过期的记录
+     */
+    private static final int PURGE_INTERVAL = 1024;
+
+    private final ConcurrentHashMap<String, Long> writes = new ConcurrentHashMap<>();
+    private final AtomicInteger writeCount = new AtomicInteger();
+    private final ReadWriteRouter router;
+    private final long windowNanos;
+    private final long lagCheckIntervalMillis;
+
+    /**
+     * @param windowMillis 写入后读主库的最长时间
+     * @param lagCheckIntervalMillis 复制延迟的检测间隔，检测结果最多落后这么久
+     */
+    public ReadYourWritesTracker(ReadWriteRouter router, long windowMillis, long lagCheckIntervalMillis) {
+        this.router = router;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.lagCheckIntervalMillis = lagCheckIntervalMillis;
+    }
+
+    public void markWritten(String key) {
+        writes.put(key, System.nanoTime());
+        if (writeCount.incrementAndGet() % PURGE_INTERVAL == 0) {
+            long now = System.nanoTime();
+            writes.entrySet().removeIf(entry -> now - entry.getValue() >= windowNanos);
+        }
+    }
+
+    /**
+     * @param key 读取的 key
+     * @param dataSource key 所在的主库
+     * @return true 必须读主库
+     */
+    public boolean requiresMaster(String key, String dataSource) {
+        Long writtenAt = writes.get(key);
+        if (writtenAt == null) {
+            return false;
+        }
+        long elapsedNanos = System.nanoTime() - writtenAt;
+        if (elapsedNanos >= windowNanos) {
+            writes.remove(key, writtenAt);
+            return false;
+        }
+        long lagMillis = router.maxLagMillis(dataSource);
+        if (lagMillis < 0) {
+            return true;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos) <= lagMillis + lagCheckIntervalMillis;
+    }
+}
@@ -0,0 +1,102 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个从库，以及负载均衡需要的统计信息
+ */
+public class Replica {
+
+    /**
+     * EWMA 的衰减系数，越大越看重最近的请求
+     */
+    private static final double ALPHA = 0.2;
+
+    private final String name;
+    private final int weight;
+
+    /**
+     * 当前借出未归还的连接数
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * 连接占用时间（借出到归还，不只是 SQL 执行时间）的指数加权平均，纳秒；并发更新时丢失个别样本不影响结果，所以不加锁
+     */
+    private volatile double ewmaNanos;
+
+    /**
+     * 复制延迟，毫秒；-1 表示没有检测
+     */
+    private volatile long lagMillis = -1;
+
+    /**
+     * 熔断中，不参与读请求
+     */
+    private volatile boolean ejected;
+
+    public Replica(String name, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("从库 " + name + " 的权重必须大于 0");
+        }
+        this.name = name;
+        this.weight = weight;
+    }
+
+    /**
+     * 借出连接
+     */
+    public void begin() {
+        active.incrementAndGet();
+    }
+
+    /**
+     * 归还连接
+     * @param elapsedNanos 连接的占用时间
+     */
+    public void end(long elapsedNanos) {
+        active.decrementAndGet();
+        double ewma = ewmaNanos;
+        ewmaNanos = ewma == 0 ? elapsedNanos : ewma + ALPHA * (elapsedNanos - ewma);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public double getEwmaNanos() {
+        return ewmaNanos;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public void setLagMillis(long lagMillis) {
+        this.lagMillis = lagMillis;
+    }
+
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    public void setEjected(boolean ejected) {
+        this.ejected = ejected;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{weight=" + weight + ", active=" + active.get()
+                + ", ewma=" + TimeUnit.NANOSECONDS.toMicros((long) ewmaNanos) + "us, lag=" + lagMillis + "ms"
+                + (ejected ? ", ejected" : "") + "}";
+    }
+}
@@ -0,0 +1,106 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 一个主库和它的从库
+ */
+public class ReplicaGroup {
+
+    private final String master;
+    private final List<Replica> replicas;
+    private final LoadBalancer loadBalancer;
+
+    /**
+     * 可以参与读请求的从库，只在检测结果变化时整体替换，读路由时不需要过滤
+     */
+    private volatile List<Replica> available;
+
+    /**
+     * 可用从库中最大的复制延迟，-1 表示未知
+     */
+    private volatile long maxLagMillis = -1;
+
+    /**
+     * 允许的最大复制延迟，-1 表示不按延迟过滤
+     */
+    private long lagLimitMillis = -1;
+
+    public ReplicaGroup(String master, List<Replica> replicas, LoadBalancer loadBalancer) {
+        this.master = master;
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.loadBalancer = loadBalancer;
+        this.available = this.replicas;
+    }
+
+    /**
+     * 选一个从库处理读请求，没有可用的从库时读主库
+     */
+    public String routeRead() {
+        List<Replica> candidates = available;
+        return candidates.isEmpty() ? master : loadBalancer.choose(candidates).getName();
+    }
+
+    /**
+     * 从库失败后换一个没试过的可用从库，都试过了返回主库
+     * @param tried 已经失败的从库
+     */
+    public String fallbackRead(Set<String> tried) {
+        List<Replica> candidates = new ArrayList<>();
+        for (Replica replica : available) {
+            if (!tried.contains(replica.getName())) {
+                candidates.add(replica);
+            }
+        }
+        return candidates.isEmpty() ? master : loadBalancer.choose(candidates).getName();
+    }
+
+    /**
+     * 根据最新的复制延迟重新计算可用的从库，延迟未知或者超过 maxLagMillis 的从库不参与读请求
+     */
+    public synchronized void refresh(long maxLagMillis) {
+        this.lagLimitMillis = maxLagMillis;
+        refresh();
+    }
+
+    /**
+     * 熔断状态或复制延迟变化后重新计算可用的从库
+     */
+    public synchronized void refresh() {
+        List<Replica> candidates = new ArrayList<>();
+        long lag = 0;
+        for (Replica replica : replicas) {
+            if (replica.isEjected()) {
+                continue;
+            }
+            if (lagLimitMillis >= 0) {
+                if (replica.getLagMillis() < 0 || replica.getLagMillis() > lagLimitMillis) {
+                    continue;
+                }
+                lag = Math.max(lag, replica.getLagMillis());
+            }
+            candidates.add(replica);
+        }
+        this.available = Collections.unmodifiableList(candidates);
+        this.maxLagMillis = candidates.isEmpty() || lagLimitMillis < 0 ? -1 : lag;
+    }
+
+    public String getMaster() {
+        return master;
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    public List<Replica> getAvailable() {
+        return available;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+}
@@ -0,0 +1,93 @@
+package com.jia.dbsharding.readwrite;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 定时通过 SHOW SLAVE STATUS 检测每个从库的复制延迟，延迟超过阈值的从库暂时不参与读请求
+ */
+@Slf4j
+public class ReplicationLagMonitor {
+
+    private final ReadWriteRouter router;
+    private final Function<String, DataSource> dataSources;
+    private final long maxLagMillis;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param dataSources 根据从库名取得连接池
+     * @param maxLagMillis 延迟超过这个值的从库不参与读请求
+     */
+    public ReplicationLagMonitor(ReadWriteRouter router, Function<String, DataSource> dataSources,
+                                 long maxLagMillis, long intervalMillis) {
+        this.router = router;
+        this.dataSources = dataSources;
+        this.maxLagMillis = maxLagMillis;
+        this.intervalMillis = intervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replication-lag-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::check, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void check() {
+        for (ReplicaGroup group : router.getGroups()) {
+            for (Replica replica : group.getReplicas()) {
+                try {
+                    replica.setLagMillis(queryLagMillis(dataSources.apply(replica.getName())));
+                } catch (Exception e) {
+                    log.warn("检测从库 {} 的复制延迟失败：{}", replica.getName(), e.getMessage());
+                    replica.setLagMillis(-1);
+                }
+            }
+            group.refresh(maxLagMillis);
+        }
+    }
+
+    /**
+     * @return 复制延迟，复制线程停止时返回 -1
+     */
+    private long queryLagMillis(DataSource dataSource) throws SQLException {
+        try (Connection connection = connect(dataSource);
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(intervalMillis)));
+            try (ResultSet rs = statement.executeQuery("SHOW SLAVE STATUS")) {
+                if (!rs.next()) {
+                    throw new SQLException("不是从库");
+                }
+                long seconds = rs.getLong("Seconds_Behind_Master");
+                return rs.wasNull() ? -1 : TimeUnit.SECONDS.toMillis(seconds);
+            }
+        }
+    }
+
+    /**
+     * 检测不能无限等待连接，否则一个挂掉的从库会卡住所有从库的检测
+     */
+    private Connection connect(DataSource dataSource) throws SQLException {
+        if (dataSource instanceof DruidDataSource) {
+            return ((DruidDataSource) dataSource).getConnection(intervalMillis);
+        }
+        return dataSource.getConnection();
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
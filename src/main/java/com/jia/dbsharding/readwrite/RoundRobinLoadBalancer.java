@@ -0,0 +1,17 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 轮询
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Override
+    public Replica choose(List<Replica> replicas) {
+        return replicas.get((sequence.getAndIncrement() & Integer.MAX_VALUE) % replicas.size());
+    }
+}
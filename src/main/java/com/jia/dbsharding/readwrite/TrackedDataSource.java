@@ -0,0 +1,57 @@
+package com.jia.dbsharding.readwrite;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 包装从库的连接池，统计借出的连接数和连接占用时间，供负载均衡使用
+ * 占用时间从借出到归还，包含 SQL 执行和调用方持有连接的时间；MyBatis 非事务查询每条语句归还一次连接，接近查询延迟，
+ * 事务中会把整个事务的时间算进去
+ */
+public class TrackedDataSource extends DelegatingDataSource {
+
+    private final Replica replica;
+
+    public TrackedDataSource(DataSource target, Replica replica) {
+        super(target);
+        this.replica = replica;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return track(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return track(super.getConnection(username, password));
+    }
+
+    private Connection track(Connection connection) {
+        long start = System.nanoTime();
+        replica.begin();
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    // 连接可能被不同线程重复 close，只归还一次
+                    if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+                        replica.end(System.nanoTime() - start);
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+
+    public Replica getReplica() {
+        return replica;
+    }
+}
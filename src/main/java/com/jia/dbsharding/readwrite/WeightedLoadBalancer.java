@@ -0,0 +1,26 @@
+package com.jia.dbsharding.readwrite;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按权重随机
+ */
+public class WeightedLoadBalancer implements LoadBalancer {
+
+    @Override
+    public Replica choose(List<Replica> replicas) {
+        int total = 0;
+        for (Replica replica : replicas) {
+            total += replica.getWeight();
+        }
+        int offset = ThreadLocalRandom.current().nextInt(total);
+        for (Replica replica : replicas) {
+            offset -= replica.getWeight();
+            if (offset < 0) {
+                return replica;
+            }
+        }
+        return replicas.get(replicas.size() - 1);
+    }
+}
@@ -0,0 +1,389 @@
+package com.jia.dbsharding.resharding;
+
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+import com.jia.dbsharding.config.ShardingProperties;
+import com.jia.dbsharding.entity.Checksum;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.ShardingTarget;
+import com.jia.dbsharding.sharding.TableRule;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * 在线重新分片，一次迁移一张逻辑表：
+ * 1. 开启双写：ShardingRule 记录新规则，insertName 同时写新旧两个目标
+ * 2. 回填：逐张旧表按 id 游标分批读取（有从库时读从库），按新规则分组后 upsert 到新表，按行数限速
+ * 3. 校验：再从主库逐批读取旧表，和新表同样 id 的行数、CRC32 校验和比较，不一致的批次重新复制后再校验
+ * 4. 切换：新规则整体替换当前规则，读写同时切到新表
+ * 旧表中已经迁走的数据不会删除；迁移状态只在本节点，多节点部署时需要在停止其它节点写入的情况下执行
+ */
+@Slf4j
+public class ReshardingCoordinator {
+
+    public enum Phase {
+        BACKFILL, VERIFY, READY, DONE, FAILED, CANCELLED
+    }
+
+    private static final long PAUSE_POLL_MILLIS = 100;
+
+    private final ShardingRule shardingRule;
+    private final DBMapper mapper;
+    private final Supplier<? extends Collection<String>> dataSources;
+    private final long startDelayMillis;
+    private final boolean autoFlip;
+    private final ExecutorService worker;
+
+    private volatile int batchSize;
+    private volatile int rowsPerSecond;
+    private volatile boolean paused;
+
+    private volatile Migration migration;
+
+    /**
+     * 回填和修复写入新表之前调用，参数是将要写入的行
+     */
+    private final List<Consumer<List<DBEntity>>> copyListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param dataSources 当前所有分片数据源名，拓扑重新加载后会变化，新规则只能使用这些数据源
+     */
+    public ReshardingCoordinator(ShardingRule shardingRule, DBMapper mapper, Supplier<? extends Collection<String>> dataSources,
+                                 ShardingProperties.ReshardingProperty property) {
+        this.shardingRule = shardingRule;
+        this.mapper = mapper;
+        this.dataSources = dataSources;
+        this.startDelayMillis = property.getStartDelayMillis();
+        this.autoFlip = property.isAutoFlip();
+        setThrottle(property.getRowsPerSecond(), property.getBatchSize());
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "resharding");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开启双写并在后台开始回填
+     */
+    public synchronized void start(TableRule newRule) {
+        Migration current = migration;
+        if (current != null && current.isActive()) {
+            throw new IllegalStateException("逻辑表 " + current.logicTable + " 正在迁移");
+        }
+        Collection<String> available = dataSources.get();
+        for (ShardingTarget target : newRule.getTargets()) {
+            if (!available.contains(target.getDataSource())) {
+                throw new IllegalArgumentException("数据源 " + target.getDataSource() + " 不在当前的数据源拓扑中");
+            }
+        }
+        TableRule oldRule = shardingRule.getTableRule(newRule.getLogicTable());
+        shardingRule.startMigration(newRule);
+        Migration started = new Migration(oldRule, newRule);
+        migration = started;
+        paused = false;
+        worker.execute(() -> run(started));
+        log.info("开始重新分片 {}：{} 张表 -> {} 张表", started.logicTable, oldRule.getTargets().size(), newRule.getTargets().size());
+    }
+
+    /**
+     * 回填或修复写入新表之前回调，例如把 id 放入 Bloom 过滤器，切换后查询新表不会被误判为不存在
+     */
+    public void addCopyListener(Consumer<List<DBEntity>> listener) {
+        copyListeners.add(listener);
+    }
+
+    /**
+     * 调整回填速度，运行中立即生效
+     */
+    public void setThrottle(int rowsPerSecond, int batchSize) {
+        if (rowsPerSecond <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("限速和批大小必须大于 0");
+        }
+        this.rowsPerSecond = rowsPerSecond;
+        this.batchSize = batchSize;
+    }
+
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    /**
+     * 放弃迁移并停止双写，新表中已经复制的数据需要手动清理
+     */
+    public synchronized void cancel() {
+        Migration current = requireMigration();
+        if (!current.isActive()) {
+            throw new IllegalStateException("迁移已经结束：" + current.phase);
+        }
+        current.phase = Phase.CANCELLED;
+        shardingRule.cancelMigration(current.logicTable);
+        log.warn("已放弃重新分片 {}", current.logicTable);
+    }
+
+    /**
+     * 校验通过后切换到新规则
+     */
+    public synchronized void flip() {
+        Migration current = requireMigration();
+        if (current.phase != Phase.READY) {
+            throw new IllegalStateException("校验通过后才能切换，当前状态：" + current.phase);
+        }
+        shardingRule.completeMigration(current.logicTable);
+        current.phase = Phase.DONE;
+        current.finishedAt = System.currentTimeMillis();
+        log.info("重新分片 {} 完成，已切换到新规则", current.logicTable);
+    }
+
+    private Migration requireMigration() {
+        Migration current = migration;
+        if (current == null) {
+            throw new IllegalStateException("没有进行中的迁移");
+        }
+        return current;
+    }
+
+    private void run(Migration m) {
+        try {
+            // 等待按旧规则路由、只写了旧表的写入执行完，之后的写入都会双写
+            Thread.sleep(startDelayMillis);
+            for (ShardingTarget source : m.oldRule.getTargets()) {
+                copy(m, source, false);
+            }
+            m.phase = Phase.VERIFY;
+            for (ShardingTarget source : m.oldRule.getTargets()) {
+                copy(m, source, true);
+            }
+            if (m.mismatches.sum() > 0) {
+                throw new IllegalStateException(m.mismatches.sum() + " 个批次重新复制后仍然不一致");
+            }
+            m.phase = Phase.READY;
+            log.info("重新分片 {} 校验通过，复制 {} 行，修复 {} 行", m.logicTable, m.copiedRows.sum(), m.repairedRows.sum());
+            if (autoFlip) {
+                flip();
+            }
+        } catch (CancelledException e) {
+            log.info("重新分片 {} 的后台任务已停止", m.logicTable);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("重新分片 " + m.logicTable + " 失败，仍然双写，可以放弃后重新开始", e);
+            m.error = e.toString();
+            m.phase = Phase.FAILED;
+        }
+    }
+
+    /**
+     * 按 id 游标遍历一张旧表
+     * @param verify false 时复制，true 时校验
+     */
+    private void copy(Migration m, ShardingTarget source, boolean verify) throws InterruptedException {
+        long afterId = Long.MIN_VALUE;
+        long nextNanos = System.nanoTime();
+        while (true) {
+            awaitRunnable(m);
+            long cursor = afterId;
+            int limit = batchSize;
+            // 回填读从库减轻主库压力，校验读主库，从库延迟漏掉的行在校验时补上
+            List<DBEntity> rows = on(source, !verify, () -> mapper.selectAfter(cursor, limit));
+            if (rows.isEmpty()) {
+                return;
+            }
+            Map<ShardingTarget, List<DBEntity>> byTarget = new LinkedHashMap<>();
+            for (DBEntity row : rows) {
+                ShardingTarget target = m.newRule.route(row.getId());
+                if (!target.equals(source)) {
+                    byTarget.computeIfAbsent(target, k -> new ArrayList<>()).add(row);
+                }
+            }
+            for (Map.Entry<ShardingTarget, List<DBEntity>> entry : byTarget.entrySet()) {
+                if (verify) {
+                    verify(m, entry.getKey(), entry.getValue());
+                } else {
+                    upsert(entry.getKey(), entry.getValue());
+                    m.copiedRows.add(entry.getValue().size());
+                }
+            }
+            afterId = rows.get(rows.size() - 1).getId();
+            (verify ? m.verifyCursors : m.copyCursors).put(source.toString(), afterId);
+            m.scannedRows.add(rows.size());
+            nextNanos = throttle(nextNanos, rows.size());
+        }
+    }
+
+    private void verify(Migration m, ShardingTarget target, List<DBEntity> rows) {
+        Checksum expected = checksum(rows);
+        if (matches(expected, target, rows)) {
+            return;
+        }
+        upsert(target, rows);
+        m.repairedRows.add(rows.size());
+        if (!matches(expected, target, rows)) {
+            log.warn("{} 中 id {} ~ {} 重新复制后仍然不一致", target, rows.get(0).getId(), rows.get(rows.size() - 1).getId());
+            m.mismatches.increment();
+        }
+    }
+
+    private boolean matches(Checksum expected, ShardingTarget target, List<DBEntity> rows) {
+        List<Integer> ids = new ArrayList<>(rows.size());
+        rows.forEach(row -> ids.add(row.getId()));
+        Checksum actual = on(target, false, () -> mapper.checksumByIds(ids));
+        return actual.getTotal() == expected.getTotal() && actual.getCrc() == expected.getCrc();
+    }
+
+    /**
+     * 和 SQL 中 SUM(CRC32(CONCAT(id, '|', IFNULL(name, '')))) 的算法相同
+     * name 为 null 时按空串计算，SQL 的 CONCAT 遇到 NULL 返回 NULL，Java 拼接会得到 "null"，两边都要先归一
+     */
+    static Checksum checksum(List<DBEntity> rows) {
+        long sum = 0;
+        CRC32 crc = new CRC32();
+        for (DBEntity row : rows) {
+            crc.reset();
+            crc.update((row.getId() + "|" + Objects.toString(row.getName(), "")).getBytes(StandardCharsets.UTF_8));
+            sum += crc.getValue();
+        }
+        Checksum checksum = new Checksum();
+        checksum.setTotal(rows.size());
+        checksum.setCrc(sum);
+        return checksum;
+    }
+
+    private void upsert(ShardingTarget target, List<DBEntity> rows) {
+        copyListeners.forEach(listener -> listener.accept(rows));
+        on(target, false, () -> {
+            mapper.upsertBatch(rows);
+            return null;
+        });
+    }
+
+    private static <T> T on(ShardingTarget target, boolean readOnly, Supplier<T> action) {
+        DataSourceHolder.push(Route.of(target.getDataSource(), readOnly));
+        ShardingContext.set(target);
+        try {
+            return action.get();
+        } finally {
+            ShardingContext.clear();
+            DataSourceHolder.pop();
+        }
+    }
+
+    /**
+     * 每复制 rows 行至少间隔 rows / rowsPerSecond 秒
+     * @return 下一批最早的开始时间
+     */
+    private long throttle(long nextNanos, int rows) throws InterruptedException {
+        long now = System.nanoTime();
+        long next = Math.max(nextNanos, now) + TimeUnit.SECONDS.toNanos(rows) / rowsPerSecond;
+        long waitNanos = next - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return next;
+    }
+
+    private void awaitRunnable(Migration m) throws InterruptedException {
+        while (true) {
+            if (m.phase == Phase.CANCELLED) {
+                throw new CancelledException();
+            }
+            if (!paused) {
+                return;
+            }
+            Thread.sleep(PAUSE_POLL_MILLIS);
+        }
+    }
+
+    /**
+     * 迁移进度
+     */
+    public Map<String, Object> progress() {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("rowsPerSecondLimit", rowsPerSecond);
+        progress.put("batchSize", batchSize);
+        progress.put("paused", paused);
+        Migration m = migration;
+        if (m == null) {
+            return progress;
+        }
+        long end = m.finishedAt > 0 ? m.finishedAt : System.currentTimeMillis();
+        double seconds = Math.max(1, end - m.startedAt) / 1000.0;
+        progress.put("table", m.logicTable);
+        progress.put("phase", m.phase);
+        progress.put("sourceTables", m.oldRule.getTargets().size());
+        progress.put("targetTables", m.newRule.getTargets().size());
+        progress.put("scannedRows", m.scannedRows.sum());
+        progress.put("copiedRows", m.copiedRows.sum());
+        progress.put("repairedRows", m.repairedRows.sum());
+        progress.put("mismatches", m.mismatches.sum());
+        progress.put("rowsPerSecond", m.scannedRows.sum() / seconds);
+        progress.put("copyCursors", m.copyCursors);
+        progress.put("verifyCursors", m.verifyCursors);
+        if (m.error != null) {
+            progress.put("error", m.error);
+        }
+        return progress;
+    }
+
+    public void close() {
+        worker.shutdownNow();
+    }
+
+    private static final class Migration {
+        private final String logicTable;
+        private final TableRule oldRule;
+        private final TableRule newRule;
+        private final long startedAt = System.currentTimeMillis();
+        private volatile long finishedAt;
+        private volatile Phase phase = Phase.BACKFILL;
+        private volatile String error;
+        /**
+         * 每张旧表复制和校验到的 id
+         */
+        private final Map<String, Long> copyCursors = new ConcurrentHashMap<>();
+        private final Map<String, Long> verifyCursors = new ConcurrentHashMap<>();
+        private final LongAdder scannedRows = new LongAdder();
+        private final LongAdder copiedRows = new LongAdder();
+        private final LongAdder repairedRows = new LongAdder();
+        private final LongAdder mismatches = new LongAdder();
+
+        private Migration(TableRule oldRule, TableRule newRule) {
+            this.logicTable = newRule.getLogicTable();
+            this.oldRule = oldRule;
+            this.newRule = newRule;
+        }
+
+        /**
+         * 还在双写，没有切换也没有放弃
+         */
+        private boolean isActive() {
+            return phase != Phase.DONE && phase != Phase.CANCELLED;
+        }
+    }
+
+    private static final class CancelledException extends RuntimeException {
+    }
+}
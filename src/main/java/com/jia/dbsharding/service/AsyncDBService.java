@@ -0,0 +1,49 @@
+package com.jia.dbsharding.service;
+
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.id.IdGenerator;
+import com.jia.dbsharding.sharding.ShardBulkhead;
+import com.jia.dbsharding.sharding.ShardingRule;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DBService 的异步版本：先按 id 算出分片，再把调用放到这个分片的舱壁线程池中执行
+ */
+@Service
+public class AsyncDBService {
+
+    private final DBService service;
+    private final ShardingRule shardingRule;
+    private final IdGenerator idGenerator;
+    private final ShardBulkhead bulkhead;
+
+    @Autowired
+    public AsyncDBService(DBService service, ShardingRule shardingRule, IdGenerator idGenerator, ShardBulkhead bulkhead) {
+        this.service = service;
+        this.shardingRule = shardingRule;
+        this.idGenerator = idGenerator;
+        this.bulkhead = bulkhead;
+    }
+
+    public CompletableFuture<DBEntity> select(Integer id) {
+        return bulkhead.submit(dataSource(id), () -> service.select(id));
+    }
+
+    /**
+     * @return 新插入行的 id
+     */
+    public CompletableFuture<Integer> insertName(String name) {
+        Integer id = Math.toIntExact(idGenerator.nextId());
+        return bulkhead.submit(dataSource(id), () -> {
+            service.insertName(id, name);
+            return id;
+        });
+    }
+
+    private String dataSource(Integer id) {
+        return shardingRule.route(DBServiceImpl.USER_TABLE, id).getDataSource();
+    }
+}
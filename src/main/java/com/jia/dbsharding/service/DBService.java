@@ -2,9 +2,31 @@ package com.jia.dbsharding.service;
 
 import com.jia.dbsharding.entity.DBEntity;
 
+import java.util.List;
+
 public interface DBService {
 
     void insertName(String name);
 
+    /**
+     * 使用事先生成的 id 插入，调用方需要在插入前知道分片时使用
+     */
+    void insertName(Integer id, String name);
+
     DBEntity select(Integer id);
+
+    /**
+     * 批量查询，按 ids 的顺序返回，不存在的 id 对应 null
+     */
+    List<DBEntity> selectBatch(List<Integer> ids);
+
+    /**
+     * 跨所有分片按 id 游标分页，返回 id 大于 afterId 的前 limit 条，下一页传入本页最后一条的 id
+     */
+    List<DBEntity> list(long afterId, int limit);
+
+    /**
+     * 按 name 查询，name 不是分片键，需要查询所有分片，分页方式同 list
+     */
+    List<DBEntity> selectByName(String name, long afterId, int limit);
 }
@@ -1,46 +1,245 @@
 package com.jia.dbsharding.service;
 
+import com.jia.dbsharding.batch.InsertCoalescer;
+import com.jia.dbsharding.cache.TwoLevelCache;
+import com.jia.dbsharding.config.DataSourceHolder;
 import com.jia.dbsharding.config.RoutingDataSource;
 import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.id.IdGenerator;
 import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.readwrite.ReadYourWritesTracker;
+import com.jia.dbsharding.sharding.ShardBloomFilter;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingExecutor;
+import com.jia.dbsharding.sharding.ShardingMerger;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.ShardingTarget;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
 @Service
 public class DBServiceImpl implements DBService{
 
+    /**
+     * user 逻辑表
+     */
+    static final String USER_TABLE = "user";
+
+    /**
+     * list 一页最多的行数
+     */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * selectBatch 一次最多的 id 个数，限制 MGET 和 IN 列表的长度
+     */
+    static final int MAX_BATCH_SIZE = 500;
+
+    private static final Comparator<DBEntity> BY_ID = Comparator.comparing(DBEntity::getId);
+
     private final DBMapper mapper;
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final TwoLevelCache cache;
+    private final ShardingRule shardingRule;
+    private final IdGenerator idGenerator;
+    private final ReadYourWritesTracker writeTracker;
+    private final ShardingExecutor shardingExecutor;
+
+    /**
+     * 没有开启合并插入时为 null
+     */
+    private final InsertCoalescer<DBEntity> insertCoalescer;
+
+    /**
+     * 没有开启 Bloom 过滤器时为 null
+     */
+    private final ShardBloomFilter idFilter;
 
     @Autowired
-    public DBServiceImpl(DBMapper dbMapper, RedisTemplate<String, Object> redisTemplate){
+    public DBServiceImpl(DBMapper dbMapper, TwoLevelCache cache,
+                         ShardingRule shardingRule, IdGenerator idGenerator, ReadYourWritesTracker writeTracker,
+                         ShardingExecutor shardingExecutor, ObjectProvider<InsertCoalescer<DBEntity>> insertCoalescer,
+                         ObjectProvider<ShardBloomFilter> idFilter){
         this.mapper = dbMapper;
-        this.redisTemplate = redisTemplate;
+        this.cache = cache;
+        this.shardingRule = shardingRule;
+        this.idGenerator = idGenerator;
+        this.writeTracker = writeTracker;
+        this.shardingExecutor = shardingExecutor;
+        this.insertCoalescer = insertCoalescer.getIfAvailable();
+        this.idFilter = idFilter.getIfAvailable();
+        if (this.idFilter != null) {
+            // 其它节点插入的 id 通过删除通知放入本节点的过滤器
+            cache.addInvalidationListener(this::onRemoteWrite);
+        }
+    }
+
+    private void onRemoteWrite(String key) {
+        if (!key.startsWith(USER_TABLE + ":")) {
+            return;
+        }
+        try {
+            idFilter.put(Long.parseLong(key.substring(USER_TABLE.length() + 1)));
+        } catch (NumberFormatException e) {
+            // 不是按 id 缓存的 key
+        }
+    }
+
+    /**
+     * 缓存和主从延迟跟踪使用的 key，前缀决定缓存的过期策略
+     */
+    static String key(Integer id) {
+        return USER_TABLE + ":" + id;
     }
 
     @RoutingDataSource("masterDB")
     @Override
     public void insertName(String name) {
-        System.out.println("insert");
-        mapper.insertName(name);
+        // 先生成 id，插入前就能确定落在哪个分片
+        insertName(Math.toIntExact(idGenerator.nextId()), name);
     }
 
-    // 需要读写分离就使用 slaveDB
-//    @RoutingDataSource("slaveDB")
     @RoutingDataSource("masterDB")
     @Override
+    public void insertName(Integer id, String name) {
+        System.out.println("insert");
+        ShardingTarget[] targets = shardingRule.routeWrite(USER_TABLE, id);
+        ShardingTarget target = targets[0];
+        DBEntity entity = new DBEntity();
+        entity.setId(id);
+        entity.setName(name);
+        String key = key(id);
+        if (idFilter != null) {
+            // 先放入本节点和其它节点的过滤器，插入完成前的并发查询也不会被判定为不存在
+            idFilter.put(id);
+            cache.broadcast(key);
+        }
+        if (insertCoalescer != null) {
+            insertCoalescer.insert(target, entity);
+        } else {
+            mapper.insertName(id, name);
+        }
+        if (targets.length > 1) {
+            // 重新分片中，同时写入新规则的目标；回填可能已经复制过这一行，所以用 upsert
+            ShardingTarget next = targets[1];
+            ShardingContext.set(next);
+            try {
+                mapper.upsertBatch(Collections.singletonList(entity));
+            } finally {
+                ShardingContext.clear();
+            }
+        }
+        writeTracker.markWritten(key);
+        cache.evict(key);
+    }
+
+    // 从 sharding.read-write.groups 配置的从库中读取，刚写入的 key 读主库
+    @RoutingDataSource(value = "masterDB", readOnly = true)
+    @Override
     public DBEntity select(Integer id) {
-        String idString = String.valueOf(id);
-        if(redisTemplate.hasKey(idString)){
-            DBEntity dbEntity = (DBEntity)redisTemplate.opsForValue().get(idString);
-            System.out.println("缓存中存在，已取出：" + dbEntity.toString());
-            return dbEntity;
-        }else {
+        if (idFilter != null && !idFilter.mightContain(id)) {
+            return null;
+        }
+        String key = key(id);
+        Supplier<Object> loader = () -> {
             DBEntity entity = mapper.selectName(id);
-            redisTemplate.opsForValue().set(String.valueOf(entity.getId()), entity);
-            System.out.println("缓存中没有，已放入缓存：" + entity.toString());
-            return  entity;
+            System.out.println("缓存中没有，已放入缓存：" + entity);
+            return entity;
+        };
+        ShardingTarget target = shardingRule.route(USER_TABLE, id);
+        if (writeTracker.requiresMaster(key, target.getDataSource())) {
+            // 刚写过的 key 读主库，不能用其它线程从从库读到的结果，也不能用空值缓存
+            DataSourceHolder.usePrimary();
+            return (DBEntity) cache.getFresh(key, loader);
+        }
+        // 缓存未命中时同一个 id 只有一个线程查询数据库
+        return (DBEntity) cache.get(key, loader);
+    }
+
+    /**
+     * 一次 MGET 读缓存，未命中的 id 一条 IN 查询，由 ShardingInterceptor 按分片拆开并行执行，最后一次 pipeline 写回缓存
+     * 结果和 ids 一一对应，重复的 id 只查一次，不存在的 id 对应 null
+     */
+    @RoutingDataSource(value = "masterDB", readOnly = true)
+    @Override
+    public List<DBEntity> selectBatch(List<Integer> ids) {
+        if (ids.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("一次最多查询 " + MAX_BATCH_SIZE + " 个 id：" + ids.size());
+        }
+        if (ids.contains(null)) {
+            throw new IllegalArgumentException("id 不能为空：" + ids);
+        }
+        List<String> keys = new ArrayList<>();
+        Set<Integer> distinct = new LinkedHashSet<>(ids);
+        for (Integer id : distinct) {
+            keys.add(key(id));
+        }
+        Map<String, Object> cached = cache.getAll(keys);
+
+        List<Integer> misses = new ArrayList<>();
+        boolean requiresMaster = false;
+        for (Integer id : distinct) {
+            String key = key(id);
+            if (!cached.containsKey(key)) {
+                misses.add(id);
+                requiresMaster |= writeTracker.requiresMaster(key,
+                        shardingRule.route(USER_TABLE, id).getDataSource());
+            }
+        }
+        if (!misses.isEmpty()) {
+            if (requiresMaster) {
+                DataSourceHolder.usePrimary();
+            }
+            Map<String, Object> loaded = new HashMap<>();
+            for (DBEntity row : mapper.selectByIds(misses)) {
+                loaded.put(key(row.getId()), row);
+            }
+            cache.putAll(loaded);
+            cached.putAll(loaded);
+        }
+
+        List<DBEntity> result = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            result.add((DBEntity) cached.get(key(id)));
+        }
+        return result;
+    }
+
+    /**
+     * 每张表取 id 大于 afterId 的前 limit 条，再多路归并
+     * 每张表最多返回 limit 行，读取量和翻到第几页无关
+     */
+    @RoutingDataSource(value = "masterDB", readOnly = true)
+    @Override
+    public List<DBEntity> list(long afterId, int limit) {
+        checkLimit(limit);
+        List<List<DBEntity>> shardResults = shardingExecutor.execute(shardingRule.getTableRule(USER_TABLE).getTargets(),
+                target -> mapper.selectAfter(afterId, limit));
+        return ShardingMerger.mergeSorted(shardResults, BY_ID, 0, limit);
+    }
+
+    @RoutingDataSource(value = "masterDB", readOnly = true)
+    @Override
+    public List<DBEntity> selectByName(String name, long afterId, int limit) {
+        checkLimit(limit);
+        List<List<DBEntity>> shardResults = shardingExecutor.execute(shardingRule.getTableRule(USER_TABLE).getTargets(),
+                target -> mapper.selectByName(name, afterId, limit));
+        return ShardingMerger.mergeSorted(shardResults, BY_ID, 0, limit);
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit 必须在 1 到 " + MAX_PAGE_SIZE + " 之间：" + limit);
         }
     }
 }
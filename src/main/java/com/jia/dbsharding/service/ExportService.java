@@ -0,0 +1,163 @@
+package com.jia.dbsharding.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+import com.jia.dbsharding.config.ShardingProperties;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.sharding.ShardStreamer;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingRule;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 全表导出：每张物理表在从库上按 id 游标分批读取，并发汇总后按 NDJSON 或 CSV 写出
+ * 每批查询结束就归还连接，等待客户端时不占用连接；导出不是一致性快照，导出期间写入的行可能导出也可能不导出
+ */
+@Service
+public class ExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public static Format of(String name) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("不支持的导出格式：" + name);
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final DBMapper mapper;
+    private final ShardingRule shardingRule;
+    private final ShardStreamer streamer;
+    private final int batchSize;
+
+    @Autowired
+    public ExportService(DBMapper mapper, ShardingRule shardingRule, ShardStreamer streamer, ShardingProperties properties) {
+        this.mapper = mapper;
+        this.shardingRule = shardingRule;
+        this.streamer = streamer;
+        this.batchSize = properties.getExport().getBatchSize();
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("导出的每批行数必须大于 0：" + batchSize);
+        }
+    }
+
+    /**
+     * 导出 user 表的所有行，不关闭 out
+     * @return 导出的行数
+     */
+    public long exportUsers(Format format, OutputStream out) throws IOException {
+        ShardStreamer.RowWriter<DBEntity> writer = format == Format.CSV ? csv(out) : ndjson(out);
+        return streamer.stream(shardingRule.getTableRule(DBServiceImpl.USER_TABLE).getTargets(), (target, sink) -> {
+            DataSourceHolder.push(Route.of(target.getDataSource(), true));
+            ShardingContext.set(target);
+            // 不用流式结果集：MySQL 驱动关闭读了一半的流式结果集时会读完剩下的行，取消导出也要占着连接直到整张表读完
+            // mapper 在事务外每次调用后归还连接，sink 在导出取消时抛出异常，最多多读一批
+            try {
+                long afterId = Long.MIN_VALUE;
+                List<DBEntity> rows;
+                do {
+                    rows = mapper.selectAfter(afterId, batchSize);
+                    for (DBEntity row : rows) {
+                        sink.accept(row);
+                        afterId = row.getId();
+                    }
+                } while (rows.size() == batchSize);
+            } finally {
+                ShardingContext.clear();
+                DataSourceHolder.pop();
+            }
+        }, writer);
+    }
+
+    static ShardStreamer.RowWriter<DBEntity> ndjson(OutputStream out) throws IOException {
+        JsonGenerator generator = JSON.createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // 默认在顶层对象之间插入空格，每行由我们自己用换行分隔
+        generator.setRootValueSeparator(null);
+        return new ShardStreamer.RowWriter<DBEntity>() {
+            @Override
+            public void write(DBEntity row) throws IOException {
+                generator.writeStartObject();
+                if (row.getId() != null) {
+                    generator.writeNumberField("id", row.getId());
+                }
+                generator.writeStringField("name", row.getName());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+
+            @Override
+            public void flush() throws IOException {
+                generator.flush();
+            }
+        };
+    }
+
+    static ShardStreamer.RowWriter<DBEntity> csv(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write("id,name\r\n");
+        return new ShardStreamer.RowWriter<DBEntity>() {
+            @Override
+            public void write(DBEntity row) throws IOException {
+                if (row.getId() != null) {
+                    writer.write(row.getId().toString());
+                }
+                writer.write(',');
+                writer.write(quote(row.getName()));
+                writer.write("\r\n");
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * RFC 4180：含逗号、引号或换行的字段加双引号，引号写两次
+     */
+    static String quote(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,24 @@
+package com.jia.dbsharding.sharding;
+
+/**
+ * 哈希分片：先把 id 打散再取模，避免连续 id 集中在相邻的表上
+ */
+public class HashShardingAlgorithm implements ShardingAlgorithm {
+
+    @Override
+    public int doSharding(long shardingValue, int availableTargets) {
+        return (int) ((mix(shardingValue) & Long.MAX_VALUE) % availableTargets);
+    }
+
+    /**
+     * murmur3 的 fmix64
+     */
+    static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
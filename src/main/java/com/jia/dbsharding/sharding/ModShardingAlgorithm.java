@@ -0,0 +1,12 @@
+package com.jia.dbsharding.sharding;
+
+/**
+ * 取模分片：id % 表数量
+ */
+public class ModShardingAlgorithm implements ShardingAlgorithm {
+
+    @Override
+    public int doSharding(long shardingValue, int availableTargets) {
+        return (int) Math.floorMod(shardingValue, (long) availableTargets);
+    }
+}
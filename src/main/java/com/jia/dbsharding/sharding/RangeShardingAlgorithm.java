@@ -0,0 +1,25 @@
+package com.jia.dbsharding.sharding;
+
+/**
+ * 范围分片：每 step 个 id 放一张表，[0, step) 在第 0 张表，[step, 2 * step) 在第 1 张表，以此类推
+ */
+public class RangeShardingAlgorithm implements ShardingAlgorithm {
+
+    private final long step;
+
+    public RangeShardingAlgorithm(long step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("range 分片的 step 必须大于 0");
+        }
+        this.step = step;
+    }
+
+    @Override
+    public int doSharding(long shardingValue, int availableTargets) {
+        long index = shardingValue / step;
+        if (shardingValue < 0 || index >= availableTargets) {
+            throw new IllegalStateException("分片键 " + shardingValue + " 超出了 range 分片的范围");
+        }
+        return (int) index;
+    }
+}
@@ -0,0 +1,153 @@
+package com.jia.dbsharding.sharding;
+
+import com.jia.dbsharding.util.BloomFilter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 每张物理表一个 Bloom 过滤器，记录表中已有的 id，查询不存在的 id 时不用访问 redis 和数据库
+ * 启动后在后台按 id 游标分批扫描每张表，写入在扫描前就会放入过滤器，扫描期间插入的 id 不会丢失；
+ * 扫描完成之前、扫描失败或者路由到过滤器之外的表（重新分片后的新表）时，都当作可能存在，照常查询。
+ * 重新分片时双写经过 put 放入新旧两张表，回填复制的 id 由 ReshardingCoordinator 的回调放入，
+ * 新规则沿用的表（例如 mod 2 改为 mod 3 后的 user_0、user_1）切换后也不会漏掉迁入的 id。
+ * 多个节点时，其它节点插入的 id 通过缓存的删除通知放入（见 DBServiceImpl）；redis 断开期间错过的通知无法补回，
+ * 这些 id 会一直被判定为不存在，直到重启后重新构建
+ */
+@Slf4j
+public class ShardBloomFilter {
+
+    /**
+     * 读取一张物理表中大于 afterId 的 limit 个 id，按 id 升序
+     */
+    public interface IdScanner {
+        List<Long> scan(ShardingTarget target, long afterId, int limit);
+    }
+
+    private enum State {
+        BUILDING, READY, FAILED
+    }
+
+    private static final class Shard {
+        private final BloomFilter filter;
+        private volatile State state = State.BUILDING;
+        private volatile long scanned;
+        private volatile String error;
+
+        private Shard(BloomFilter filter) {
+            this.filter = filter;
+        }
+    }
+
+    private final ShardingRule shardingRule;
+    private final String logicTable;
+    private final Map<ShardingTarget, Shard> shards = new LinkedHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private ExecutorService executor;
+
+    /**
+     * @param expectedIdsPerShard 每张表预计的行数
+     * @param fpp 误判率，误判的 id 照常查询
+     */
+    public ShardBloomFilter(ShardingRule shardingRule, String logicTable, long expectedIdsPerShard, double fpp) {
+        this.shardingRule = shardingRule;
+        this.logicTable = logicTable;
+        for (ShardingTarget target : shardingRule.getTableRule(logicTable).getTargets()) {
+            shards.put(target, new Shard(new BloomFilter(expectedIdsPerShard, fpp)));
+        }
+    }
+
+    /**
+     * 在后台并行扫描所有表，每张表单独成功或失败
+     */
+    public synchronized void build(IdScanner scanner, int batchSize, int threads) {
+        AtomicInteger sequence = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, shards.size())), r -> {
+            Thread thread = new Thread(r, "bloom-filter-build-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        shards.forEach((target, shard) -> executor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                long afterId = Long.MIN_VALUE;
+                while (!Thread.currentThread().isInterrupted()) {
+                    List<Long> ids = scanner.scan(target, afterId, batchSize);
+                    for (Long id : ids) {
+                        shard.filter.put(id);
+                    }
+                    shard.scanned += ids.size();
+                    if (ids.size() < batchSize) {
+                        shard.state = State.READY;
+                        log.info("{} 的 Bloom 过滤器构建完成，{} 个 id，耗时 {} ms", target, shard.scanned,
+                                (System.nanoTime() - start) / 1000000);
+                        return;
+                    }
+                    afterId = ids.get(ids.size() - 1);
+                }
+            } catch (RuntimeException e) {
+                shard.error = e.getMessage();
+                shard.state = State.FAILED;
+                log.warn("{} 的 Bloom 过滤器构建失败，查询这张表时不再过滤：{}", target, e.getMessage());
+            }
+        }));
+        executor.shutdown();
+    }
+
+    /**
+     * @return false 时 id 一定不存在
+     */
+    public boolean mightContain(long id) {
+        Shard shard = shards.get(shardingRule.route(logicTable, id));
+        if (shard == null || shard.state != State.READY || shard.filter.mightContain(id)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * 插入之前调用，重新分片双写时新旧两张表都放入
+     */
+    public void put(long id) {
+        for (ShardingTarget target : shardingRule.routeWrite(logicTable, id)) {
+            Shard shard = shards.get(target);
+            if (shard != null) {
+                shard.filter.put(id);
+            }
+        }
+    }
+
+    /**
+     * 每张表的构建状态，以及直接判定为不存在的查询次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rejected", rejected.sum());
+        Map<String, Object> tables = new LinkedHashMap<>();
+        shards.forEach((target, shard) -> {
+            Map<String, Object> table = new LinkedHashMap<>();
+            table.put("state", shard.state);
+            table.put("scanned", shard.scanned);
+            table.put("bytes", shard.filter.sizeInBytes());
+            if (shard.error != null) {
+                table.put("error", shard.error);
+            }
+            tables.put(target.toString(), table);
+        });
+        stats.put("tables", tables);
+        return stats;
+    }
+
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.jia.dbsharding.sharding;
+
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 异步请求的舱壁：每个分片数据源一个有界线程池，数据库和 redis 调用不占用 web 容器的线程
+ * 一个分片变慢只会占满自己的线程池和队列，之后这个分片的请求直接拒绝，其它分片不受影响
+ * 数据源按当前拓扑查找：重新加载后新增的数据源第一次提交时创建线程池，删除的数据源不再接受提交
+ */
+public class ShardBulkhead implements MeterBinder {
+
+    private final Supplier<? extends Collection<String>> dataSources;
+    private final int threadsPerDataSource;
+    private final int queueSize;
+    private final Map<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+
+    /**
+     * bindTo 之后新建的线程池也注册到这里
+     */
+    private MeterRegistry registry;
+
+    /**
+     * @param dataSources 当前所有分片数据源名，每次提交时调用
+     */
+    public ShardBulkhead(Supplier<? extends Collection<String>> dataSources, int threadsPerDataSource, int queueSize) {
+        this.dataSources = dataSources;
+        this.threadsPerDataSource = threadsPerDataSource;
+        this.queueSize = queueSize;
+        dataSources.get().forEach(this::pool);
+    }
+
+    /**
+     * 在数据源对应的线程池中执行 task，工作线程沿用调用线程的 @RoutingDataSource 路由
+     * @return 队列已满时返回以 RejectedExecutionException 结束的 future，不会阻塞调用线程
+     */
+    public <T> CompletableFuture<T> submit(String dataSource, Supplier<T> task) {
+        if (!dataSources.get().contains(dataSource)) {
+            throw new IllegalArgumentException("数据源 " + dataSource + " 不在当前的拓扑中");
+        }
+        ThreadPoolExecutor pool = pool(dataSource);
+        Route route = DataSourceHolder.current();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                if (route != null) {
+                    DataSourceHolder.push(route);
+                }
+                try {
+                    future.complete(task.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    if (route != null) {
+                        DataSourceHolder.pop();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.get(dataSource).increment();
+            future.completeExceptionally(new RejectedExecutionException("数据源 " + dataSource + " 的请求队列已满"));
+        }
+        return future;
+    }
+
+    private ThreadPoolExecutor pool(String dataSource) {
+        ThreadPoolExecutor pool = pools.get(dataSource);
+        if (pool != null) {
+            return pool;
+        }
+        synchronized (this) {
+            pool = pools.get(dataSource);
+            if (pool == null) {
+                pool = createPool(dataSource, threadsPerDataSource, queueSize);
+                rejected.put(dataSource, new LongAdder());
+                pools.put(dataSource, pool);
+                if (registry != null) {
+                    bind(registry, dataSource, pool);
+                }
+            }
+            return pool;
+        }
+    }
+
+    private static ThreadPoolExecutor createPool(String dataSource, int threads, int queueSize) {
+        AtomicInteger sequence = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "bulkhead-" + dataSource + "-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * 当前拓扑中每个数据源的排队数和执行中的任务数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        dataSources.get().forEach(dataSource -> {
+            ThreadPoolExecutor pool = pools.get(dataSource);
+            if (pool == null) {
+                return;
+            }
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("active", pool.getActiveCount());
+            stat.put("queued", pool.getQueue().size());
+            stat.put("rejected", rejected.get(dataSource).sum());
+            stats.put(dataSource, stat);
+        });
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        pools.forEach((dataSource, pool) -> bind(registry, dataSource, pool));
+        this.registry = registry;
+    }
+
+    private void bind(MeterRegistry registry, String dataSource, ThreadPoolExecutor pool) {
+        Gauge.builder("bulkhead.active", pool, ThreadPoolExecutor::getActiveCount)
+                .tag("datasource", dataSource).register(registry);
+        Gauge.builder("bulkhead.queued", pool, p -> p.getQueue().size())
+                .tag("datasource", dataSource).register(registry);
+        FunctionCounter.builder("bulkhead.rejected", rejected.get(dataSource), LongAdder::sum)
+                .tag("datasource", dataSource).register(registry);
+    }
+
+    public void close() {
+        pools.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+}
@@ -0,0 +1,179 @@
+package com.jia.dbsharding.sharding;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 并发流式读取多张物理表，通过一个有界队列交给调用线程逐行写出
+ * 队列满时读取线程等待，内存中最多只有 queueSize 行，和表的大小无关；
+ * 调用线程超过 stallTimeoutMillis 没有取走数据（客户端太慢或者已经断开）时，读取线程放弃并释放数据库连接，
+ * 不会因为一个慢客户端长时间占用数据库连接；读取线程超过 stallTimeoutMillis 没有送来数据（数据库卡住）时，调用线程放弃导出
+ * 每个导出最多同时读取 threadsPerExport 张表，同时进行的导出最多 maxExports 个，超出时直接拒绝，
+ * 一个慢导出只占用自己的读取线程，不会拖慢其它导出
+ */
+public class ShardStreamer {
+
+    /**
+     * 读取一张物理表，每一行交给 sink；sink 在导出取消时抛出异常，reader 需要在 finally 中释放连接
+     */
+    public interface ShardReader<T> {
+        void read(ShardingTarget target, Consumer<T> sink) throws Exception;
+    }
+
+    public interface RowWriter<T> {
+        void write(T row) throws IOException;
+
+        /**
+         * 队列暂时为空时调用，把已经写出的行发给客户端
+         */
+        void flush() throws IOException;
+    }
+
+    /**
+     * 一张表读完的标记
+     */
+    private static final Object END = new Object();
+
+    private static final long OFFER_POLL_MILLIS = 100;
+
+    private final ExecutorService executor;
+    private final int threadsPerExport;
+    private final Semaphore exports;
+    private final int queueSize;
+    private final long stallTimeoutMillis;
+
+    /**
+     * @param threadsPerExport 一个导出同时读取的表数
+     * @param maxExports 同时进行的导出数
+     */
+    public ShardStreamer(int threadsPerExport, int maxExports, int queueSize, long stallTimeoutMillis) {
+        if (threadsPerExport <= 0 || maxExports <= 0) {
+            throw new IllegalArgumentException("导出的读取线程数和并发导出数必须大于 0");
+        }
+        AtomicInteger sequence = new AtomicInteger();
+        this.threadsPerExport = threadsPerExport;
+        this.exports = new Semaphore(maxExports);
+        this.executor = Executors.newFixedThreadPool(threadsPerExport * maxExports, r -> {
+            Thread thread = new Thread(r, "shard-stream-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queueSize = queueSize;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    /**
+     * 读取所有表并在调用线程中写出，各表的行交错输出，没有顺序
+     * @return 写出的行数
+     * @throws IllegalStateException 有表读取失败或者超过 stallTimeoutMillis 没有读到数据时，已经写出的行不会撤回
+     * @throws RejectedExecutionException 同时进行的导出已经达到上限
+     */
+    @SuppressWarnings("unchecked")
+    public <T> long stream(Collection<ShardingTarget> targets, ShardReader<T> reader, RowWriter<T> writer) throws IOException {
+        if (!exports.tryAcquire()) {
+            throw new RejectedExecutionException("同时进行的导出太多，请稍后再试");
+        }
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueSize);
+        Queue<ShardingTarget> pending = new ConcurrentLinkedQueue<>(targets);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            // 每个读取线程依次读取还没有读的表，一个导出最多占用 threadsPerExport 个线程
+            for (int i = 0; i < Math.min(threadsPerExport, targets.size()); i++) {
+                futures.add(executor.submit(() -> {
+                    ShardingTarget target;
+                    while (!cancelled.get() && (target = pending.poll()) != null) {
+                        read(target, reader, queue, cancelled, failure);
+                    }
+                }));
+            }
+            long rows = 0;
+            int finished = 0;
+            while (finished < targets.size()) {
+                Object item = queue.poll();
+                if (item == null) {
+                    writer.flush();
+                    item = queue.poll(stallTimeoutMillis, TimeUnit.MILLISECONDS);
+                    if (item == null) {
+                        throw new IllegalStateException("超过 " + stallTimeoutMillis + " ms 没有读到数据，放弃导出");
+                    }
+                }
+                if (item == END) {
+                    finished++;
+                    if (failure.get() != null) {
+                        throw failure.get();
+                    }
+                    continue;
+                }
+                writer.write((T) item);
+                rows++;
+            }
+            writer.flush();
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("导出时被中断", e);
+        } finally {
+            cancelled.set(true);
+            queue.clear();
+            futures.forEach(future -> future.cancel(true));
+            exports.release();
+        }
+    }
+
+    private <T> void read(ShardingTarget target, ShardReader<T> reader, BlockingQueue<Object> queue,
+                          AtomicBoolean cancelled, AtomicReference<RuntimeException> failure) {
+        try {
+            reader.read(target, row -> offer(queue, row, cancelled));
+        } catch (Exception e) {
+            if (!cancelled.get()) {
+                failure.compareAndSet(null, new IllegalStateException("读取 " + target + " 失败：" + e.getMessage(), e));
+            }
+        } finally {
+            try {
+                offer(queue, END, cancelled);
+            } catch (RuntimeException ignored) {
+                // 已经取消或者调用线程不再读取
+            }
+        }
+    }
+
+    private void offer(BlockingQueue<Object> queue, Object item, AtomicBoolean cancelled) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+        try {
+            while (!queue.offer(item, OFFER_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get()) {
+                    throw new CancellationException("导出已取消");
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("超过 " + stallTimeoutMillis + " ms 没有写出数据，放弃读取");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("导出已取消");
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
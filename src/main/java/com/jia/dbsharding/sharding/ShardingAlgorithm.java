@@ -0,0 +1,14 @@
+package com.jia.dbsharding.sharding;
+
+/**
+ * 分片算法：根据分片键的值计算出落在第几张物理表上
+ */
+public interface ShardingAlgorithm {
+
+    /**
+     * @param shardingValue 分片键的值
+     * @param availableTargets 物理表的总数
+     * @return 物理表下标，范围 [0, availableTargets)
+     */
+    int doSharding(long shardingValue, int availableTargets);
+}
@@ -0,0 +1,21 @@
+package com.jia.dbsharding.sharding;
+
+/**
+ * 保存当前线程的分片路由结果，DynamicDataSource 会优先使用这里的数据源
+ */
+public class ShardingContext {
+
+    private static final ThreadLocal<ShardingTarget> contextHolder = new ThreadLocal<>();
+
+    public static void set(ShardingTarget target) {
+        contextHolder.set(target);
+    }
+
+    public static ShardingTarget get() {
+        return contextHolder.get();
+    }
+
+    public static void clear() {
+        contextHolder.remove();
+    }
+}
@@ -0,0 +1,112 @@
+package com.jia.dbsharding.sharding;
+
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 把一个查询并行发到多个分片上执行
+ * 每个数据源一个有界线程池，一个慢库只会占满自己的线程池，不会拖住其它分片
+ */
+public class ShardingExecutor {
+
+    private final int threadsPerDataSource;
+    private final int queueSize;
+    private final long timeoutNanos;
+    private final ConcurrentHashMap<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<>();
+
+    public ShardingExecutor(int threadsPerDataSource, int queueSize, long timeoutMillis) {
+        this.threadsPerDataSource = threadsPerDataSource;
+        this.queueSize = queueSize;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * 在每个分片上执行 callback，按 targets 的顺序返回结果
+     * 工作线程上会设置好 ShardingContext，并沿用调用线程的 @RoutingDataSource 路由（例如只读）
+     */
+    public <T> List<T> execute(Collection<ShardingTarget> targets, Function<ShardingTarget, T> callback) {
+        Route route = DataSourceHolder.current();
+        List<Future<T>> futures = new ArrayList<>(targets.size());
+        try {
+            for (ShardingTarget target : targets) {
+                futures.add(pool(target.getDataSource()).submit(() -> run(route, target, callback)));
+            }
+            long deadline = System.nanoTime() + timeoutNanos;
+            List<T> results = new ArrayList<>(targets.size());
+            for (Future<T> future : futures) {
+                results.add(future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待分片查询时被中断", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("分片查询超时", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("分片查询失败", e.getCause());
+        } finally {
+            // 有一个分片失败或超时，其它分片的结果也用不上了
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T run(Route route, ShardingTarget target, Function<ShardingTarget, T> callback) {
+        if (route != null) {
+            DataSourceHolder.push(route);
+        }
+        ShardingContext.set(target);
+        try {
+            return callback.apply(target);
+        } finally {
+            ShardingContext.clear();
+            if (route != null) {
+                DataSourceHolder.pop();
+            }
+        }
+    }
+
+    private ThreadPoolExecutor pool(String dataSource) {
+        ThreadPoolExecutor pool = pools.get(dataSource);
+        if (pool == null) {
+            pool = pools.computeIfAbsent(dataSource, this::createPool);
+        }
+        return pool;
+    }
+
+    /**
+     * 队列满时直接拒绝，而不是让调用线程排队等待
+     */
+    private ThreadPoolExecutor createPool(String dataSource) {
+        AtomicInteger sequence = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threadsPerDataSource, threadsPerDataSource,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "sharding-" + dataSource + "-" + sequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public void close() {
+        pools.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+}
@@ -0,0 +1,255 @@
+package com.jia.dbsharding.sharding;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 把 SQL 中的逻辑表改写为物理表的 MyBatis 插件，mapper 中直接写逻辑表名
+ * Executor 阶段根据分片键条件计算路由并设置 ShardingContext，StatementHandler 阶段按路由结果替换表名
+ * 调用方已经设置了 ShardingContext 时（例如扫描全部分片、重新分片时指定目标）以调用方为准
+ * IN 条件落在多个分片时按分片拆开，每个分片用自己的连接并行查询，结果直接拼接，不保证顺序，事务中不支持
+ * 查询路由时算出的 BoundSql 直接交给 Executor 带 BoundSql 的 query 方法，动态 SQL 不会再生成一次
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class,
+                        BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor",
+                args = {MappedStatement.class, Object.class, RowBounds.class}),
+        @Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class})
+})
+public class ShardingInterceptor implements Interceptor {
+
+    private final ShardingRule shardingRule;
+    private final ShardingExecutor shardingExecutor;
+
+    /**
+     * SQL 到解析结果的缓存，同一条 SQL 只解析一次
+     */
+    private final Cache<String, SqlTemplate> templates;
+
+    public ShardingInterceptor(ShardingRule shardingRule, ShardingExecutor shardingExecutor, int maxTemplates) {
+        this.shardingRule = shardingRule;
+        this.shardingExecutor = shardingExecutor;
+        this.templates = Caffeine.newBuilder().maximumSize(maxTemplates).build();
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        if (invocation.getTarget() instanceof StatementHandler) {
+            rewrite((StatementHandler) invocation.getTarget());
+            return invocation.proceed();
+        }
+        if (ShardingContext.get() != null) {
+            return invocation.proceed();
+        }
+        Object[] args = invocation.getArgs();
+        MappedStatement ms = (MappedStatement) args[0];
+        Object parameter = args[1];
+        boolean query = "query".equals(invocation.getMethod().getName());
+        BoundSql boundSql = query && args.length == 6 ? (BoundSql) args[5] : ms.getBoundSql(parameter);
+        SqlTemplate template = template(boundSql.getSql());
+        if (template.getLogicTable() == null) {
+            return proceed(invocation, boundSql);
+        }
+
+        Map<ShardingTarget, List<Integer>> targets = route(template, ms.getConfiguration(), boundSql, parameter);
+        if (targets.size() == 1) {
+            ShardingContext.set(targets.keySet().iterator().next());
+            try {
+                return proceed(invocation, boundSql);
+            } finally {
+                ShardingContext.clear();
+            }
+        }
+        if (!query) {
+            throw new IllegalStateException("分片键的值落在多个分片上，只有查询可以拆分：" + ms.getId());
+        }
+        return scatter(ms, parameter, (RowBounds) args[2], (ResultHandler<?>) args[3], boundSql, template, targets);
+    }
+
+    /**
+     * 4 个参数的 query 改为调用带 BoundSql 的 query，和 CachingExecutor 的做法一致，二级缓存和一级缓存照常生效
+     */
+    private static Object proceed(Invocation invocation, BoundSql boundSql) throws Throwable {
+        Object[] args = invocation.getArgs();
+        if (!"query".equals(invocation.getMethod().getName()) || args.length == 6) {
+            return invocation.proceed();
+        }
+        Executor executor = (Executor) invocation.getTarget();
+        MappedStatement ms = (MappedStatement) args[0];
+        RowBounds rowBounds = (RowBounds) args[2];
+        CacheKey key = executor.createCacheKey(ms, args[1], rowBounds, boundSql);
+        return executor.query(ms, args[1], rowBounds, (ResultHandler<?>) args[3], key, boundSql);
+    }
+
+    /**
+     * 按当前线程的路由结果替换物理表
+     */
+    private void rewrite(StatementHandler handler) {
+        BoundSql boundSql = handler.getBoundSql();
+        SqlTemplate template = template(boundSql.getSql());
+        if (template.getLogicTable() == null) {
+            return;
+        }
+        ShardingTarget target = ShardingContext.get();
+        if (target == null) {
+            throw new IllegalStateException("逻辑表 " + template.getLogicTable() + " 没有分片路由：" + boundSql.getSql());
+        }
+        SystemMetaObject.forObject(boundSql).setValue("sql", template.render(target.getTable()));
+    }
+
+    private SqlTemplate template(String sql) {
+        return templates.get(sql, key -> SqlTemplate.parse(key, table -> {
+            TableRule rule = shardingRule.findTableRule(table);
+            return rule == null ? null : rule.getShardingColumn();
+        }));
+    }
+
+    /**
+     * 分片键的每个值计算路由，相同目标的值放在一起，value 是这些值在 IN 列表中的位置
+     */
+    private Map<ShardingTarget, List<Integer>> route(SqlTemplate template, Configuration configuration,
+                                                     BoundSql boundSql, Object parameter) {
+        int[] parameters = template.getShardingParameters();
+        if (parameters == null) {
+            throw new IllegalStateException("逻辑表 " + template.getLogicTable() + " 的 SQL 中没有分片键 "
+                    + template.getShardingColumn() + " 的条件，需要先设置 ShardingContext：" + boundSql.getSql());
+        }
+        Map<ShardingTarget, List<Integer>> targets = new LinkedHashMap<>();
+        for (int i = 0; i < parameters.length; i++) {
+            Object value = parameterValue(configuration, boundSql, parameter, parameters[i]);
+            targets.computeIfAbsent(shardingRule.route(template.getLogicTable(), shardingValue(value)),
+                    k -> new ArrayList<>()).add(i);
+        }
+        return targets;
+    }
+
+    /**
+     * 和 DefaultParameterHandler 取参数值的方式一致
+     */
+    private static Object parameterValue(Configuration configuration, BoundSql boundSql, Object parameter, int index) {
+        String property = boundSql.getParameterMappings().get(index).getProperty();
+        if (boundSql.hasAdditionalParameter(property)) {
+            return boundSql.getAdditionalParameter(property);
+        }
+        if (parameter == null) {
+            return null;
+        }
+        if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+            return parameter;
+        }
+        return configuration.newMetaObject(parameter).getValue(property);
+    }
+
+    private static long shardingValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            return Long.parseLong((String) value);
+        }
+        throw new IllegalArgumentException("分片键的值必须是数字：" + value);
+    }
+
+    /**
+     * IN 列表按分片拆开并行查询
+     * 每个分片在工作线程上用新的 Executor 执行，连接由 Spring 按 ShardingContext 分别获取
+     */
+    private List<Object> scatter(MappedStatement ms, Object parameter, RowBounds rowBounds,
+                                 ResultHandler<?> resultHandler, BoundSql boundSql, SqlTemplate template,
+                                 Map<ShardingTarget, List<Integer>> targets) {
+        if (!template.isSplittable()) {
+            throw new IllegalStateException("分片键的值落在多个分片上，SQL 不能拆分：" + ms.getId());
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("事务中不能跨分片查询：" + ms.getId());
+        }
+        if (resultHandler != null || rowBounds != RowBounds.DEFAULT) {
+            throw new IllegalStateException("跨分片查询不支持 ResultHandler 和 RowBounds：" + ms.getId());
+        }
+        Configuration configuration = ms.getConfiguration();
+        Environment environment = configuration.getEnvironment();
+        List<List<Object>> results = shardingExecutor.execute(targets.keySet(), target -> {
+            BoundSql shardSql = split(configuration, boundSql, parameter, template, targets.get(target));
+            Executor shardExecutor = configuration.newExecutor(environment.getTransactionFactory()
+                    .newTransaction(environment.getDataSource(), null, false), ExecutorType.SIMPLE);
+            try {
+                CacheKey key = shardExecutor.createCacheKey(ms, parameter, rowBounds, shardSql);
+                return shardExecutor.<Object>query(ms, parameter, rowBounds, null, key, shardSql);
+            } catch (SQLException e) {
+                throw new IllegalStateException("分片 " + target + " 查询失败", e);
+            } finally {
+                shardExecutor.close(false);
+            }
+        });
+        List<Object> rows = new ArrayList<>();
+        results.forEach(rows::addAll);
+        return rows;
+    }
+
+    /**
+     * 只保留 IN 列表中落在这个分片上的值
+     */
+    private static BoundSql split(Configuration configuration, BoundSql boundSql, Object parameter,
+                                  SqlTemplate template, List<Integer> positions) {
+        List<ParameterMapping> mappings = boundSql.getParameterMappings();
+        int first = template.getInFirstParameter();
+        int last = template.getInLastParameter();
+        List<ParameterMapping> shardMappings = new ArrayList<>(mappings.subList(0, first));
+        for (Integer position : positions) {
+            shardMappings.add(mappings.get(first + position));
+        }
+        shardMappings.addAll(mappings.subList(last + 1, mappings.size()));
+        BoundSql shardSql = new BoundSql(configuration, template.renderIn(positions.size()), shardMappings, parameter);
+        for (ParameterMapping mapping : shardMappings) {
+            String name = new PropertyTokenizer(mapping.getProperty()).getName();
+            if (boundSql.hasAdditionalParameter(name)) {
+                shardSql.setAdditionalParameter(name, boundSql.getAdditionalParameter(name));
+            }
+        }
+        return shardSql;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        if (target instanceof Executor || target instanceof StatementHandler) {
+            return Plugin.wrap(target, this);
+        }
+        return target;
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+}
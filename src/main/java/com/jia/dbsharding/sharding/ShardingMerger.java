@@ -0,0 +1,65 @@
+package com.jia.dbsharding.sharding;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 合并各个分片的查询结果
+ */
+public final class ShardingMerger {
+
+    private ShardingMerger() {
+    }
+
+    /**
+     * 多路归并：每个分片的结果已经按 comparator 排好序，每次从队首最小的分片取一条，
+     * 跳过 offset 条后取 limit 条。各分片的结果已经全部在内存里，
+     * 跨分片分页应当让每个分片只查 limit 条（按排序键游标分页）并传入 offset = 0
+     */
+    public static <T> List<T> mergeSorted(List<? extends Iterable<T>> shardResults, Comparator<? super T> comparator,
+                                          int offset, int limit) {
+        PriorityQueue<Cursor<T>> heap = new PriorityQueue<>(Math.max(1, shardResults.size()),
+                (a, b) -> comparator.compare(a.head, b.head));
+        for (Iterable<T> rows : shardResults) {
+            Iterator<T> iterator = rows.iterator();
+            if (iterator.hasNext()) {
+                heap.add(new Cursor<>(iterator));
+            }
+        }
+        List<T> page = new ArrayList<>();
+        int skipped = 0;
+        while (!heap.isEmpty() && page.size() < limit) {
+            Cursor<T> cursor = heap.poll();
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                page.add(cursor.head);
+            }
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+        return page;
+    }
+
+    private static final class Cursor<T> {
+        private final Iterator<T> iterator;
+        private T head;
+
+        private Cursor(Iterator<T> iterator) {
+            this.iterator = iterator;
+            this.head = iterator.next();
+        }
+
+        private boolean advance() {
+            if (iterator.hasNext()) {
+                head = iterator.next();
+                return true;
+            }
+            return false;
+        }
+    }
+}
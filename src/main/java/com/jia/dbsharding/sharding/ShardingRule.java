@@ -0,0 +1,127 @@
+package com.jia.dbsharding.sharding;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 所有逻辑表的分片规则
+ * 重新分片时逻辑表同时有当前规则和迁移中的新规则：读按当前规则，写同时写两边；迁移完成后新规则整体替换当前规则
+ */
+public class ShardingRule {
+
+    /**
+     * 当前规则和迁移中的规则放在同一个不可变对象里，一次 volatile 读就能得到一致的视图
+     */
+    private static final class Rules {
+        private final Map<String, TableRule> current;
+        private final Map<String, TableRule> pending;
+
+        private Rules(Map<String, TableRule> current, Map<String, TableRule> pending) {
+            this.current = current;
+            this.pending = pending;
+        }
+    }
+
+    private volatile Rules rules;
+
+    public ShardingRule(Collection<TableRule> rules) {
+        Map<String, TableRule> tableRules = new HashMap<>();
+        for (TableRule rule : rules) {
+            tableRules.put(rule.getLogicTable(), rule);
+        }
+        this.rules = new Rules(tableRules, Collections.emptyMap());
+    }
+
+    /**
+     * 根据逻辑表和分片键的值计算物理库和物理表
+     */
+    public ShardingTarget route(String logicTable, long shardingValue) {
+        return getTableRule(logicTable).route(shardingValue);
+    }
+
+    /**
+     * 写入时的路由，迁移中并且新规则落在不同的物理表时返回两个目标，第一个是当前规则的目标
+     */
+    public ShardingTarget[] routeWrite(String logicTable, long shardingValue) {
+        Rules snapshot = this.rules;
+        ShardingTarget target = tableRule(snapshot, logicTable).route(shardingValue);
+        TableRule pending = snapshot.pending.get(logicTable);
+        if (pending == null) {
+            return new ShardingTarget[]{target};
+        }
+        ShardingTarget next = pending.route(shardingValue);
+        return next.equals(target) ? new ShardingTarget[]{target} : new ShardingTarget[]{target, next};
+    }
+
+    public TableRule getTableRule(String logicTable) {
+        return tableRule(this.rules, logicTable);
+    }
+
+    /**
+     * @return 逻辑表的当前规则，不是分片表时返回 null
+     */
+    public TableRule findTableRule(String logicTable) {
+        return rules.current.get(logicTable);
+    }
+
+    private static TableRule tableRule(Rules rules, String logicTable) {
+        TableRule rule = rules.current.get(logicTable);
+        if (rule == null) {
+            throw new IllegalArgumentException("逻辑表 " + logicTable + " 没有配置分片规则");
+        }
+        return rule;
+    }
+
+    /**
+     * @return 迁移中的新规则，没有迁移时返回 null
+     */
+    public TableRule getPendingRule(String logicTable) {
+        return rules.pending.get(logicTable);
+    }
+
+    /**
+     * 开始迁移，之后的写入同时写新规则的目标
+     */
+    public synchronized void startMigration(TableRule rule) {
+        Rules snapshot = this.rules;
+        tableRule(snapshot, rule.getLogicTable());
+        if (snapshot.pending.containsKey(rule.getLogicTable())) {
+            throw new IllegalStateException("逻辑表 " + rule.getLogicTable() + " 已经在迁移中");
+        }
+        Map<String, TableRule> pending = new HashMap<>(snapshot.pending);
+        pending.put(rule.getLogicTable(), rule);
+        this.rules = new Rules(snapshot.current, pending);
+    }
+
+    /**
+     * 放弃迁移，停止双写
+     */
+    public synchronized void cancelMigration(String logicTable) {
+        Rules snapshot = this.rules;
+        Map<String, TableRule> pending = new HashMap<>(snapshot.pending);
+        pending.remove(logicTable);
+        this.rules = new Rules(snapshot.current, pending);
+    }
+
+    /**
+     * 用新规则替换当前规则，读写同时切换
+     */
+    public synchronized void completeMigration(String logicTable) {
+        Rules snapshot = this.rules;
+        TableRule rule = snapshot.pending.get(logicTable);
+        if (rule == null) {
+            throw new IllegalStateException("逻辑表 " + logicTable + " 没有在迁移");
+        }
+        Map<String, TableRule> current = new HashMap<>(snapshot.current);
+        current.put(logicTable, rule);
+        Map<String, TableRule> pending = new HashMap<>(snapshot.pending);
+        pending.remove(logicTable);
+        this.rules = new Rules(current, pending);
+    }
+
+    public Collection<TableRule> getTableRules() {
+        return Collections.unmodifiableCollection(rules.current.values());
+    }
+}
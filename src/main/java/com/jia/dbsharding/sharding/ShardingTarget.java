@@ -0,0 +1,47 @@
+package com.jia.dbsharding.sharding;
+
+import java.util.Objects;
+
+/**
+ * 路由结果：物理数据源 + 物理表
+ */
+public final class ShardingTarget {
+
+    private final String dataSource;
+    private final String table;
+
+    public ShardingTarget(String dataSource, String table) {
+        this.dataSource = dataSource;
+        this.table = table;
+    }
+
+    public String getDataSource() {
+        return dataSource;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ShardingTarget)) {
+            return false;
+        }
+        ShardingTarget that = (ShardingTarget) o;
+        return dataSource.equals(that.dataSource) && table.equals(that.table);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dataSource, table);
+    }
+
+    @Override
+    public String toString() {
+        return dataSource + "." + table;
+    }
+}
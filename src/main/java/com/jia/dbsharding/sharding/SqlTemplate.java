@@ -0,0 +1,409 @@
+package com.jia.dbsharding.sharding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * 一条 SQL 解析后的模板：逻辑表出现的位置，以及分片键条件对应第几个 ? 参数
+ * 每条 SQL 只解析一次，之后改写只是按片段拼接物理表名
+ * 支持的分片键条件：WHERE 中的 col = ?、col IN (?, ?, ...)（WHERE 中有 OR 时不识别），以及 INSERT 列表中的分片键列
+ */
+public final class SqlTemplate {
+
+    /**
+     * 不涉及分片表的 SQL 共用的模板
+     */
+    static final SqlTemplate NONE = new SqlTemplate(null, null, Collections.emptyList(), null, null, -1, -1);
+
+    private final String logicTable;
+    private final String shardingColumn;
+
+    /**
+     * SQL 按逻辑表的位置切开后的片段，片段之间插入物理表名
+     */
+    private final List<String> fragments;
+
+    /**
+     * 分片键对应的参数下标：= 条件只有一个，IN 条件每个元素一个，INSERT 每行一个；为 null 时没有分片键条件
+     */
+    private final int[] shardingParameters;
+
+    /**
+     * IN 条件的 SQL 在 IN 列表处再切开：inFragments[0] + (?, ...) + inFragments[1]，拆分到各个分片时使用
+     */
+    private final String[] inFragments;
+
+    /**
+     * IN 列表第一个 ? 和最后一个 ? 的参数下标
+     */
+    private final int inFirstParameter;
+    private final int inLastParameter;
+
+    private SqlTemplate(String logicTable, String shardingColumn, List<String> fragments, int[] shardingParameters,
+                        String[] inFragments, int inFirstParameter, int inLastParameter) {
+        this.logicTable = logicTable;
+        this.shardingColumn = shardingColumn;
+        this.fragments = fragments;
+        this.shardingParameters = shardingParameters;
+        this.inFragments = inFragments;
+        this.inFirstParameter = inFirstParameter;
+        this.inLastParameter = inLastParameter;
+    }
+
+    /**
+     * @return 涉及的逻辑表，不涉及分片表时返回 null
+     */
+    public String getLogicTable() {
+        return logicTable;
+    }
+
+    public String getShardingColumn() {
+        return shardingColumn;
+    }
+
+    /**
+     * @return 分片键条件对应的参数下标，没有分片键条件时返回 null
+     */
+    public int[] getShardingParameters() {
+        return shardingParameters;
+    }
+
+    /**
+     * 分片键条件是否是可以按分片拆分的 IN 列表
+     */
+    public boolean isSplittable() {
+        return inFragments != null;
+    }
+
+    /**
+     * 把逻辑表替换为物理表
+     */
+    public String render(String physicalTable) {
+        if (logicTable == null) {
+            throw new IllegalStateException("SQL 中没有分片表");
+        }
+        StringBuilder sql = new StringBuilder(fragments.get(0));
+        for (int i = 1; i < fragments.size(); i++) {
+            sql.append(physicalTable).append(fragments.get(i));
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 保留逻辑表，把 IN 列表换成 count 个 ?
+     * 只在 IN 列表拆分到多个分片时使用，逻辑表之后在 StatementHandler 中按分片改写
+     */
+    public String renderIn(int count) {
+        StringBuilder sql = new StringBuilder(inFragments[0]).append('(');
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').append(inFragments[1]).toString();
+    }
+
+    public int getInFirstParameter() {
+        return inFirstParameter;
+    }
+
+    public int getInLastParameter() {
+        return inLastParameter;
+    }
+
+    /**
+     * @param shardingColumns 逻辑表名（小写）到分片键的映射，不是分片表时返回 null
+     */
+    public static SqlTemplate parse(String sql, Function<String, String> shardingColumns) {
+        List<Token> tokens = tokenize(sql);
+        String logicTable = null;
+        List<Token> tableTokens = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (!token.isKeyword("FROM") && !token.isKeyword("JOIN") && !token.isKeyword("INTO") && !token.isKeyword("UPDATE")) {
+                continue;
+            }
+            int nameIndex = nextSignificant(tokens, i + 1);
+            if (nameIndex < 0 || tokens.get(nameIndex).type != Token.IDENTIFIER) {
+                continue;
+            }
+            // schema.table 整体替换
+            int end = nameIndex;
+            int dot = nextSignificant(tokens, nameIndex + 1);
+            if (dot > 0 && tokens.get(dot).is(".")) {
+                int name = nextSignificant(tokens, dot + 1);
+                if (name > 0 && tokens.get(name).type == Token.IDENTIFIER) {
+                    end = name;
+                }
+            }
+            String table = tokens.get(end).identifier();
+            if (shardingColumns.apply(table) == null) {
+                continue;
+            }
+            if (logicTable != null && !logicTable.equals(table)) {
+                throw new IllegalArgumentException("一条 SQL 中只能有一张分片表：" + sql);
+            }
+            logicTable = table;
+            tableTokens.add(new Token(Token.IDENTIFIER, tokens.get(nameIndex).start, tokens.get(end).end, sql));
+        }
+        if (logicTable == null) {
+            return NONE;
+        }
+
+        List<String> fragments = new ArrayList<>();
+        int position = 0;
+        for (Token token : tableTokens) {
+            fragments.add(sql.substring(position, token.start));
+            position = token.end;
+        }
+        fragments.add(sql.substring(position));
+
+        String shardingColumn = shardingColumns.apply(logicTable);
+        Condition condition = tokens.get(nextSignificant(tokens, 0)).isKeyword("INSERT")
+                ? insertCondition(tokens, shardingColumn) : whereCondition(tokens, shardingColumn);
+        if (condition == null) {
+            return new SqlTemplate(logicTable, shardingColumn, fragments, null, null, -1, -1);
+        }
+        String[] inFragments = null;
+        if (condition.inOpen != null) {
+            inFragments = new String[]{sql.substring(0, condition.inOpen.start), sql.substring(condition.inClose.end)};
+        }
+        int[] parameters = condition.parameters.stream().mapToInt(Integer::intValue).toArray();
+        return new SqlTemplate(logicTable, shardingColumn, fragments, parameters, inFragments,
+                parameters[0], parameters[parameters.length - 1]);
+    }
+
+    private static final class Condition {
+        private final List<Integer> parameters = new ArrayList<>();
+        private Token inOpen;
+        private Token inClose;
+    }
+
+    /**
+     * WHERE 中的 col = ? 或 col IN (?, ...)
+     */
+    private static Condition whereCondition(List<Token> tokens, String column) {
+        int where = -1;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).isKeyword("WHERE")) {
+                where = i;
+            } else if (where >= 0 && tokens.get(i).isKeyword("OR")) {
+                return null;
+            }
+        }
+        if (where < 0) {
+            return null;
+        }
+        for (int i = where + 1; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token.type != Token.IDENTIFIER || !column.equalsIgnoreCase(token.identifier())) {
+                continue;
+            }
+            // 跳过 t.id 形式的别名前缀以外的其它用法，例如 name = id
+            int previous = previousSignificant(tokens, i - 1);
+            if (previous >= 0 && (tokens.get(previous).is("=") || tokens.get(previous).is("<") || tokens.get(previous).is(">"))) {
+                continue;
+            }
+            int operator = nextSignificant(tokens, i + 1);
+            if (operator < 0) {
+                return null;
+            }
+            if (tokens.get(operator).is("=")) {
+                int value = nextSignificant(tokens, operator + 1);
+                if (value > 0 && tokens.get(value).is("?")) {
+                    Condition condition = new Condition();
+                    condition.parameters.add(parameterIndex(tokens, value));
+                    return condition;
+                }
+            } else if (tokens.get(operator).isKeyword("IN")) {
+                return inList(tokens, nextSignificant(tokens, operator + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ( ?, ?, ... )，列表中只能是单独的 ?
+     */
+    private static Condition inList(List<Token> tokens, int open) {
+        if (open < 0 || !tokens.get(open).is("(")) {
+            return null;
+        }
+        Condition condition = new Condition();
+        condition.inOpen = tokens.get(open);
+        int i = nextSignificant(tokens, open + 1);
+        while (i > 0) {
+            if (!tokens.get(i).is("?")) {
+                return null;
+            }
+            condition.parameters.add(parameterIndex(tokens, i));
+            int next = nextSignificant(tokens, i + 1);
+            if (next < 0) {
+                return null;
+            }
+            if (tokens.get(next).is(")")) {
+                condition.inClose = tokens.get(next);
+                return condition;
+            }
+            if (!tokens.get(next).is(",")) {
+                return null;
+            }
+            i = nextSignificant(tokens, next + 1);
+        }
+        return null;
+    }
+
+    /**
+     * INSERT INTO t (c1, c2, ...) VALUES (...), (...) 中每一行分片键列的参数
+     */
+    private static Condition insertCondition(List<Token> tokens, String column) {
+        int i = 0;
+        while (i < tokens.size() && !tokens.get(i).is("(")) {
+            i++;
+        }
+        int columnIndex = -1;
+        int count = 0;
+        for (i = i + 1; i < tokens.size() && !tokens.get(i).is(")"); i++) {
+            Token token = tokens.get(i);
+            if (token.is(",")) {
+                count++;
+            } else if (token.type == Token.IDENTIFIER && column.equalsIgnoreCase(token.identifier())) {
+                columnIndex = count;
+            }
+        }
+        if (columnIndex < 0) {
+            return null;
+        }
+        while (i < tokens.size() && !tokens.get(i).isKeyword("VALUES") && !tokens.get(i).isKeyword("VALUE")) {
+            i++;
+        }
+        Condition condition = new Condition();
+        int depth = 0;
+        int position = 0;
+        for (i = i + 1; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token.type == Token.WHITESPACE) {
+                continue;
+            }
+            if (token.is("(")) {
+                depth++;
+                if (depth == 1) {
+                    position = 0;
+                }
+            } else if (token.is(")")) {
+                depth--;
+            } else if (depth == 1 && token.is(",")) {
+                position++;
+            } else if (depth == 1 && position == columnIndex) {
+                if (!token.is("?")) {
+                    return null;
+                }
+                condition.parameters.add(parameterIndex(tokens, i));
+            } else if (depth == 0 && token.type == Token.IDENTIFIER) {
+                // ON DUPLICATE KEY UPDATE 等
+                break;
+            }
+        }
+        return condition.parameters.isEmpty() ? null : condition;
+    }
+
+    private static int parameterIndex(List<Token> tokens, int index) {
+        int count = 0;
+        for (int i = 0; i < index; i++) {
+            if (tokens.get(i).is("?")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int nextSignificant(List<Token> tokens, int from) {
+        for (int i = from; i < tokens.size(); i++) {
+            if (tokens.get(i).type != Token.WHITESPACE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int previousSignificant(List<Token> tokens, int from) {
+        for (int i = from; i >= 0; i--) {
+            if (tokens.get(i).type != Token.WHITESPACE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Token> tokenize(String sql) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                tokens.add(new Token(Token.WHITESPACE, start, i, sql));
+            } else if (c == '\'' || c == '"') {
+                i++;
+                while (i < length && sql.charAt(i) != c) {
+                    i += sql.charAt(i) == '\\' ? 2 : 1;
+                }
+                i = Math.min(i + 1, length);
+                tokens.add(new Token(Token.LITERAL, start, i, sql));
+            } else if (c == '`') {
+                i = sql.indexOf('`', i + 1);
+                i = i < 0 ? length : i + 1;
+                tokens.add(new Token(Token.IDENTIFIER, start, i, sql));
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+                    i++;
+                }
+                tokens.add(new Token(Token.IDENTIFIER, start, i, sql));
+            } else {
+                tokens.add(new Token(Token.SYMBOL, start, i + 1, sql));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Token {
+        private static final int WHITESPACE = 0;
+        private static final int IDENTIFIER = 1;
+        private static final int LITERAL = 2;
+        private static final int SYMBOL = 3;
+
+        private final int type;
+        private final int start;
+        private final int end;
+        private final String text;
+
+        private Token(int type, int start, int end, String sql) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.text = sql.substring(start, end);
+        }
+
+        private boolean is(String symbol) {
+            return text.equals(symbol);
+        }
+
+        private boolean isKeyword(String keyword) {
+            return type == IDENTIFIER && text.equalsIgnoreCase(keyword);
+        }
+
+        /**
+         * 去掉反引号并转成小写
+         */
+        private String identifier() {
+            String name = text.startsWith("`") ? text.substring(1, Math.max(1, text.length() - 1)) : text;
+            return name.toLowerCase(Locale.ROOT);
+        }
+    }
+}
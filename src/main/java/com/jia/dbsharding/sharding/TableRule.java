@@ -0,0 +1,58 @@
+package com.jia.dbsharding.sharding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一张逻辑表的分片规则
+ * 物理表按顺序平均分到各个数据源上，例如 16 张表、4 个库时，user_0 ~ user_3 在第一个库，user_4 ~ user_7 在第二个库
+ */
+public class TableRule {
+
+    private final String logicTable;
+    private final String shardingColumn;
+    private final ShardingAlgorithm algorithm;
+    private final ShardingTarget[] targets;
+
+    public TableRule(String logicTable, String shardingColumn, List<String> dataSources,
+                     int actualTables, ShardingAlgorithm algorithm) {
+        if (dataSources == null || dataSources.isEmpty()) {
+            throw new IllegalArgumentException("逻辑表 " + logicTable + " 没有配置数据源");
+        }
+        if (actualTables <= 0 || actualTables % dataSources.size() != 0) {
+            throw new IllegalArgumentException("逻辑表 " + logicTable + " 的物理表数量必须是数据源数量的整数倍");
+        }
+        this.logicTable = logicTable;
+        this.shardingColumn = shardingColumn;
+        this.algorithm = algorithm;
+
+        int tablesPerDataSource = actualTables / dataSources.size();
+        this.targets = new ShardingTarget[actualTables];
+        for (int i = 0; i < actualTables; i++) {
+            targets[i] = new ShardingTarget(dataSources.get(i / tablesPerDataSource), logicTable + "_" + i);
+        }
+    }
+
+    /**
+     * 根据分片键的值计算路由结果
+     */
+    public ShardingTarget route(long shardingValue) {
+        return targets[algorithm.doSharding(shardingValue, targets.length)];
+    }
+
+    public String getLogicTable() {
+        return logicTable;
+    }
+
+    public String getShardingColumn() {
+        return shardingColumn;
+    }
+
+    /**
+     * 所有的物理表
+     */
+    public List<ShardingTarget> getTargets() {
+        return Collections.unmodifiableList(Arrays.asList(targets));
+    }
+}
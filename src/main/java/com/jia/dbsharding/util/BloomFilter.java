@@ -0,0 +1,86 @@
+package com.jia.dbsharding.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * long 值的 Bloom 过滤器，可以并发读写
+ * mightContain 返回 false 时一定没有放入过，返回 true 时有 fpp 左右的概率是误判；不支持删除
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int hashes;
+
+    /**
+     * @param expectedInsertions 预计放入的个数，实际放入超过这个数时误判率上升
+     * @param fpp 期望的误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("Bloom 过滤器参数不合法：expectedInsertions=" + expectedInsertions + ", fpp=" + fpp);
+        }
+        // m = -n·ln(p) / (ln2)²，k = m/n·ln2
+        long bitCount = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray(Math.toIntExact((bitCount + 63) / 64));
+        this.numBits = bits.length() * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+    }
+
+    public void put(long value) {
+        long hash = mix(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long index = bitIndex(h1 + i * h2);
+            long mask = 1L << index;
+            int word = (int) (index >>> 6);
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    public boolean mightContain(long value) {
+        long hash = mix(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            long index = bitIndex(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long bitIndex(int combined) {
+        // 和 Guava 一样，负数取反，保证下标非负
+        return (combined < 0 ? ~combined : combined) % numBits;
+    }
+
+    /**
+     * SplitMix64 的最后一步，连续的 id 也能均匀分布
+     */
+    private static long mix(long value) {
+        long z = value + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 占用的内存，字节
+     */
+    public long sizeInBytes() {
+        return numBits / 8;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+}
@@ -0,0 +1,97 @@
+package com.jia.dbsharding.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 带虚拟节点的一致性哈希环，不可变，增删节点时返回新的环
+ * 每个节点在环上占 virtualNodes 个位置，key 落在顺时针方向的第一个位置对应的节点上；
+ * 增加或删除一个节点时只有它相邻区间上的 key 换节点，约占全部 key 的 1/N
+ */
+public final class ConsistentHashRing<N> {
+
+    private final Map<String, N> nodes;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final int virtualNodes;
+
+    /**
+     * 只有一个节点时不需要计算哈希
+     */
+    private final N single;
+
+    /**
+     * @param nodes 节点名到节点，节点名决定在环上的位置，同一个节点换了地址只要名字不变，key 的分布不变
+     */
+    public ConsistentHashRing(Map<String, N> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("一致性哈希环至少需要一个节点");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("虚拟节点数必须大于 0：" + virtualNodes);
+        }
+        this.nodes = Collections.unmodifiableMap(new LinkedHashMap<>(nodes));
+        this.virtualNodes = virtualNodes;
+        for (String name : nodes.keySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // 哈希冲突时保留先放入的节点，结果和节点的放入顺序有关，但冲突的概率可以忽略
+                ring.putIfAbsent(hash(name + "#" + i), name);
+            }
+        }
+        this.single = nodes.size() == 1 ? nodes.values().iterator().next() : null;
+    }
+
+    public N get(String key) {
+        if (single != null) {
+            return single;
+        }
+        return nodes.get(nodeName(key));
+    }
+
+    /**
+     * key 落在哪个节点上
+     */
+    public String nodeName(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return (entry == null ? ring.firstEntry() : entry).getValue();
+    }
+
+    public ConsistentHashRing<N> with(String name, N node) {
+        Map<String, N> added = new LinkedHashMap<>(nodes);
+        added.put(name, node);
+        return new ConsistentHashRing<>(added, virtualNodes);
+    }
+
+    public ConsistentHashRing<N> without(String name) {
+        Map<String, N> removed = new LinkedHashMap<>(nodes);
+        removed.remove(name);
+        return new ConsistentHashRing<>(removed, virtualNodes);
+    }
+
+    public Map<String, N> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * UTF-8 字节的 64 位 FNV-1a，再用 MurmurHash3 的 fmix64 打散，相近的 key 在环上也均匀分布
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,25 +1,102 @@
 package com.jia.dbsharding.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.stereotype.Component;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
-@Component
+/**
+ * redis 操作的封装
+ * 配置了多个 redis 节点时按 key 的一致性哈希选择节点，多 key 操作按节点分组，每个节点一次往返；
+ * 发布订阅和 id 计数器这类协调数据只使用 spring.redis 配置的默认节点，不随哈希环的节点增减迁移
+ */
 @SuppressWarnings("unchecked")
 public final class RedisTemplateUtil {
 
+    /**
+     * 值相等时才删除，用于释放自己持有的锁
+     */
+    private static final RedisScript<Long> DELETE_IF_EQUALS = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    /**
+     * 一次往返读取值和剩余过期时间
+     */
+    private static final RedisScript<List> GET_WITH_PTTL = new DefaultRedisScript<>(
+            "return {redis.call('get', KEYS[1]), redis.call('pttl', KEYS[1])}", List.class);
+
+    /**
+     * 默认节点，用于发布订阅和协调数据
+     */
     private final RedisTemplate<String, Object> redisTemplate;
 
-    @Autowired
+    private volatile ConsistentHashRing<RedisTemplate<String, Object>> ring;
+
+    /**
+     * 只使用一个 redis 节点
+     */
     public RedisTemplateUtil(RedisTemplate<String, Object> template){
+        this(template, Collections.singletonMap("default", template), 1);
+    }
+
+    /**
+     * @param template 默认节点，用于发布订阅
+     * @param nodes 节点名到节点，缓存数据按 key 分布在这些节点上
+     * @param virtualNodes 每个节点在哈希环上的虚拟节点数
+     */
+    public RedisTemplateUtil(RedisTemplate<String, Object> template, Map<String, RedisTemplate<String, Object>> nodes,
+                             int virtualNodes){
         this.redisTemplate = template;
+        this.ring = new ConsistentHashRing<>(nodes, virtualNodes);
+    }
+
+    private RedisTemplate<String, Object> template(String key){
+        return ring.get(key);
+    }
+
+    /**
+     * 按 key 所在的节点分组，保持 key 在每组内的相对顺序
+     * @return 节点到这个节点上的 key 在原列表中的下标
+     */
+    private Map<RedisTemplate<String, Object>, List<Integer>> groupByNode(List<String> keys){
+        ConsistentHashRing<RedisTemplate<String, Object>> current = ring;
+        Map<RedisTemplate<String, Object>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            groups.computeIfAbsent(current.get(keys.get(i)), node -> new ArrayList<>()).add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * 增加一个节点，约 1/N 的 key 换到新节点上，换走的 key 在新节点上未命中后重新加载
+     */
+    public synchronized void addNode(String name, RedisTemplate<String, Object> template){
+        ring = ring.with(name, template);
+    }
+
+    /**
+     * 删除一个节点，只有它上面的 key 分散到其它节点
+     */
+    public synchronized void removeNode(String name){
+        ring = ring.without(name);
+    }
+
+    public Map<String, RedisTemplate<String, Object>> getNodes(){
+        return ring.getNodes();
     }
 
     //===================== String ========================/
@@ -34,7 +111,7 @@ public final class RedisTemplateUtil {
     public boolean expire(String key, long time){
         try {
             if(time > 0){
-                redisTemplate.expire(key, time, TimeUnit.SECONDS);
+                template(key).expire(key, time, TimeUnit.SECONDS);
             }
             return true;
         }catch (Exception e){
@@ -50,7 +127,7 @@ public final class RedisTemplateUtil {
      * @return 时间， 0 代表永久有效
      */
     public Long getExpire(String key){
-        return redisTemplate.getExpire(key, TimeUnit.SECONDS);
+        return template(key).getExpire(key, TimeUnit.SECONDS);
     }
 
     /**
@@ -62,7 +139,7 @@ public final class RedisTemplateUtil {
     public Boolean hasKey(String key){
         try{
             if(!StringUtils.isEmpty(key)) {
-                return redisTemplate.hasKey(key);
+                return template(key).hasKey(key);
             }else{
                 return false;
             }
@@ -80,9 +157,16 @@ public final class RedisTemplateUtil {
     public void delete(String... key){
         if(key != null && key.length > 0){
             if(key.length == 1){
-                redisTemplate.delete(key[0]);
+                template(key[0]).delete(key[0]);
             }else{
-                redisTemplate.delete(CollectionUtils.arrayToList(key));
+                List<String> keys = Arrays.asList(key);
+                groupByNode(keys).forEach((node, indexes) -> {
+                    List<String> nodeKeys = new ArrayList<>(indexes.size());
+                    for (int index : indexes) {
+                        nodeKeys.add(keys.get(index));
+                    }
+                    node.delete(nodeKeys);
+                });
             }
         }
     }
@@ -94,7 +178,45 @@ public final class RedisTemplateUtil {
      * @return value
      */
     public Object get(String key){
-        return key == null ? null : redisTemplate.opsForValue().get(key);
+        return key == null ? null : template(key).opsForValue().get(key);
+    }
+
+    /**
+     * 获取值和剩余过期时间，一次往返
+     * GET key
+     * PTTL key
+     * @return [值, 剩余毫秒]，key 不存在时值为 null、剩余时间为 -2，没有设置过期时间时剩余时间为 -1
+     */
+    public List<Object> getWithExpire(String key){
+        return template(key).execute(GET_WITH_PTTL, Collections.singletonList(key));
+    }
+
+    /**
+     * 批量获取，一次往返
+     * MGET key1 key2...
+     * @param keys 键
+     * @return 和 keys 顺序一致的值，不存在的为 null
+     */
+    public List<Object> mGet(Collection<String> keys){
+        if(CollectionUtils.isEmpty(keys)){
+            return Collections.emptyList();
+        }
+        if(ring.size() == 1){
+            return template(keys.iterator().next()).opsForValue().multiGet(keys);
+        }
+        List<String> keyList = new ArrayList<>(keys);
+        Object[] values = new Object[keyList.size()];
+        groupByNode(keyList).forEach((node, indexes) -> {
+            List<String> nodeKeys = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                nodeKeys.add(keyList.get(index));
+            }
+            List<Object> nodeValues = node.opsForValue().multiGet(nodeKeys);
+            for (int i = 0; nodeValues != null && i < indexes.size(); i++) {
+                values[indexes.get(i)] = nodeValues.get(i);
+            }
+        });
+        return Arrays.asList(values);
     }
 
     /**
@@ -106,7 +228,57 @@ public final class RedisTemplateUtil {
      */
     public boolean set(String key, Object value){
         try{
-            redisTemplate.opsForValue().set(key, value);
+            template(key).opsForValue().set(key, value);
+            return true;
+        }catch (Exception e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 通过 pipeline 批量放入，一次往返
+     * SET key1 value1
+     * SET key2 value2...
+     * @param values 键值对
+     * @return true 成功， false 失败
+     */
+    public boolean pipelinedSet(Map<String, Object> values){
+        return pipelinedSet(values, key -> 0);
+    }
+
+    /**
+     * 通过 pipeline 批量放入并设置过期时间，一次往返
+     * SET key1 value1 PX millis1
+     * SET key2 value2 PX millis2...
+     * @param millis 每个 key 的过期时间，毫秒，不大于 0 时不过期
+     * @return true 成功， false 失败
+     */
+    public boolean pipelinedSet(Map<String, Object> values, ToLongFunction<String> millis){
+        if(CollectionUtils.isEmpty(values)){
+            return true;
+        }
+        try{
+            List<String> keys = new ArrayList<>(values.keySet());
+            for (Map.Entry<RedisTemplate<String, Object>, List<Integer>> group : groupByNode(keys).entrySet()) {
+                List<Integer> indexes = group.getValue();
+                group.getKey().executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    public <K, V> Object execute(RedisOperations<K, V> operations) {
+                        RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                        for (int index : indexes) {
+                            String key = keys.get(index);
+                            long ttl = millis.applyAsLong(key);
+                            if(ttl > 0){
+                                ops.opsForValue().set(key, values.get(key), ttl, TimeUnit.MILLISECONDS);
+                            }else{
+                                ops.opsForValue().set(key, values.get(key));
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
             return true;
         }catch (Exception e){
             e.printStackTrace();
@@ -126,7 +298,7 @@ public final class RedisTemplateUtil {
     public boolean set(String key, Object value, long time){
         try{
             if(!StringUtils.isEmpty(key) && time > 0){
-                redisTemplate.opsForValue().set(key, value, time);
+                template(key).opsForValue().set(key, value, time);
             }
             return true;
         }catch (Exception e){
@@ -135,6 +307,53 @@ public final class RedisTemplateUtil {
         }
     }
 
+    /**
+     * 放入并设置毫秒级的过期时间
+     * SET key value PX millis
+     * @param millis 不大于 0 时不过期
+     * @return true 成功， false 失败
+     */
+    public boolean setMillis(String key, Object value, long millis){
+        if(millis <= 0){
+            return set(key, value);
+        }
+        try{
+            template(key).opsForValue().set(key, value, millis, TimeUnit.MILLISECONDS);
+            return true;
+        }catch (Exception e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * key 不存在时放入并设置过期时间，可以用作分布式锁
+     * SET key value NX PX millis
+     * @return true 放入成功
+     */
+    public boolean setIfAbsent(String key, Object value, long millis){
+        try{
+            return Boolean.TRUE.equals(template(key).opsForValue().setIfAbsent(key, value, millis, TimeUnit.MILLISECONDS));
+        }catch (Exception e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 值等于 value 时删除 key
+     * @return true 删除成功
+     */
+    public boolean deleteIfEquals(String key, Object value){
+        try{
+            Long deleted = template(key).execute(DELETE_IF_EQUALS, Collections.singletonList(key), value);
+            return deleted != null && deleted > 0;
+        }catch (Exception e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     /**
      * 递增
      * INCRBY key delta
@@ -142,12 +361,47 @@ public final class RedisTemplateUtil {
      * @param delta 递增因子，即增加多少
      */
     public Long incrmentBy(String key, long delta){
+        if(delta < 0 ){
+            throw new RuntimeException("递增因子必须大于0");
+        }
+        return template(key).opsForValue().increment(key, delta);
+    }
+
+    /**
+     * 在默认节点上递增，用于 id 计数器等不能丢失的计数，哈希环的节点增减不会让它换到一个从 0 开始的节点
+     * @param key 键
+     * @param delta 递增因子，即增加多少
+     */
+    public Long incrementOnDefaultNode(String key, long delta){
         if(delta < 0 ){
             throw new RuntimeException("递增因子必须大于0");
         }
         return redisTemplate.opsForValue().increment(key, delta);
     }
 
+    /**
+     * 默认节点上的计数器追上哈希环各节点上同名计数器的最大值
+     * 以前的版本把计数器按哈希环分布，改为固定在默认节点后先调用一次，之后发出的值不会和以前重复
+     * @return 追赶后默认节点上的值
+     */
+    public long raiseDefaultCounterToNodes(String key){
+        long highest = 0;
+        for (RedisTemplate<String, Object> node : ring.getNodes().values()) {
+            if (node != redisTemplate && Boolean.TRUE.equals(node.hasKey(key))) {
+                Long value = node.opsForValue().increment(key, 0);
+                highest = Math.max(highest, value == null ? 0 : value);
+            }
+        }
+        Long current = redisTemplate.opsForValue().increment(key, 0);
+        long value = current == null ? 0 : current;
+        if (highest > value) {
+            // 只增不减，并发领取号段时也不会回退
+            Long raised = redisTemplate.opsForValue().increment(key, highest - value);
+            value = raised == null ? highest : raised;
+        }
+        return value;
+    }
+
     /**
      * 递减
      * DECRBY key delta
@@ -158,7 +412,21 @@ public final class RedisTemplateUtil {
         if(delta < 0){
             throw new RuntimeException("递减因子必须大于 0");
         }
-        return redisTemplate.opsForValue().decrement(key, delta);
+        return template(key).opsForValue().decrement(key, delta);
+    }
+
+    /**
+     * 发布消息
+     * PUBLISH channel message
+     * @param channel 频道
+     * @param message 消息，使用 value 的序列化方式
+     */
+    public void publish(String channel, Object message){
+        try{
+            redisTemplate.convertAndSend(channel, message);
+        }catch (Exception e){
+            e.printStackTrace();
+        }
     }
 
     //================== Hash ===============================/
@@ -168,7 +436,7 @@ public final class RedisTemplateUtil {
      * HGET key item
      */
     public Object hGet(String key, String item){
-        return redisTemplate.opsForHash().get(key, item);
+        return template(key).opsForHash().get(key, item);
     }
 
     /**
@@ -176,7 +444,7 @@ public final class RedisTemplateUtil {
      * HGETALL key
      */
     public Map<Object, Object> hGetAll(String key){
-        return redisTemplate.opsForHash().entries(key);
+        return template(key).opsForHash().entries(key);
     }
 
     /**
@@ -188,7 +456,7 @@ public final class RedisTemplateUtil {
      */
     public boolean hmSet(String key, Map<String, Object> map){
         try{
-            redisTemplate.opsForHash().putAll(key, map);
+            template(key).opsForHash().putAll(key, map);
             return true;
         }catch (Exception e){
             e.printStackTrace();
@@ -203,7 +471,7 @@ public final class RedisTemplateUtil {
      */
     public boolean hmSet(String key, Map<String, Object> map, long time){
         try{
-            redisTemplate.opsForHash().putAll(key, map);
+            template(key).opsForHash().putAll(key, map);
             if(time > 0){
                 expire(key, time);
             }
@@ -219,7 +487,7 @@ public final class RedisTemplateUtil {
      */
     public boolean hmSet(String key, String item, Object value){
         try{
-            redisTemplate.opsForHash().put(key, item, value);
+            template(key).opsForHash().put(key, item, value);
             return true;
         }catch (Exception e){
             e.printStackTrace();
@@ -233,7 +501,7 @@ public final class RedisTemplateUtil {
      */
     public boolean hmSet(String key, String item, Object value, long time){
         try{
-            redisTemplate.opsForHash().put(key, item, value);
+            template(key).opsForHash().put(key, item, value);
             if(time > 0){
                 expire(key, time);
             }
@@ -249,7 +517,7 @@ public final class RedisTemplateUtil {
      */
     public void hDelete(String key, Object... item){
         if(!StringUtils.isEmpty(key)){
-            redisTemplate.opsForHash().delete(key, item);
+            template(key).opsForHash().delete(key, item);
         }
     }
 
@@ -259,7 +527,7 @@ public final class RedisTemplateUtil {
      */
     public boolean hHasKey(String key, String item){
         if(!StringUtils.isEmpty(key)){
-            return redisTemplate.opsForHash().hasKey(key, item);
+            return template(key).opsForHash().hasKey(key, item);
         }
         return false;
     }
@@ -269,7 +537,7 @@ public final class RedisTemplateUtil {
      * HINCRBY key item delta
      */
     public double hIncrementBy(String key, String item, double delta){
-        return redisTemplate.opsForHash().increment(key, item, delta);
+        return template(key).opsForHash().increment(key, item, delta);
     }
 
     /**
@@ -277,7 +545,7 @@ public final class RedisTemplateUtil {
      * HINCRBY key item delta
      */
     public double hDecrementBy(String key, String item, double delta){
-        return redisTemplate.opsForHash().increment(key, item, -delta);
+        return template(key).opsForHash().increment(key, item, -delta);
     }
 
     //================================ Set =====================//
@@ -288,7 +556,7 @@ public final class RedisTemplateUtil {
      */
     public Set<Object> sMembers(String key){
         try{
-            return redisTemplate.opsForSet().members(key);
+            return template(key).opsForSet().members(key);
         }catch (Exception e){
             e.printStackTrace();
             return null;
@@ -301,7 +569,7 @@ public final class RedisTemplateUtil {
      */
     public boolean sIsMembers(String key, Object value){
         try{
-            redisTemplate.opsForSet().isMember(key, value);
+            template(key).opsForSet().isMember(key, value);
             return true;
         }catch (Exception e){
             e.printStackTrace();
@@ -315,7 +583,7 @@ public final class RedisTemplateUtil {
      */
     public Long sAdd(String key, Object... values){
         try{
-            return redisTemplate.opsForSet().add(key, values);
+            return template(key).opsForSet().add(key, values);
         }catch (Exception e){
             e.printStackTrace();
             return 0L;
@@ -328,7 +596,7 @@ public final class RedisTemplateUtil {
      */
     public Long sAdd(String key, long expireTime, Object... values){
         try{
-            Long count = redisTemplate.opsForSet().add(key, values);
+            Long count = template(key).opsForSet().add(key, values);
             if(expireTime > 0){
                 expire(key, expireTime);
             }
@@ -345,7 +613,7 @@ public final class RedisTemplateUtil {
      */
     public Long sSize(String key){
         try{
-            return redisTemplate.opsForSet().size(key);
+            return template(key).opsForSet().size(key);
         }catch (Exception e){
             e.printStackTrace();
             return 0L;
@@ -358,7 +626,7 @@ public final class RedisTemplateUtil {
      */
     public Long sRemove(String key, Object... values){
         try{
-            return redisTemplate.opsForSet().remove(key, values);
+            return template(key).opsForSet().remove(key, values);
         }catch (Exception e){
             e.printStackTrace();
             return 0L;
@@ -373,7 +641,7 @@ public final class RedisTemplateUtil {
      */
     public List<Object> lRange(String key, long start, long end){
         try{
-            return redisTemplate.opsForList().range(key, start, end);
+            return template(key).opsForList().range(key, start, end);
         }catch (Exception e){
             e.printStackTrace();
             return null;
@@ -386,7 +654,7 @@ public final class RedisTemplateUtil {
      */
     public Long lSize(String key){
         try{
-            return redisTemplate.opsForList().size(key);
+            return template(key).opsForList().size(key);
         }catch (Exception e){
             e.printStackTrace();
             return 0L;
@@ -399,7 +667,7 @@ public final class RedisTemplateUtil {
      */
     public Object lIndex(String key, long index){
         try{
-            return redisTemplate.opsForList().index(key, index);
+            return template(key).opsForList().index(key, index);
         }catch (Exception e){
             e.printStackTrace();
             return 0;
@@ -412,7 +680,7 @@ public final class RedisTemplateUtil {
      */
     public boolean lRPush(String key, Object value){
         try{
-            redisTemplate.opsForList().rightPush(key, value);
+            template(key).opsForList().rightPush(key, value);
             return true;
         }catch (Exception e){
             e.printStackTrace();
@@ -426,7 +694,7 @@ public final class RedisTemplateUtil {
      */
     public boolean lRPush(String key, Object value, long time){
         try{
-            redisTemplate.opsForList().rightPush(key, value);
+            template(key).opsForList().rightPush(key, value);
             if(time > 0){
                 expire(key, time);
             }
@@ -442,7 +710,7 @@ public final class RedisTemplateUtil {
      */
     public boolean lPush(String key, List<Object> values){
         try{
-            redisTemplate.opsForList().rightPushAll(key, values);
+            template(key).opsForList().rightPushAll(key, values);
             return true;
         }catch (Exception e){
             e.printStackTrace();
@@ -456,7 +724,7 @@ public final class RedisTemplateUtil {
      */
     public boolean lPush(String key, List<Object> values, long time){
         try{
-            redisTemplate.opsForList().rightPushAll(key, values);
+            template(key).opsForList().rightPushAll(key, values);
             if(time > 0){
                 expire(key, time);
             }
@@ -473,7 +741,7 @@ public final class RedisTemplateUtil {
      */
     public boolean lSetByIndex(String key, long index, Object value){
         try{
-            redisTemplate.opsForList().set(key, index, value);
+            template(key).opsForList().set(key, index, value);
             return true;
         }catch (Exception e){
             return false;
@@ -489,7 +757,7 @@ public final class RedisTemplateUtil {
      */
     public Long lRemove(String key, long count, Object value){
         try{
-            return redisTemplate.opsForList().remove(key, count, value);
+            return template(key).opsForList().remove(key, count, value);
         }catch (Exception e){
             e.printStackTrace();
             return 0L;
@@ -7,3 +7,32 @@ create table user(id int(11) primary key auto_increment, name char(20) not null)
 create database slave_db;
 use slave_db;
 create table user(id int(11) primary key auto_increment, name char(20) not null);
+
+# 分库分表：user 表拆成 user_0 ~ user_15，每个库 4 张表，id 由应用生成
+create database user_db_0;
+use user_db_0;
+create table user_0(id int(11) primary key, name char(20) not null);
+create table user_1(id int(11) primary key, name char(20) not null);
+create table user_2(id int(11) primary key, name char(20) not null);
+create table user_3(id int(11) primary key, name char(20) not null);
+
+create database user_db_1;
+use user_db_1;
+create table user_4(id int(11) primary key, name char(20) not null);
+create table user_5(id int(11) primary key, name char(20) not null);
+create table user_6(id int(11) primary key, name char(20) not null);
+create table user_7(id int(11) primary key, name char(20) not null);
+
+create database user_db_2;
+use user_db_2;
+create table user_8(id int(11) primary key, name char(20) not null);
+create table user_9(id int(11) primary key, name char(20) not null);
+create table user_10(id int(11) primary key, name char(20) not null);
+create table user_11(id int(11) primary key, name char(20) not null);
+
+create database user_db_3;
+use user_db_3;
+create table user_12(id int(11) primary key, name char(20) not null);
+create table user_13(id int(11) primary key, name char(20) not null);
+create table user_14(id int(11) primary key, name char(20) not null);
+create table user_15(id int(11) primary key, name char(20) not null);
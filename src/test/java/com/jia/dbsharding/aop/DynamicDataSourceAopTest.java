@@ -0,0 +1,88 @@
+package com.jia.dbsharding.aop;
+
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.RoutingDataSource;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class DynamicDataSourceAopTest {
+
+    interface Reader {
+        @RoutingDataSource(value = "ds0", readOnly = true)
+        String read();
+    }
+
+    @RoutingDataSource("ds1")
+    static class ShardService implements Reader {
+
+        Reader nested;
+
+        @Override
+        public String read() {
+            return DataSourceHolder.getDB() + ":" + DataSourceHolder.isReadOnly();
+        }
+
+        public String write() {
+            String inner = nested.read();
+            return inner + "," + DataSourceHolder.getDB() + ":" + DataSourceHolder.isReadOnly();
+        }
+    }
+
+    private static ShardService proxy(ShardService target) {
+        ProxyFactory factory = new ProxyFactory(target);
+        factory.setProxyTargetClass(true);
+        factory.addAdvisor(new DynamicDataSourceAop());
+        return (ShardService) factory.getProxy();
+    }
+
+    @Test
+    public void interfaceAnnotationWinsOverClassAnnotation() {
+        assertEquals("ds0:true", proxy(new ShardService()).read());
+        assertNull(DataSourceHolder.current());
+    }
+
+    @Test
+    public void nestedCallRestoresOuterRoute() {
+        ShardService outer = new ShardService();
+        outer.nested = proxy(new ShardService());
+
+        assertEquals("ds0:true,ds1:false", proxy(outer).write());
+        assertNull(DataSourceHolder.current());
+    }
+
+    @Test
+    public void usePrimaryOnlyAffectsCurrentCall() {
+        ShardService target = new ShardService() {
+            @Override
+            public String read() {
+                DataSourceHolder.usePrimary();
+                return super.read();
+            }
+        };
+        ShardService service = proxy(target);
+
+        assertEquals("ds0:false", service.read());
+        assertFalse(DataSourceHolder.isReadOnly());
+    }
+
+    @Test
+    public void routeIsRestoredWhenMethodThrows() {
+        ShardService target = new ShardService() {
+            @Override
+            public String read() {
+                throw new IllegalStateException();
+            }
+        };
+        try {
+            proxy(target).read();
+            fail();
+        } catch (IllegalStateException expected) {
+            assertNull(DataSourceHolder.current());
+        }
+    }
+}
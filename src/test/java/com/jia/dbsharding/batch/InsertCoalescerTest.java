@@ -0,0 +1,155 @@
+package com.jia.dbsharding.batch;
+
+import com.jia.dbsharding.sharding.ShardingTarget;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InsertCoalescerTest {
+
+    private final ShardingTarget target = new ShardingTarget("ds0", "user_0");
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private final List<String> rows = new CopyOnWriteArrayList<>();
+    private InsertCoalescer<String> coalescer;
+
+    @After
+    public void tearDown() {
+        if (coalescer != null) {
+            coalescer.close();
+        }
+    }
+
+    private InsertCoalescer<String> coalescer(int maxBatchSize, long maxDelayMillis, long timeoutMillis,
+                                              BiConsumer<ShardingTarget, List<String>> batchWriter) {
+        coalescer = new InsertCoalescer<>(maxBatchSize, maxDelayMillis, timeoutMillis, 1, batchWriter,
+                (target, row) -> {
+                    if (row.startsWith("bad")) {
+                        throw new IllegalStateException(row + " 主键冲突");
+                    }
+                    rows.add(row);
+                });
+        return coalescer;
+    }
+
+    private BiConsumer<ShardingTarget, List<String>> recording() {
+        return (target, values) -> batches.add(new ArrayList<>(values));
+    }
+
+    @Test
+    public void flushesWhenBatchIsFull() throws Exception {
+        coalescer(3, 60000, 1000, recording());
+        CompletableFuture<Void> a = coalescer.submit(target, "a");
+        CompletableFuture<Void> b = coalescer.submit(target, "b");
+        assertFalse(a.isDone());
+        // 攒满的调用方自己写入
+        CompletableFuture<Void> c = coalescer.submit(target, "c");
+        assertTrue(a.isDone() && b.isDone() && c.isDone());
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), batches);
+        assertEquals(1L, coalescer.stats().get("sizeTriggered"));
+    }
+
+    @Test
+    public void flushesAfterDelay() throws Exception {
+        coalescer(100, 20, 1000, recording());
+        CompletableFuture<Void> a = coalescer.submit(target, "a");
+        CompletableFuture<Void> b = coalescer.submit(target, "b");
+        a.get(1, TimeUnit.SECONDS);
+        b.get(1, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b")), batches);
+    }
+
+    @Test
+    public void fallsBackToRowByRowWithPerRowErrors() throws Exception {
+        coalescer(3, 60000, 1000, (target, values) -> {
+            throw new IllegalStateException("批量插入失败");
+        });
+        CompletableFuture<Void> a = coalescer.submit(target, "a");
+        CompletableFuture<Void> bad = coalescer.submit(target, "bad");
+        CompletableFuture<Void> c = coalescer.submit(target, "c");
+
+        a.get();
+        c.get();
+        try {
+            bad.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("bad 主键冲突", e.getCause().getMessage());
+        }
+        assertEquals(Arrays.asList("a", "c"), rows);
+        assertEquals(1L, coalescer.stats().get("batchFailures"));
+    }
+
+    @Test
+    public void withdrawsQueuedRowOnTimeout() {
+        coalescer(100, 60000, 50, recording());
+        try {
+            coalescer.insert(target, "a");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("没有写入"));
+        }
+        // 撤回的行在关闭时也不会写入
+        coalescer.close();
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void reportsUnknownOutcomeWhenRowIsAlreadyBeingWritten() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        coalescer(100, 1, 100, (target, values) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(new ArrayList<>(values));
+        });
+        try {
+            coalescer.insert(target, "a");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("结果未知"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void sizeTriggeredFlushCancelsTimerOfThatBatch() throws Exception {
+        coalescer(2, 400, 1000, recording());
+        coalescer.submit(target, "a");
+        coalescer.submit(target, "b");
+        Thread.sleep(200);
+        CompletableFuture<Void> c = coalescer.submit(target, "c");
+        // a 的定时刷新原本在 400 ms 触发，已经取消，c 要等到自己的 600 ms
+        Thread.sleep(300);
+        assertFalse(c.isDone());
+        c.get(1, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("c")), batches);
+    }
+
+    @Test
+    public void closeFlushesPendingRows() throws Exception {
+        coalescer(100, 60000, 1000, recording());
+        CompletableFuture<Void> a = coalescer.submit(target, "a");
+        CompletableFuture<Void> b = coalescer.submit(target, "b");
+        coalescer.close();
+        assertTrue(a.isDone() && b.isDone());
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b")), batches);
+    }
+}
@@ -0,0 +1,43 @@
+package com.jia.dbsharding.cache;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CachePolicyTest {
+
+    @Test
+    public void spreadsTtlWithinJitter() {
+        CachePolicy policy = new CachePolicy(10000, 0.1, 0.2);
+        Set<Long> ttls = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            long ttl = policy.nextTtlMillis();
+            assertTrue(ttl >= 10000 && ttl <= 11000);
+            ttls.add(ttl);
+        }
+        assertTrue(ttls.size() > 100);
+    }
+
+    @Test
+    public void refreshesNearExpiryOrWithoutTtl() {
+        CachePolicy policy = new CachePolicy(10000, 0.1, 0.2);
+        assertFalse(policy.shouldRefresh(5000));
+        assertTrue(policy.shouldRefresh(1999));
+        assertTrue(policy.shouldRefresh(-1));
+        // key 已经不存在
+        assertFalse(policy.shouldRefresh(-2));
+
+        assertFalse(CachePolicy.NONE.shouldRefresh(-1));
+        assertEquals(0, CachePolicy.NONE.nextTtlMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRefreshAheadOfWholeTtl() {
+        new CachePolicy(10000, 0.1, 1);
+    }
+}
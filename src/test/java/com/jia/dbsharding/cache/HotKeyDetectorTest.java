@@ -0,0 +1,80 @@
+package com.jia.dbsharding.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HotKeyDetectorTest {
+
+    private final List<String> demoted = new ArrayList<>();
+    private final HotKeyDetector detector = new HotKeyDetector(4, 1024, 4, 100, 2, 1, demoted::add);
+
+    @Test
+    public void promotesKeysOverThresholdAndKeepsTopK() {
+        for (int i = 0; i < 1000; i++) {
+            detector.record("user:" + i);
+        }
+        for (int i = 0; i < 150; i++) {
+            detector.record("user:celebrity");
+        }
+        assertFalse(detector.isHot("user:1"));
+        assertTrue(detector.isHot("user:celebrity"));
+
+        for (int i = 0; i < 120; i++) {
+            detector.record("user:a");
+        }
+        for (int i = 0; i < 130; i++) {
+            detector.record("user:b");
+        }
+        // 最多两个热点，估计值最小的 user:a 被挤出去
+        assertEquals(2, detector.hotKeys().size());
+        assertEquals("user:celebrity", detector.hotKeys().keySet().iterator().next());
+        assertTrue(demoted.contains("user:a"));
+    }
+
+    @Test
+    public void samplesHotKeysWithoutLosingThem() {
+        HotKeyDetector sampled = new HotKeyDetector(4, 1024, 4, 100, 2, 16, demoted::add);
+        for (int i = 0; i < 20000; i++) {
+            sampled.record("user:celebrity");
+        }
+        assertTrue(sampled.isHot("user:celebrity"));
+        // 抽样后每次加 16，估计值仍然接近实际访问次数
+        long estimate = sampled.estimate("user:celebrity");
+        assertTrue(String.valueOf(estimate), Math.abs(estimate - 20000) < 2500);
+        sampled.rotate();
+        assertTrue(sampled.isHot("user:celebrity"));
+    }
+
+    @Test
+    public void countsCallerSampledAccessesByWeight() {
+        for (int i = 0; i < 6; i++) {
+            assertFalse(detector.record("user:celebrity", 16));
+        }
+        assertTrue(detector.record("user:celebrity", 16));
+        assertEquals(112, detector.estimate("user:celebrity"));
+    }
+
+    @Test
+    public void demotesAfterWindowSlidesPast() {
+        for (int i = 0; i < 200; i++) {
+            detector.record("user:celebrity");
+        }
+        assertTrue(detector.isHot("user:celebrity"));
+        for (int i = 0; i < 3; i++) {
+            detector.rotate();
+            detector.record("user:celebrity");
+        }
+        // 第一个桶还在窗口内
+        assertTrue(detector.isHot("user:celebrity"));
+        detector.rotate();
+        assertFalse(detector.isHot("user:celebrity"));
+        assertEquals(3, detector.estimate("user:celebrity"));
+        assertTrue(demoted.contains("user:celebrity"));
+    }
+}
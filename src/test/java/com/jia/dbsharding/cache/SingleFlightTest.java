@@ -0,0 +1,93 @@
+package com.jia.dbsharding.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentMissesShareOneLoad() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(1000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> singleFlight.load("1", () -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return "user-1";
+                })));
+            }
+            while (singleFlight.inFlight() == 0) {
+                Thread.yield();
+            }
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("user-1", result.get(1, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    public void failureIsNotCached() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(1000);
+        try {
+            singleFlight.load("1", () -> {
+                throw new IllegalStateException("db down");
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("db down", expected.getMessage());
+        }
+        assertEquals("user-1", singleFlight.load("1", () -> "user-1"));
+    }
+
+    @Test
+    public void waitersGiveUpAfterTimeout() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(50);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread leader = new Thread(() -> singleFlight.load("1", () -> {
+            await(release);
+            return "user-1";
+        }));
+        leader.start();
+        try {
+            while (singleFlight.inFlight() == 0) {
+                Thread.yield();
+            }
+            singleFlight.load("1", () -> "never called");
+            fail();
+        } catch (IllegalStateException expected) {
+            // 超时
+        } finally {
+            release.countDown();
+            leader.join();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.jia.dbsharding.cache;
+
+import com.jia.dbsharding.util.RedisTemplateUtil;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TwoLevelCacheTest {
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> template = mock(RedisTemplate.class);
+    private final RedisTemplateUtil redis = new RedisTemplateUtil(template);
+
+    @Test
+    public void listenersSeeKeysBroadcastByOtherNodes() {
+        TwoLevelCache writer = new TwoLevelCache(redis, null, "cache:invalidation", 1000);
+        TwoLevelCache reader = new TwoLevelCache(redis, null, "cache:invalidation", 1000);
+        List<String> writerSeen = new ArrayList<>();
+        List<String> readerSeen = new ArrayList<>();
+        writer.addInvalidationListener(writerSeen::add);
+        reader.addInvalidationListener(readerSeen::add);
+
+        writer.broadcast("user:7");
+        ArgumentCaptor<Object> message = ArgumentCaptor.forClass(Object.class);
+        verify(template).convertAndSend(eq("cache:invalidation"), message.capture());
+        writer.onInvalidation((String) message.getValue());
+        reader.onInvalidation((String) message.getValue());
+
+        // 自己发出的通知不回调
+        assertEquals(Collections.emptyList(), writerSeen);
+        assertEquals(Collections.singletonList("user:7"), readerSeen);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void freshReadsSkipNegativeEntriesAndSharedLoads() throws Exception {
+        when(template.opsForValue()).thenReturn(mock(ValueOperations.class));
+        TwoLevelCache cache = new TwoLevelCache(redis, null, "cache:invalidation", 5000);
+        cache.enableNegativeCache(60000, 100);
+
+        // 从库还没有同步，读到空值并缓存；刚写过的调用方仍然读主库
+        assertNull(cache.get("user:1", () -> null));
+        assertEquals("primary", cache.getFresh("user:1", () -> "primary"));
+
+        // 其它线程正在从从库加载同一个 key，刚写过的调用方不等待也不复用它的结果
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> replica = executor.submit(() -> cache.get("user:2", () -> {
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "replica";
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<Object> fresh = executor.submit(() -> cache.getFresh("user:2", () -> "primary"));
+            assertEquals("primary", fresh.get(1, TimeUnit.SECONDS));
+            release.countDown();
+            assertEquals("replica", replica.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+
+        // 主库也没有时不记录空值，之后的读取照常加载
+        assertNull(cache.getFresh("user:3", () -> null));
+        assertEquals("loaded", cache.get("user:3", () -> "loaded"));
+        cache.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void nearCacheStillReportsHotKeysWithoutReplica() {
+        TwoLevelCache cache = new TwoLevelCache(redis, TwoLevelCache.newNearCache(100, 60000), "cache:invalidation", 1000);
+        cache.enableHotKeys(10000, 10, 100, 10, 1000);
+        cache.put("user:1", "celebrity");
+        cache.put("user:2", "nobody");
+        // 近端缓存命中时按 1/16 采样计数
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("celebrity", cache.get("user:1"));
+        }
+        assertEquals("nobody", cache.get("user:2"));
+
+        assertEquals(Collections.singleton("user:1"), cache.hotKeys().keySet());
+        Map<String, Object> hot = (Map<String, Object>) cache.stats().get("hot");
+        assertEquals(1, hot.get("keys"));
+        assertFalse(hot.containsKey("replicaSize"));
+        cache.close();
+    }
+}
@@ -0,0 +1,62 @@
+package com.jia.dbsharding.codec;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jia.dbsharding.entity.DBEntity;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactRedisSerializerTest {
+
+    private final Jackson2JsonRedisSerializer<Object> json = jsonSerializer();
+    private final CompactRedisSerializer serializer =
+            new CompactRedisSerializer(Collections.singletonList(new DBEntityCodec()), json);
+
+    private static Jackson2JsonRedisSerializer<Object> jsonSerializer() {
+        Jackson2JsonRedisSerializer<Object> serializer = new Jackson2JsonRedisSerializer<>(Object.class);
+        ObjectMapper om = new ObjectMapper();
+        om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        om.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+        serializer.setObjectMapper(om);
+        return serializer;
+    }
+
+    private static DBEntity entity(Integer id, String name) {
+        DBEntity entity = new DBEntity();
+        entity.setId(id);
+        entity.setName(name);
+        return entity;
+    }
+
+    @Test
+    public void roundTripsEntities() {
+        DBEntity entity = entity(123456, "张三");
+        assertEquals(entity, serializer.deserialize(serializer.serialize(entity)));
+
+        DBEntity empty = entity(-1, null);
+        assertEquals(empty, serializer.deserialize(serializer.serialize(empty)));
+    }
+
+    @Test
+    public void binaryIsMuchSmallerThanTypedJson() {
+        DBEntity entity = entity(123456, "jia");
+        int binary = serializer.serialize(entity).length;
+        int typedJson = json.serialize(entity).length;
+        assertTrue(binary + " vs " + typedJson, binary * 5 < typedJson);
+    }
+
+    @Test
+    public void readsValuesWrittenAsJson() {
+        DBEntity entity = entity(7, "old");
+        assertEquals(entity, serializer.deserialize(json.serialize(entity)));
+        assertEquals("message", serializer.deserialize(serializer.serialize("message")));
+        assertNull(serializer.deserialize(null));
+    }
+}
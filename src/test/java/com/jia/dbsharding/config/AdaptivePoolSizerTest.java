@@ -0,0 +1,83 @@
+package com.jia.dbsharding.config;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptivePoolSizerTest {
+
+    private final ShardingProperties.PoolSizingProperty property = new ShardingProperties.PoolSizingProperty();
+
+    @Test
+    public void growsHotPoolAndShrinksColdPoolByOneStep() {
+        Map<String, AdaptivePoolSizer.Sample> samples = new LinkedHashMap<>();
+        // 平均 10 个连接在用，获取连接等待 20ms
+        samples.put("ds0", new AdaptivePoolSizer.Sample(10, 20, 8, 8));
+        // 几乎没有负载
+        samples.put("ds1", new AdaptivePoolSizer.Sample(0.1, 0, 0, 20));
+
+        Map<String, AdaptivePoolSizer.Size> sizes = AdaptivePoolSizer.plan(samples, property, 100);
+
+        assertEquals(15, sizes.get("ds0").maxActive);
+        assertEquals(10, sizes.get("ds0").minIdle);
+        assertEquals(16, sizes.get("ds1").maxActive);
+        assertEquals(1, sizes.get("ds1").minIdle);
+    }
+
+    @Test
+    public void scalesDownToBudget() {
+        Map<String, AdaptivePoolSizer.Sample> samples = new LinkedHashMap<>();
+        samples.put("ds0", new AdaptivePoolSizer.Sample(30, 50, 20, 20));
+        samples.put("ds1", new AdaptivePoolSizer.Sample(10, 0, 5, 15));
+        samples.put("ds2", new AdaptivePoolSizer.Sample(0, 0, 0, 2));
+
+        Map<String, AdaptivePoolSizer.Size> sizes = AdaptivePoolSizer.plan(samples, property, 40);
+
+        int total = 0;
+        for (AdaptivePoolSizer.Size size : sizes.values()) {
+            assertTrue(size.minIdle <= size.maxActive);
+            assertTrue(size.maxActive >= property.getMinActive());
+            total += size.maxActive;
+        }
+        assertTrue(total <= 40);
+        assertTrue(sizes.get("ds0").maxActive > sizes.get("ds1").maxActive);
+    }
+
+    @Test
+    public void reservesMinActiveBeforeSplittingBudget() {
+        Map<String, AdaptivePoolSizer.Sample> samples = new LinkedHashMap<>();
+        samples.put("ds0", new AdaptivePoolSizer.Sample(60, 50, 60, 60));
+        for (int i = 1; i <= 3; i++) {
+            samples.put("ds" + i, new AdaptivePoolSizer.Sample(0, 0, 0, 2));
+        }
+
+        Map<String, AdaptivePoolSizer.Size> sizes = AdaptivePoolSizer.plan(samples, property, 20);
+
+        // 按比例缩放后再抬到 minActive 会超出预算：先给空闲的连接池各留 2 个，繁忙的连接池分到剩下的 14 个
+        assertEquals(14, sizes.get("ds0").maxActive);
+        for (int i = 1; i <= 3; i++) {
+            assertEquals(property.getMinActive(), sizes.get("ds" + i).maxActive);
+        }
+        int total = 0;
+        for (AdaptivePoolSizer.Size size : sizes.values()) {
+            total += size.maxActive;
+        }
+        assertEquals(20, total);
+    }
+
+    @Test
+    public void keepsMinActiveWhenBudgetCannotCoverIt() {
+        Map<String, AdaptivePoolSizer.Sample> samples = new LinkedHashMap<>();
+        samples.put("ds0", new AdaptivePoolSizer.Sample(30, 50, 20, 20));
+        samples.put("ds1", new AdaptivePoolSizer.Sample(10, 0, 5, 15));
+
+        Map<String, AdaptivePoolSizer.Size> sizes = AdaptivePoolSizer.plan(samples, property, 3);
+
+        assertEquals(property.getMinActive(), sizes.get("ds0").maxActive);
+        assertEquals(property.getMinActive(), sizes.get("ds1").maxActive);
+    }
+}
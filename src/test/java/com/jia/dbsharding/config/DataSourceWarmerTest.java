@@ -0,0 +1,66 @@
+package com.jia.dbsharding.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DataSourceWarmerTest {
+
+    private final DruidDataSource up = pool("jdbc:fake:up");
+    private final DruidDataSource down = pool("jdbc:fake:down");
+
+    private static DruidDataSource pool(String url) {
+        DruidDataSource pool = new DruidDataSource();
+        pool.setUrl(url);
+        pool.setDriverClassName(TopologyReloaderTest.FakeDriver.class.getName());
+        pool.setMinIdle(3);
+        pool.setMaxWait(200);
+        return pool;
+    }
+
+    @After
+    public void tearDown() {
+        up.close();
+        down.close();
+    }
+
+    private DataSourceWarmer warmer(boolean failOnError) {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put("ds0", up);
+        targets.put("ds1", down);
+        DynamicDataSource dynamicDataSource = new DynamicDataSource(new ReadWriteRouter(Collections.emptyList()));
+        dynamicDataSource.setTargetDataSources(targets);
+        ShardingProperties.StartupProperty property = new ShardingProperties.StartupProperty();
+        property.setWarmUp(true);
+        property.setValidationQuery("");
+        property.setFailOnError(failOnError);
+        return new DataSourceWarmer(dynamicDataSource, property);
+    }
+
+    @Test
+    public void warmsUpAllPoolsAndRecordsFailures() {
+        DataSourceWarmer warmer = warmer(false);
+        warmer.afterSingletonsInstantiated();
+
+        assertTrue(up.isInited());
+        assertEquals(3, up.getPoolingCount());
+        Map<?, ?> results = (Map<?, ?>) warmer.stats().get("dataSources");
+        assertTrue(results.get("ds0").toString().startsWith("OK"));
+        assertFalse(results.get("ds1").toString().startsWith("OK"));
+        assertTrue((Long) warmer.stats().get("warmUpMillis") >= 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsStartupWhenConfigured() {
+        warmer(true).afterSingletonsInstantiated();
+    }
+}
@@ -0,0 +1,91 @@
+package com.jia.dbsharding.config;
+
+import com.jia.dbsharding.readwrite.DataSourceHealthChecker;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.readwrite.Replica;
+import com.jia.dbsharding.readwrite.ReplicaGroup;
+import com.jia.dbsharding.readwrite.RoundRobinLoadBalancer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DynamicDataSourceTest {
+
+    private final DataSource master = mock(DataSource.class);
+    private final DataSource slave = mock(DataSource.class);
+    private final Connection masterConnection = mock(Connection.class);
+    private ReplicaGroup group;
+    private DataSourceHealthChecker checker;
+    private DynamicDataSource dataSource;
+
+    @Before
+    public void setUp() throws SQLException {
+        when(master.getConnection()).thenReturn(masterConnection);
+        when(slave.getConnection()).thenThrow(new SQLException("connect timed out"));
+
+        group = new ReplicaGroup("masterDB", Collections.singletonList(new Replica("slaveDB", 1)), new RoundRobinLoadBalancer());
+        ReadWriteRouter router = new ReadWriteRouter(Collections.singletonList(group));
+        dataSource = new DynamicDataSource(router);
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put("masterDB", master);
+        targets.put("slaveDB", slave);
+        dataSource.setTargetDataSources(targets);
+        dataSource.setDefaultTargetDataSource(master);
+        dataSource.afterPropertiesSet();
+
+        ShardingProperties.HealthProperty health = new ShardingProperties.HealthProperty();
+        health.setFailureThreshold(2);
+        health.setOpenMillis(60000);
+        checker = new DataSourceHealthChecker(router, Arrays.asList("masterDB", "slaveDB"), dataSource::getDataSource, health);
+        dataSource.setHealthChecker(checker, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        DataSourceHolder.pop();
+        checker.close();
+    }
+
+    @Test
+    public void readFallsBackToMasterAndEjectsFailingReplica() throws SQLException {
+        DataSourceHolder.push(Route.of("masterDB", true));
+        for (int i = 0; i < 5; i++) {
+            assertSame(masterConnection, dataSource.getConnection());
+        }
+        // 两次失败后熔断，之后不再访问从库
+        verify(slave, times(2)).getConnection();
+        assertEquals(0, group.getAvailable().size());
+        assertEquals("OPEN", checker.states().get("slaveDB"));
+    }
+
+    @Test
+    public void openBreakerFailsFast() throws SQLException {
+        when(master.getConnection()).thenThrow(new SQLException("connect timed out"));
+        DataSourceHolder.push(Route.of("masterDB", false));
+        for (int i = 0; i < 4; i++) {
+            try {
+                dataSource.getConnection();
+                fail();
+            } catch (SQLException expected) {
+                // ignore
+            }
+        }
+        verify(master, times(2)).getConnection();
+    }
+}
@@ -0,0 +1,227 @@
+package com.jia.dbsharding.config;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.jia.dbsharding.readwrite.DataSourceHealthChecker;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.sharding.ModShardingAlgorithm;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.TableRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TopologyReloaderTest {
+
+    /**
+     * jdbc:fake:up 返回什么都不做的连接，其它地址连接失败
+     */
+    public static class FakeDriver implements Driver {
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!"jdbc:fake:up".equals(url)) {
+                throw new SQLException("connection refused");
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return url;
+                            default:
+                                Class<?> type = method.getReturnType();
+                                return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+                        }
+                    });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:fake:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+
+    private final ShardingProperties properties = new ShardingProperties();
+    private final DruidDataSource master = DataSourceRegistry.create(dataSource("jdbc:fake:up"));
+    private DataSourceRegistry registry;
+    private DynamicDataSource dynamicDataSource;
+    private DataSourceHealthChecker checker;
+    private TopologyReloader reloader;
+
+    private static ShardingProperties.DataSourceProperty dataSource(String url) {
+        ShardingProperties.DataSourceProperty property = new ShardingProperties.DataSourceProperty();
+        property.setUrl(url);
+        property.setDriverClassName(FakeDriver.class.getName());
+        property.setMinIdle(2);
+        property.setMaxWait(200);
+        return property;
+    }
+
+    @Before
+    public void setUp() {
+        properties.getDataSources().put("ds0", dataSource("jdbc:fake:up"));
+        properties.getTopology().setDrainTimeoutMillis(200);
+        properties.getTopology().setDrainGraceMillis(200);
+        // 假连接不能执行 SQL，预热只建立连接
+        properties.getStartup().setValidationQuery("");
+        registry = new DataSourceRegistry(properties);
+        ReadWriteRouter router = new ReadWriteRouter(Collections.emptyList());
+        Map<String, DataSource> fixed = Collections.singletonMap("masterDB", master);
+        Map<String, DataSource> all = new LinkedHashMap<>(fixed);
+        all.putAll(registry.getDataSources());
+
+        dynamicDataSource = new DynamicDataSource(router);
+        dynamicDataSource.setTargetDataSources(TopologyReloader.targets(all, router.getGroups()));
+        dynamicDataSource.afterPropertiesSet();
+        checker = new DataSourceHealthChecker(router, dynamicDataSource.getDataSourceNames(),
+                dynamicDataSource::getDataSource, new ShardingProperties.HealthProperty());
+        ShardingRule rule = new ShardingRule(Collections.singletonList(
+                new TableRule("user", "id", Collections.singletonList("ds0"), 2, new ModShardingAlgorithm())));
+        reloader = new TopologyReloader(registry, fixed, dynamicDataSource, router, checker, rule, properties);
+    }
+
+    @After
+    public void tearDown() {
+        reloader.close();
+        checker.close();
+        registry.close();
+        master.close();
+    }
+
+    @Test
+    public void addsWarmedDataSourceAndDrainsRemovedOne() throws Exception {
+        Map<String, ShardingProperties.DataSourceProperty> dataSources = new LinkedHashMap<>(properties.getDataSources());
+        dataSources.put("ds1", dataSource("jdbc:fake:up"));
+        reloader.reload(dataSources, Collections.emptyMap());
+
+        DruidDataSource added = registry.getDataSource("ds1");
+        assertTrue(added.isInited());
+        assertEquals(2, added.getPoolingCount());
+        assertNotNull(dynamicDataSource.getDataSource("ds1"));
+        assertEquals("CLOSED", checker.states().get("ds1"));
+
+        // 删除时有一个连接借出未归还，超时后关闭
+        Connection borrowed = added.getConnection();
+        dataSources.remove("ds1");
+        reloader.reload(dataSources, Collections.emptyMap());
+        assertNull(dynamicDataSource.getDataSource("ds1"));
+        assertNull(checker.states().get("ds1"));
+        assertFalse(added.isClosed());
+        borrowed.close();
+        for (int i = 0; i < 50 && !added.isClosed(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(added.isClosed());
+    }
+
+    @Test
+    public void keepsIdleRemovedPoolOpenDuringGracePeriod() throws Exception {
+        Map<String, ShardingProperties.DataSourceProperty> dataSources = new LinkedHashMap<>(properties.getDataSources());
+        dataSources.put("ds1", dataSource("jdbc:fake:up"));
+        reloader.reload(dataSources, Collections.emptyMap());
+        DruidDataSource added = registry.getDataSource("ds1");
+
+        dataSources.remove("ds1");
+        reloader.reload(dataSources, Collections.emptyMap());
+        // 没有借出的连接，也要等过宽限期才关闭，切换前选中 ds1 的请求还能拿到连接
+        Thread.sleep(50);
+        assertFalse(added.isClosed());
+        added.getConnection().close();
+        for (int i = 0; i < 50 && !added.isClosed(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(added.isClosed());
+    }
+
+    @Test
+    public void failedWarmUpLeavesTopologyUnchanged() {
+        DataSource before = dynamicDataSource.getDataSource("ds0");
+        Map<String, ShardingProperties.DataSourceProperty> dataSources = new LinkedHashMap<>();
+        dataSources.put("ds0", dataSource("jdbc:fake:down"));
+        try {
+            reloader.reload(dataSources, Collections.emptyMap());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertSame(before, dynamicDataSource.getDataSource("ds0"));
+        assertEquals("jdbc:fake:up", registry.getProperties().get("ds0").getUrl());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToRemoveDataSourceStillUsedByTables() {
+        reloader.reload(Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    @Test
+    public void readsTopologyFileInApplicationYmlFormat() throws Exception {
+        File file = File.createTempFile("topology", ".yml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList(
+                "sharding:",
+                "  data-sources:",
+                "    ds1:",
+                "      url: jdbc:fake:up",
+                "      min-idle: 4",
+                "  read-write:",
+                "    groups:",
+                "      ds0:",
+                "        replicas:",
+                "          ds1: 2"), StandardCharsets.UTF_8);
+
+        ShardingProperties loaded = TopologyReloader.load(file);
+        assertEquals(4, loaded.getDataSources().get("ds1").getMinIdle());
+        assertEquals(Integer.valueOf(2), loaded.getReadWrite().getGroups().get("ds0").getReplicas().get("ds1"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.jia.dbsharding.id;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentIdGeneratorTest {
+
+    @Test
+    public void idsAreIncreasingWithinOneThread() {
+        AtomicLong counter = new AtomicLong();
+        SegmentIdGenerator generator = new SegmentIdGenerator("test", 10, counter::addAndGet);
+        try {
+            long previous = 0;
+            for (int i = 0; i < 100; i++) {
+                long id = generator.nextId();
+                assertTrue(id > previous);
+                previous = id;
+            }
+            assertEquals(100, previous);
+        } finally {
+            generator.close();
+        }
+    }
+
+    @Test
+    public void concurrentCallersNeverReceiveDuplicates() throws InterruptedException {
+        AtomicLong counter = new AtomicLong();
+        AtomicInteger allocations = new AtomicInteger();
+        SegmentIdGenerator generator = new SegmentIdGenerator("test", 100, step -> {
+            allocations.incrementAndGet();
+            return counter.addAndGet(step);
+        });
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    ids.add(generator.nextId());
+                }
+            }));
+        }
+        try {
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            generator.close();
+        }
+
+        assertEquals(80000, ids.size());
+        // 每个号段只领取一次，最多多预取一个
+        assertTrue(allocations.get() <= 801);
+    }
+}
@@ -0,0 +1,49 @@
+package com.jia.dbsharding.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InstrumentedDataSourceTest {
+
+    @Test
+    public void recordsAcquireAndQueryTime() throws Exception {
+        DataSource target = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(target.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.execute()).thenReturn(true);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        InstrumentedDataSource dataSource = new InstrumentedDataSource(target, "ds0");
+        dataSource.bindTo(registry);
+
+        try (Connection c = dataSource.getConnection(); PreparedStatement ps = c.prepareStatement("SELECT 1")) {
+            Assert.assertTrue(ps.execute());
+            ps.getUpdateCount();
+        }
+
+        Assert.assertEquals(1, registry.get("db.connection.acquire").tag("datasource", "ds0").timer().count());
+        Assert.assertEquals(1, registry.get("db.query").tag("datasource", "ds0").timer().count());
+        Assert.assertEquals(1, dataSource.getAcquireCount());
+        Assert.assertTrue(dataSource.getHoldNanos() > 0);
+    }
+
+    @Test
+    public void passesThroughBeforeBinding() throws Exception {
+        DataSource target = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(target.getConnection()).thenReturn(connection);
+
+        Assert.assertSame(connection, new InstrumentedDataSource(target, "ds0").getConnection());
+    }
+}
@@ -0,0 +1,63 @@
+package com.jia.dbsharding.readwrite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = new CircuitBreaker("ds0", 2, 60000, b -> {
+    });
+
+    private void halfOpen() {
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        breaker.halfOpen();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenAdmitsSingleTrialUntilItSucceeds() {
+        halfOpen();
+        assertTrue(breaker.allowRequest());
+        // 试探还没有结果，其它请求继续拒绝
+        for (int i = 0; i < 10; i++) {
+            assertFalse(breaker.allowRequest());
+        }
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialReopens() {
+        halfOpen();
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        // 下一个半开窗口重新放行一个试探
+        breaker.halfOpen();
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void staleTrialIsReplacedAfterOpenMillis() throws InterruptedException {
+        CircuitBreaker fast = new CircuitBreaker("ds0", 1, 50, b -> {
+        });
+        fast.onFailure();
+        fast.halfOpen();
+        assertTrue(fast.allowRequest());
+        assertFalse(fast.allowRequest());
+        Thread.sleep(80);
+        // 试探一直没有上报结果，过了熔断时间再放行一个
+        assertTrue(fast.allowRequest());
+        assertFalse(fast.allowRequest());
+    }
+}
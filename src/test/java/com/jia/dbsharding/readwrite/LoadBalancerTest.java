@@ -0,0 +1,116 @@
+package com.jia.dbsharding.readwrite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LoadBalancerTest {
+
+    private final Replica a = new Replica("a", 1);
+    private final Replica b = new Replica("b", 1);
+    private final Replica c = new Replica("c", 3);
+    private final List<Replica> replicas = Arrays.asList(a, b, c);
+
+    private Map<Replica, Integer> count(LoadBalancer balancer, List<Replica> replicas, int times) {
+        Map<Replica, Integer> counts = new HashMap<>();
+        for (int i = 0; i < times; i++) {
+            counts.merge(balancer.choose(replicas), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static void serve(Replica replica, long millis) {
+        replica.begin();
+        replica.end(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void roundRobinCyclesInOrder() {
+        LoadBalancer balancer = new RoundRobinLoadBalancer();
+        for (int i = 0; i < 6; i++) {
+            assertSame(replicas.get(i % 3), balancer.choose(replicas));
+        }
+    }
+
+    @Test
+    public void weightedFollowsWeights() {
+        Map<Replica, Integer> counts = count(new WeightedLoadBalancer(), replicas, 50000);
+        // 权重 1:1:3
+        assertEquals(0.6, counts.get(c) / 50000.0, 0.02);
+        assertEquals(0.2, counts.get(a) / 50000.0, 0.02);
+        assertEquals(0.2, counts.get(b) / 50000.0, 0.02);
+    }
+
+    @Test
+    public void leastActivePicksIdlestAndSpreadsTies() {
+        a.begin();
+        a.begin();
+        b.begin();
+        LoadBalancer balancer = new LeastActiveLoadBalancer();
+        assertSame(c, balancer.choose(replicas));
+
+        c.begin();
+        Map<Replica, Integer> counts = count(balancer, replicas, 1000);
+        assertEquals(2, counts.size());
+        assertTrue(counts.get(b) > 300 && counts.get(c) > 300);
+    }
+
+    @Test
+    public void ewmaPrefersFastReplicaUnlessItIsBusy() {
+        serve(a, 1);
+        serve(b, 100);
+        LoadBalancer balancer = new EwmaLoadBalancer();
+        List<Replica> pair = Arrays.asList(a, b);
+        assertEquals(Integer.valueOf(100), count(balancer, pair, 100).get(a));
+
+        // 延迟 * (活跃连接数 + 1)，快的从库积压太多时改选慢的
+        for (int i = 0; i < 200; i++) {
+            a.begin();
+        }
+        assertEquals(Integer.valueOf(100), count(balancer, pair, 100).get(b));
+    }
+
+    @Test
+    public void ewmaNeverPicksTheSlowestOfThree() {
+        serve(a, 1);
+        serve(b, 10);
+        serve(c, 100);
+        Map<Replica, Integer> counts = count(new EwmaLoadBalancer(), replicas, 3000);
+        // 随机挑两个比较，最慢的一个永远比不过另一个，其余两个都有机会
+        assertEquals(null, counts.get(c));
+        assertTrue(counts.get(b) > 500);
+        assertTrue(counts.get(a) > counts.get(b));
+    }
+
+    @Test
+    public void ewmaDecaysTowardsRecentSamples() {
+        serve(a, 100);
+        for (int i = 0; i < 30; i++) {
+            serve(a, 1);
+        }
+        assertTrue(a.getEwmaNanos() < TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(0, a.getActive());
+    }
+
+    @Test
+    public void createsBuiltInAndCustomBalancers() {
+        assertTrue(LoadBalancers.create("round-robin") instanceof RoundRobinLoadBalancer);
+        assertTrue(LoadBalancers.create("weighted") instanceof WeightedLoadBalancer);
+        assertTrue(LoadBalancers.create("least-active") instanceof LeastActiveLoadBalancer);
+        assertTrue(LoadBalancers.create("ewma") instanceof EwmaLoadBalancer);
+        assertTrue(LoadBalancers.create(RoundRobinLoadBalancer.class.getName()) instanceof RoundRobinLoadBalancer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownBalancer() {
+        LoadBalancers.create("fastest");
+    }
+}
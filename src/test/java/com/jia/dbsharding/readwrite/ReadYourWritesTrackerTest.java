@@ -0,0 +1,54 @@
+package com.jia.dbsharding.readwrite;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadYourWritesTrackerTest {
+
+    private final Replica replica = new Replica("slave0", 1);
+    private final ReplicaGroup group = new ReplicaGroup("ds0", Collections.singletonList(replica),
+            new RoundRobinLoadBalancer());
+    private final ReadWriteRouter router = new ReadWriteRouter(Collections.singletonList(group));
+
+    @Test
+    public void readsMasterWithinWindowAfterWrite() throws InterruptedException {
+        ReadYourWritesTracker tracker = new ReadYourWritesTracker(router, 100, 0);
+        assertFalse(tracker.requiresMaster("user:1", "ds0"));
+
+        tracker.markWritten("user:1");
+        // 没有检测复制延迟，整个窗口内都读主库
+        assertTrue(tracker.requiresMaster("user:1", "ds0"));
+        assertFalse(tracker.requiresMaster("user:2", "ds0"));
+
+        Thread.sleep(150);
+        assertFalse(tracker.requiresMaster("user:1", "ds0"));
+    }
+
+    @Test
+    public void returnsToReplicaOnceItHasCaughtUp() throws InterruptedException {
+        replica.setLagMillis(0);
+        group.refresh(1000);
+        ReadYourWritesTracker tracker = new ReadYourWritesTracker(router, 60000, 50);
+
+        tracker.markWritten("user:1");
+        assertTrue(tracker.requiresMaster("user:1", "ds0"));
+        // 超过 复制延迟 + 检测间隔 后不用等窗口结束
+        Thread.sleep(100);
+        assertFalse(tracker.requiresMaster("user:1", "ds0"));
+    }
+
+    @Test
+    public void staysOnMasterWhileReplicaLags() throws InterruptedException {
+        replica.setLagMillis(500);
+        group.refresh(1000);
+        ReadYourWritesTracker tracker = new ReadYourWritesTracker(router, 60000, 50);
+
+        tracker.markWritten("user:1");
+        Thread.sleep(100);
+        assertTrue(tracker.requiresMaster("user:1", "ds0"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.jia.dbsharding.readwrite;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplicaGroupTest {
+
+    private final Replica fresh = new Replica("slave0", 1);
+    private final Replica lagging = new Replica("slave1", 1);
+    private final Replica unknown = new Replica("slave2", 1);
+    private final ReplicaGroup group = new ReplicaGroup("ds0", Arrays.asList(fresh, lagging, unknown),
+            new RoundRobinLoadBalancer());
+
+    @Test
+    public void withoutLagLimitEveryReplicaServesReads() {
+        lagging.setLagMillis(60000);
+        group.refresh();
+        assertEquals(Arrays.asList(fresh, lagging, unknown), group.getAvailable());
+        assertEquals(-1, group.getMaxLagMillis());
+    }
+
+    @Test
+    public void excludesLaggingAndUnknownReplicas() {
+        fresh.setLagMillis(200);
+        lagging.setLagMillis(5000);
+        group.refresh(1000);
+
+        assertEquals(Collections.singletonList(fresh), group.getAvailable());
+        assertEquals(200, group.getMaxLagMillis());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("slave0", group.routeRead());
+        }
+
+        // 追上之后重新参与读请求
+        lagging.setLagMillis(800);
+        unknown.setLagMillis(0);
+        group.refresh(1000);
+        assertEquals(Arrays.asList(fresh, lagging, unknown), group.getAvailable());
+        assertEquals(800, group.getMaxLagMillis());
+    }
+
+    @Test
+    public void readsMasterWhenEveryReplicaLags() {
+        fresh.setLagMillis(2000);
+        lagging.setLagMillis(5000);
+        group.refresh(1000);
+
+        assertEquals(Collections.emptyList(), group.getAvailable());
+        assertEquals(-1, group.getMaxLagMillis());
+        assertEquals("ds0", group.routeRead());
+    }
+
+    @Test
+    public void ejectedReplicaIsSkippedAndFallbackTriesTheRest() {
+        fresh.setLagMillis(0);
+        lagging.setLagMillis(0);
+        unknown.setLagMillis(0);
+        lagging.setEjected(true);
+        group.refresh(1000);
+
+        assertEquals(Arrays.asList(fresh, unknown), group.getAvailable());
+        assertEquals("slave2", group.fallbackRead(Collections.singleton("slave0")));
+        assertEquals("ds0", group.fallbackRead(new HashSet<>(Arrays.asList("slave0", "slave2"))));
+    }
+}
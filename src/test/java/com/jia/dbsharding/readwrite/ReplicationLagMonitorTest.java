@@ -0,0 +1,71 @@
+package com.jia.dbsharding.readwrite;
+
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplicationLagMonitorTest {
+
+    /**
+     * SHOW SLAVE STATUS 返回 Seconds_Behind_Master，null 表示复制线程停止
+     */
+    private static DataSource slave(Long secondsBehindMaster) throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        ResultSet rs = mock(ResultSet.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.executeQuery("SHOW SLAVE STATUS")).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getLong("Seconds_Behind_Master")).thenReturn(secondsBehindMaster == null ? 0 : secondsBehindMaster);
+        when(rs.wasNull()).thenReturn(secondsBehindMaster == null);
+        return dataSource;
+    }
+
+    @Test
+    public void measuresLagAndExcludesReplicasBehindTheLimit() throws SQLException {
+        Replica fresh = new Replica("slave0", 1);
+        Replica lagging = new Replica("slave1", 1);
+        Replica stopped = new Replica("slave2", 1);
+        Replica down = new Replica("slave3", 1);
+        ReplicaGroup group = new ReplicaGroup("ds0", Arrays.asList(fresh, lagging, stopped, down),
+                new RoundRobinLoadBalancer());
+        ReadWriteRouter router = new ReadWriteRouter(Collections.singletonList(group));
+
+        Map<String, DataSource> dataSources = new HashMap<>();
+        dataSources.put("slave0", slave(0L));
+        dataSources.put("slave1", slave(30L));
+        dataSources.put("slave2", slave(null));
+        DataSource unreachable = mock(DataSource.class);
+        when(unreachable.getConnection()).thenThrow(new SQLException("connect timed out"));
+        dataSources.put("slave3", unreachable);
+
+        ReplicationLagMonitor monitor = new ReplicationLagMonitor(router, dataSources::get, 1000, 500);
+        try {
+            monitor.check();
+        } finally {
+            monitor.close();
+        }
+
+        assertEquals(0, fresh.getLagMillis());
+        assertEquals(30000, lagging.getLagMillis());
+        assertEquals(-1, stopped.getLagMillis());
+        assertEquals(-1, down.getLagMillis());
+        assertEquals(Collections.singletonList(fresh), group.getAvailable());
+        assertEquals(0, router.maxLagMillis("ds0"));
+        assertEquals("slave0", router.routeRead("ds0"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.jia.dbsharding.readwrite;
+
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TrackedDataSourceTest {
+
+    @Test
+    public void countsBorrowedConnectionsOnceEvenWhenClosedConcurrently() throws Exception {
+        DataSource target = mock(DataSource.class);
+        Connection raw = mock(Connection.class);
+        when(target.getConnection()).thenReturn(raw);
+        Replica replica = new Replica("slave0", 1);
+        TrackedDataSource dataSource = new TrackedDataSource(target, replica);
+
+        for (int round = 0; round < 100; round++) {
+            Connection connection = dataSource.getConnection();
+            assertEquals(1, replica.getActive());
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] closers = new Thread[4];
+            for (int i = 0; i < closers.length; i++) {
+                closers[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                        connection.close();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                closers[i].start();
+            }
+            start.countDown();
+            for (Thread closer : closers) {
+                closer.join();
+            }
+            assertEquals(0, replica.getActive());
+        }
+        assertTrue(replica.getEwmaNanos() > 0);
+        verify(raw, times(400)).close();
+    }
+}
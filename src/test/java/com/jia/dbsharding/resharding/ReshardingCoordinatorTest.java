@@ -0,0 +1,308 @@
+package com.jia.dbsharding.resharding;
+
+import com.jia.dbsharding.config.ShardingProperties;
+import com.jia.dbsharding.entity.Checksum;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.sharding.ModShardingAlgorithm;
+import com.jia.dbsharding.sharding.ShardBloomFilter;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.ShardingTarget;
+import com.jia.dbsharding.sharding.TableRule;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReshardingCoordinatorTest {
+
+    /**
+     * 内存中的分片表，key 为 数据源.表名，由 ShardingContext 决定访问哪张表
+     */
+    static class InMemoryMapper implements DBMapper {
+
+        final Map<String, NavigableMap<Integer, DBEntity>> tables = new ConcurrentHashMap<>();
+
+        NavigableMap<Integer, DBEntity> table() {
+            return tables.computeIfAbsent(ShardingContext.get().toString(), k -> new ConcurrentSkipListMap<>());
+        }
+
+        String name(String table, int id) {
+            DBEntity row = tables.get(table).get(id);
+            return row == null ? null : row.getName();
+        }
+
+        @Override
+        public void insertName(Integer id, String name) {
+            table().put(id, entity(id, name));
+        }
+
+        @Override
+        public void insertBatch(List<DBEntity> rows) {
+            rows.forEach(row -> table().put(row.getId(), entity(row.getId(), row.getName())));
+        }
+
+        @Override
+        public DBEntity selectName(Integer id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<DBEntity> selectByIds(List<Integer> ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<DBEntity> selectByName(String name, long afterId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<DBEntity> selectAfter(long afterId, int limit) {
+            List<DBEntity> rows = new ArrayList<>();
+            for (DBEntity row : table().tailMap((int) Math.max(afterId, Integer.MIN_VALUE), false).values()) {
+                if (rows.size() == limit) {
+                    break;
+                }
+                rows.add(entity(row.getId(), row.getName()));
+            }
+            return rows;
+        }
+
+        @Override
+        public List<Long> selectIdsAfter(long afterId, int limit) {
+            List<Long> ids = new ArrayList<>();
+            for (DBEntity row : selectAfter(afterId, limit)) {
+                ids.add((long) row.getId());
+            }
+            return ids;
+        }
+
+        @Override
+        public void upsertBatch(List<DBEntity> rows) {
+            insertBatch(rows);
+        }
+
+        /**
+         * 按 SQL 的写法单独计算：COUNT(*)、SUM(CRC32(CONCAT(id, '|', IFNULL(name, ''))))
+         */
+        @Override
+        public Checksum checksumByIds(List<Integer> ids) {
+            long total = 0;
+            long sum = 0;
+            CRC32 crc = new CRC32();
+            for (Integer id : ids) {
+                DBEntity row = table().get(id);
+                if (row != null) {
+                    total++;
+                    crc.reset();
+                    crc.update((id + "|" + (row.getName() == null ? "" : row.getName())).getBytes(StandardCharsets.UTF_8));
+                    sum += crc.getValue();
+                }
+            }
+            Checksum checksum = new Checksum();
+            checksum.setTotal(total);
+            checksum.setCrc(sum);
+            return checksum;
+        }
+    }
+
+    private static DBEntity entity(int id, String name) {
+        DBEntity entity = new DBEntity();
+        entity.setId(id);
+        entity.setName(name);
+        return entity;
+    }
+
+    private final ShardingRule rule = new ShardingRule(Collections.singletonList(
+            new TableRule("user", "id", Collections.singletonList("ds0"), 2, new ModShardingAlgorithm())));
+    private final TableRule newRule = new TableRule("user", "id", Arrays.asList("ds0", "ds1"), 4, new ModShardingAlgorithm());
+    private ReshardingCoordinator coordinator;
+
+    @After
+    public void tearDown() {
+        if (coordinator != null) {
+            coordinator.close();
+        }
+    }
+
+    private void insertUsers(InMemoryMapper mapper, IntFunction<String> name) {
+        for (int id = 1; id <= 100; id++) {
+            ShardingContext.set(rule.route("user", id));
+            mapper.insertName(id, name.apply(id));
+        }
+        ShardingContext.clear();
+    }
+
+    private void start(InMemoryMapper mapper, int rowsPerSecond) {
+        ShardingProperties.ReshardingProperty property = new ShardingProperties.ReshardingProperty();
+        property.setBatchSize(7);
+        property.setRowsPerSecond(rowsPerSecond);
+        property.setStartDelayMillis(0);
+        coordinator = new ReshardingCoordinator(rule, mapper, () -> Arrays.asList("ds0", "ds1"), property);
+        coordinator.start(newRule);
+    }
+
+    @Test
+    public void backfillsVerifiesAndFlips() throws Exception {
+        InMemoryMapper mapper = new InMemoryMapper();
+        insertUsers(mapper, id -> "user" + id);
+        start(mapper, 100000);
+        awaitPhase(ReshardingCoordinator.Phase.READY);
+
+        coordinator.flip();
+        assertEquals(ReshardingCoordinator.Phase.DONE, coordinator.progress().get("phase"));
+        for (int id = 1; id <= 100; id++) {
+            ShardingTarget target = rule.route("user", id);
+            assertEquals("user" + id, mapper.name(target.toString(), id));
+        }
+        assertEquals(25, mapper.tables.get("ds1.user_3").size());
+        assertNull(rule.getPendingRule("user"));
+    }
+
+    @Test
+    public void nullNamesChecksumLikeSql() throws Exception {
+        InMemoryMapper mapper = new InMemoryMapper();
+        insertUsers(mapper, id -> id % 3 == 0 ? null : "user" + id);
+        start(mapper, 100000);
+        awaitPhase(ReshardingCoordinator.Phase.READY);
+
+        // Java 和 SQL 的校验和一致，不会把 name 为 null 的批次当成不一致重新复制
+        assertEquals(0L, coordinator.progress().get("repairedRows"));
+        assertEquals(0L, coordinator.progress().get("mismatches"));
+        assertNull(mapper.name("ds1.user_3", 3));
+    }
+
+    @Test
+    public void repairsBatchesThatDriftedDuringBackfill() throws Exception {
+        AtomicInteger drops = new AtomicInteger(1);
+        InMemoryMapper mapper = new InMemoryMapper() {
+            @Override
+            public void upsertBatch(List<DBEntity> rows) {
+                List<DBEntity> kept = new ArrayList<>(rows);
+                if (drops.getAndDecrement() > 0) {
+                    kept.remove(0);
+                }
+                super.upsertBatch(kept);
+            }
+        };
+        insertUsers(mapper, id -> "user" + id);
+        start(mapper, 100000);
+        awaitPhase(ReshardingCoordinator.Phase.READY);
+
+        assertTrue((Long) coordinator.progress().get("repairedRows") > 0);
+        assertEquals(0L, coordinator.progress().get("mismatches"));
+    }
+
+    @Test
+    public void mismatchThatSurvivesRepairFailsMigration() throws Exception {
+        InMemoryMapper mapper = new InMemoryMapper() {
+            @Override
+            public void upsertBatch(List<DBEntity> rows) {
+                List<DBEntity> kept = new ArrayList<>();
+                rows.forEach(row -> kept.add(entity(row.getId(), row.getId() == 14 ? "corrupted" : row.getName())));
+                super.upsertBatch(kept);
+            }
+        };
+        insertUsers(mapper, id -> "user" + id);
+        start(mapper, 100000);
+        awaitPhase(ReshardingCoordinator.Phase.FAILED);
+
+        assertEquals(1L, coordinator.progress().get("mismatches"));
+        assertTrue(coordinator.progress().get("error").toString().contains("不一致"));
+        // 失败后仍然双写，不能切换
+        assertEquals(newRule, rule.getPendingRule("user"));
+        try {
+            coordinator.flip();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void cancelStopsBackfillAndDoubleWrites() throws Exception {
+        InMemoryMapper mapper = new InMemoryMapper();
+        insertUsers(mapper, id -> "user" + id);
+        start(mapper, 20);
+        Thread.sleep(100);
+        coordinator.cancel();
+
+        assertEquals(ReshardingCoordinator.Phase.CANCELLED, coordinator.progress().get("phase"));
+        assertNull(rule.getPendingRule("user"));
+        // 限速等待结束后后台任务退出，不再读取
+        Thread.sleep(400);
+        Object scanned = coordinator.progress().get("scannedRows");
+        Thread.sleep(600);
+        assertEquals(scanned, coordinator.progress().get("scannedRows"));
+        // 放弃后可以重新开始
+        coordinator.setThrottle(100000, 7);
+        coordinator.start(newRule);
+        awaitPhase(ReshardingCoordinator.Phase.READY);
+    }
+
+    @Test
+    public void bloomFilterKnowsRowsMovedIntoReusedTables() throws Exception {
+        InMemoryMapper mapper = new InMemoryMapper();
+        insertUsers(mapper, id -> "user" + id);
+        ShardBloomFilter filter = new ShardBloomFilter(rule, "user", 1000, 0.0001);
+        try {
+            filter.build((target, afterId, limit) -> {
+                ShardingContext.set(target);
+                try {
+                    return mapper.selectIdsAfter(afterId, limit);
+                } finally {
+                    ShardingContext.clear();
+                }
+            }, 10, 2);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (((Map<?, ?>) filter.stats().get("tables")).values().stream()
+                    .anyMatch(table -> "BUILDING".equals(String.valueOf(((Map<?, ?>) table).get("state"))))) {
+                assertTrue("Bloom 过滤器没有构建完成", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+
+            // mod 2 改为 mod 3，新规则沿用 user_0、user_1，例如 3 从 user_1 迁到 user_0
+            ShardingProperties.ReshardingProperty property = new ShardingProperties.ReshardingProperty();
+            property.setBatchSize(7);
+            property.setRowsPerSecond(100000);
+            property.setStartDelayMillis(0);
+            coordinator = new ReshardingCoordinator(rule, mapper, () -> Collections.singletonList("ds0"), property);
+            coordinator.addCopyListener(rows -> rows.forEach(row -> filter.put(row.getId())));
+            coordinator.start(new TableRule("user", "id", Collections.singletonList("ds0"), 3, new ModShardingAlgorithm()));
+            awaitPhase(ReshardingCoordinator.Phase.READY);
+            coordinator.flip();
+
+            for (int id = 1; id <= 100; id++) {
+                assertEquals("user" + id, mapper.name(rule.route("user", id).toString(), id));
+                assertTrue("id " + id + " 被误判为不存在", filter.mightContain(id));
+            }
+            assertEquals(0L, filter.stats().get("rejected"));
+        } finally {
+            filter.close();
+        }
+    }
+
+    private void awaitPhase(ReshardingCoordinator.Phase phase) throws InterruptedException {
+        for (int i = 0; i < 100 && coordinator.progress().get("phase") != phase; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(phase, coordinator.progress().get("phase"));
+    }
+}
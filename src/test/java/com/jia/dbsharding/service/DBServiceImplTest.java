@@ -0,0 +1,161 @@
+package com.jia.dbsharding.service;
+
+import com.jia.dbsharding.batch.InsertCoalescer;
+import com.jia.dbsharding.cache.TwoLevelCache;
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.id.IdGenerator;
+import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.readwrite.ReadWriteRouter;
+import com.jia.dbsharding.readwrite.ReadYourWritesTracker;
+import com.jia.dbsharding.sharding.ModShardingAlgorithm;
+import com.jia.dbsharding.sharding.ShardBloomFilter;
+import com.jia.dbsharding.sharding.ShardingExecutor;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.TableRule;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DBServiceImplTest {
+
+    private final DBMapper mapper = mock(DBMapper.class);
+    private final TwoLevelCache cache = mock(TwoLevelCache.class);
+    private final ShardingRule rule = new ShardingRule(Collections.singletonList(
+            new TableRule("user", "id", Arrays.asList("ds0", "ds1"), 2, new ModShardingAlgorithm())));
+    private final ShardingExecutor executor = new ShardingExecutor(1, 4, 1000);
+    private final ReadYourWritesTracker writeTracker =
+            new ReadYourWritesTracker(new ReadWriteRouter(Collections.emptyList()), 60000, 1000);
+    private final DBServiceImpl service = new DBServiceImpl(mapper, cache, rule, mock(IdGenerator.class), writeTracker, executor,
+            DBServiceImplTest.<InsertCoalescer<DBEntity>>absent(), DBServiceImplTest.<ShardBloomFilter>absent());
+
+    @SuppressWarnings("unchecked")
+    private static <T> ObjectProvider<T> absent() {
+        return mock(ObjectProvider.class);
+    }
+
+    @After
+    public void tearDown() {
+        executor.close();
+        DataSourceHolder.pop();
+    }
+
+    private static DBEntity entity(int id) {
+        DBEntity entity = new DBEntity();
+        entity.setId(id);
+        entity.setName("name-" + id);
+        return entity;
+    }
+
+    @Test
+    public void listMergesShardsInIdOrderAndReadsOnlyLimitRowsPerShard() {
+        when(mapper.selectAfter(2, 2)).thenReturn(Arrays.asList(entity(4), entity(6)),
+                Arrays.asList(entity(3), entity(5)));
+        assertEquals(Arrays.asList(entity(3), entity(4)), service.list(2, 2));
+        verify(mapper, times(2)).selectAfter(2, 2);
+    }
+
+    @Test
+    public void selectByNameIsPagedPerShard() {
+        when(mapper.selectByName("a", 0, 3)).thenReturn(Arrays.asList(entity(2), entity(4), entity(6)),
+                Arrays.asList(entity(1), entity(3), entity(5)));
+        assertEquals(Arrays.asList(entity(1), entity(2), entity(3)), service.selectByName("a", 0, 3));
+    }
+
+    @Test
+    public void pagingRejectsInvalidLimits() {
+        for (int limit : new int[]{0, -5, DBServiceImpl.MAX_PAGE_SIZE + 1}) {
+            try {
+                service.list(0, limit);
+                fail(String.valueOf(limit));
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                service.selectByName("a", 0, limit);
+                fail(String.valueOf(limit));
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        verify(mapper, never()).selectAfter(anyLong(), anyInt());
+        verify(mapper, never()).selectByName(anyString(), anyLong(), anyInt());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void readAfterOwnWriteGoesToPrimary() {
+        when(cache.get(anyString(), any(Supplier.class))).thenAnswer(invocation -> ((Supplier<Object>) invocation.getArgument(1)).get());
+        when(cache.getFresh(anyString(), any(Supplier.class))).thenAnswer(invocation -> ((Supplier<Object>) invocation.getArgument(1)).get());
+        List<Boolean> readOnly = new ArrayList<>();
+        when(mapper.selectName(anyInt())).thenAnswer(invocation -> {
+            readOnly.add(DataSourceHolder.isReadOnly());
+            return entity(invocation.getArgument(0));
+        });
+        writeTracker.markWritten(DBServiceImpl.key(1));
+
+        // @RoutingDataSource(readOnly = true) 压入的路由
+        DataSourceHolder.push(Route.of("masterDB", true));
+        service.select(1);
+        DataSourceHolder.pop();
+        DataSourceHolder.push(Route.of("masterDB", true));
+        service.select(2);
+
+        // 刚写过的 id 读主库，并且不和其它线程共享加载结果，其它 id 照常读从库
+        assertEquals(Arrays.asList(false, true), readOnly);
+        verify(cache).getFresh(eq(DBServiceImpl.key(1)), any(Supplier.class));
+        verify(cache).get(eq(DBServiceImpl.key(2)), any(Supplier.class));
+    }
+
+    @Test
+    public void selectBatchKeepsRequestOrderWithDuplicatesAndMissingIds() {
+        Map<String, Object> cached = new HashMap<>();
+        cached.put(DBServiceImpl.key(2), entity(2));
+        when(cache.getAll(anyList())).thenReturn(cached);
+        when(mapper.selectByIds(Arrays.asList(5, 9, 1))).thenReturn(Arrays.asList(entity(1), entity(5)));
+
+        assertEquals(Arrays.asList(entity(5), entity(2), entity(5), null, entity(1)),
+                service.selectBatch(Arrays.asList(5, 2, 5, 9, 1)));
+        // 重复的 id 只读一次缓存、只查一次数据库
+        verify(cache).getAll(Arrays.asList("user:5", "user:2", "user:9", "user:1"));
+        verify(mapper).selectByIds(Arrays.asList(5, 9, 1));
+    }
+
+    @Test
+    public void selectBatchRejectsNullIdsAndOversizedBatches() {
+        List<Integer> tooMany = new ArrayList<>();
+        for (int id = 0; id <= DBServiceImpl.MAX_BATCH_SIZE; id++) {
+            tooMany.add(id);
+        }
+        for (List<Integer> ids : Arrays.asList(Arrays.asList(1, null, 2), tooMany)) {
+            try {
+                service.selectBatch(ids);
+                fail(String.valueOf(ids.size()));
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        verify(cache, never()).getAll(anyList());
+        verify(mapper, never()).selectByIds(anyList());
+    }
+}
@@ -0,0 +1,202 @@
+package com.jia.dbsharding.service;
+
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.ShardingProperties;
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.mapper.DBMapper;
+import com.jia.dbsharding.sharding.ModShardingAlgorithm;
+import com.jia.dbsharding.sharding.ShardStreamer;
+import com.jia.dbsharding.sharding.ShardingContext;
+import com.jia.dbsharding.sharding.ShardingRule;
+import com.jia.dbsharding.sharding.ShardingTarget;
+import com.jia.dbsharding.sharding.TableRule;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ExportServiceTest {
+
+    private final ShardingRule rule = new ShardingRule(Collections.singletonList(
+            new TableRule("user", "id", Arrays.asList("ds0", "ds1"), 2, new ModShardingAlgorithm())));
+    private final ShardStreamer streamer = new ShardStreamer(2, 1, 4, 1000);
+
+    @After
+    public void tearDown() {
+        streamer.close();
+    }
+
+    private static DBEntity entity(Integer id, String name) {
+        DBEntity entity = new DBEntity();
+        entity.setId(id);
+        entity.setName(name);
+        return entity;
+    }
+
+    private static ExportService service(DBMapper mapper, ShardingRule rule, ShardStreamer streamer, int batchSize) {
+        ShardingProperties properties = new ShardingProperties();
+        properties.getExport().setBatchSize(batchSize);
+        return new ExportService(mapper, rule, streamer, properties);
+    }
+
+    @Test
+    public void exportsEveryTableFromReplicasInBatches() throws IOException {
+        List<String> routes = new CopyOnWriteArrayList<>();
+        DBMapper mapper = mock(DBMapper.class);
+        when(mapper.selectAfter(anyLong(), anyInt())).thenAnswer(invocation -> {
+            ShardingTarget target = ShardingContext.get();
+            routes.add(DataSourceHolder.getDB() + ":" + DataSourceHolder.isReadOnly() + ":" + target);
+            int table = Integer.parseInt(target.getTable().substring("user_".length()));
+            long afterId = invocation.getArgument(0);
+            List<DBEntity> rows = new ArrayList<>();
+            for (DBEntity row : Arrays.asList(entity(table + 1, "user" + (table + 1)), entity(table + 3, "a,b"))) {
+                if (row.getId() > afterId && rows.size() < (int) invocation.getArgument(1)) {
+                    rows.add(row);
+                }
+            }
+            return rows;
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rows = service(mapper, rule, streamer, 1).exportUsers(ExportService.Format.CSV, out);
+
+        assertEquals(4, rows);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\r\n");
+        assertEquals("id,name", lines[0]);
+        List<String> body = new ArrayList<>(Arrays.asList(lines).subList(1, lines.length));
+        Collections.sort(body);
+        assertEquals(Arrays.asList("1,user1", "2,user2", "3,\"a,b\"", "4,\"a,b\""), body);
+        // 每张表在自己分片的从库上按批读取，最后一批为空
+        Collections.sort(routes);
+        assertEquals(Arrays.asList("ds0:true:ds0.user_0", "ds0:true:ds0.user_0", "ds0:true:ds0.user_0",
+                "ds1:true:ds1.user_1", "ds1:true:ds1.user_1", "ds1:true:ds1.user_1"), routes);
+    }
+
+    @Test
+    public void stalledClientDoesNotHoldConnections() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger queries = new AtomicInteger();
+        DBMapper mapper = mock(DBMapper.class);
+        // 每张表 100 万行，每次查询期间视为占用一个连接
+        when(mapper.selectAfter(anyLong(), anyInt())).thenAnswer(invocation -> {
+            inFlight.incrementAndGet();
+            queries.incrementAndGet();
+            try {
+                long afterId = Math.max(invocation.getArgument(0), 0L);
+                List<DBEntity> rows = new ArrayList<>();
+                for (long id = afterId + 1; id <= 1000000 && rows.size() < (int) invocation.getArgument(1); id++) {
+                    rows.add(entity((int) id, "user" + id));
+                }
+                return rows;
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        ShardStreamer stalling = new ShardStreamer(2, 1, 4, 200);
+        try {
+            ExportService service = service(mapper, rule, stalling, 10);
+            Thread exporter = new Thread(() -> {
+                try {
+                    service.exportUsers(ExportService.Format.CSV, new OutputStream() {
+                        @Override
+                        public void write(int b) throws IOException {
+                            stalled.countDown();
+                            try {
+                                resume.await();
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                    });
+                } catch (Exception ignored) {
+                    // 读取线程放弃后导出失败
+                }
+            });
+            exporter.start();
+            assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+            // 客户端卡住超过 stallTimeoutMillis 后读取线程放弃，期间和之后都不占用连接
+            Thread.sleep(600);
+            int settled = queries.get();
+            Thread.sleep(300);
+            assertEquals(0, inFlight.get());
+            assertEquals(settled, queries.get());
+            assertTrue("读取线程没有停下：" + queries.get(), queries.get() < 20);
+            resume.countDown();
+            exporter.join(5000);
+            assertFalse(exporter.isAlive());
+        } finally {
+            resume.countDown();
+            stalling.close();
+        }
+    }
+
+    @Test
+    public void writesNdjson() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShardStreamer.RowWriter<DBEntity> writer = ExportService.ndjson(out);
+        writer.write(entity(1, "张三"));
+        writer.write(entity(2, "say \"hi\"\n"));
+        writer.write(entity(null, null));
+        writer.flush();
+
+        assertEquals("{\"id\":1,\"name\":\"张三\"}\n{\"id\":2,\"name\":\"say \\\"hi\\\"\\n\"}\n{\"name\":null}\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writesCsvWithHeader() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShardStreamer.RowWriter<DBEntity> writer = ExportService.csv(out);
+        writer.write(entity(1, "张三"));
+        writer.write(entity(2, "line1\nline2"));
+        writer.write(entity(3, null));
+        writer.flush();
+
+        assertEquals("id,name\r\n1,张三\r\n2,\"line1\nline2\"\r\n3,\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void quotesCsvFieldsPerRfc4180() {
+        assertEquals("", ExportService.quote(null));
+        assertEquals("", ExportService.quote(""));
+        assertEquals("plain", ExportService.quote("plain"));
+        assertEquals("\"a,b\"", ExportService.quote("a,b"));
+        assertEquals("\"say \"\"hi\"\"\"", ExportService.quote("say \"hi\""));
+        assertEquals("\"a\nb\"", ExportService.quote("a\nb"));
+        assertEquals("\"a\rb\"", ExportService.quote("a\rb"));
+    }
+
+    @Test
+    public void parsesFormatNames() {
+        assertEquals(ExportService.Format.CSV, ExportService.Format.of("CSV"));
+        assertEquals(ExportService.Format.NDJSON, ExportService.Format.of("ndjson"));
+        try {
+            ExportService.Format.of("xlsx");
+            throw new AssertionError();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("xlsx"));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.jia.dbsharding.sharding;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardBloomFilterTest {
+
+    private final ShardingRule rule = new ShardingRule(Collections.singletonList(
+            new TableRule("user", "id", Arrays.asList("ds0", "ds1"), 2, new ModShardingAlgorithm())));
+    private final ShardBloomFilter filter = new ShardBloomFilter(rule, "user", 1000, 0.001);
+
+    @After
+    public void tearDown() {
+        filter.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void awaitBuilt() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Map<String, Object>> tables = (Map<String, Map<String, Object>>) filter.stats().get("tables");
+            if (tables.values().stream().noneMatch(table -> "BUILDING".equals(String.valueOf(table.get("state"))))) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Bloom 过滤器没有构建完成");
+    }
+
+    @Test
+    public void rejectsMissingIdsOnceBuiltAndFailsOpenOnBrokenShard() throws InterruptedException {
+        // user_0 在 ds0 上有 0, 2, 4 ... 98，user_1 所在的 ds1 不可用
+        filter.build((target, afterId, limit) -> {
+            if (target.getDataSource().equals("ds1")) {
+                throw new IllegalStateException("ds1 不可用");
+            }
+            List<Long> ids = new ArrayList<>();
+            for (long id = Math.max(0, afterId + 1); id < 100 && ids.size() < limit; id++) {
+                if (id % 2 == 0) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        }, 7, 2);
+        awaitBuilt();
+
+        assertTrue(filter.mightContain(42));
+        assertFalse(filter.mightContain(1000));
+        // 构建失败的分片不过滤
+        assertTrue(filter.mightContain(1001));
+
+        filter.put(1000);
+        assertTrue(filter.mightContain(1000));
+        assertEquals(1L, filter.stats().get("rejected"));
+    }
+}
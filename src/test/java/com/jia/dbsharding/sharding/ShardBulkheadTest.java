@@ -0,0 +1,89 @@
+package com.jia.dbsharding.sharding;
+
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardBulkheadTest {
+
+    private final List<String> dataSources = new CopyOnWriteArrayList<>(Arrays.asList("ds0", "ds1"));
+    private final ShardBulkhead bulkhead = new ShardBulkhead(() -> dataSources, 1, 1);
+
+    @After
+    public void tearDown() {
+        bulkhead.close();
+    }
+
+    @Test
+    public void propagatesCallerRouteAndCleansUp() throws Exception {
+        DataSourceHolder.push(Route.of("masterDB", true));
+        try {
+            assertEquals("masterDB:true", bulkhead.submit("ds0",
+                    () -> DataSourceHolder.getDB() + ":" + DataSourceHolder.isReadOnly()).get());
+        } finally {
+            DataSourceHolder.pop();
+        }
+        // 同一个工作线程上的下一个任务看不到上一个调用方的路由
+        assertNull(bulkhead.submit("ds0", DataSourceHolder::getDB).get());
+    }
+
+    @Test
+    public void rejectsWhenShardIsSaturatedWithoutAffectingOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = bulkhead.submit("ds0", () -> await(release));
+        CompletableFuture<Object> queued = bulkhead.submit("ds0", () -> await(release));
+        CompletableFuture<Object> rejected = bulkhead.submit("ds0", () -> "never");
+
+        try {
+            rejected.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals("ok", bulkhead.submit("ds1", () -> "ok").get());
+
+        release.countDown();
+        running.get();
+        queued.get();
+    }
+
+    @Test
+    public void followsTopologyReload() throws Exception {
+        // 重新加载后新增 ds2、删除 ds1
+        dataSources.add("ds2");
+        dataSources.remove("ds1");
+
+        assertEquals("ok", bulkhead.submit("ds2", () -> "ok").get());
+        try {
+            bulkhead.submit("ds1", () -> "never");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("ds1"));
+        }
+        assertEquals(Arrays.asList("ds0", "ds2"), new ArrayList<>(bulkhead.stats().keySet()));
+    }
+
+    private static Object await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
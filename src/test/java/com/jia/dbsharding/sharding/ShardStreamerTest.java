@@ -0,0 +1,215 @@
+package com.jia.dbsharding.sharding;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardStreamerTest {
+
+    private final List<ShardingTarget> targets = Arrays.asList(
+            new ShardingTarget("ds0", "user_0"), new ShardingTarget("ds0", "user_1"), new ShardingTarget("ds1", "user_2"));
+    private final ShardStreamer streamer = new ShardStreamer(2, 2, 4, 200);
+
+    @After
+    public void tearDown() {
+        streamer.close();
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("等待超时");
+        }
+    }
+
+    private static class ListWriter implements ShardStreamer.RowWriter<Integer> {
+        private final List<Integer> rows = new ArrayList<>();
+
+        @Override
+        public void write(Integer row) throws IOException {
+            rows.add(row);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    @Test
+    public void streamsEveryShardThroughSmallQueue() throws IOException {
+        ListWriter writer = new ListWriter();
+        long rows = streamer.stream(targets, (target, sink) -> {
+            int base = Integer.parseInt(target.getTable().substring("user_".length())) * 1000;
+            for (int i = 0; i < 500; i++) {
+                sink.accept(base + i);
+            }
+        }, writer);
+
+        assertEquals(1500, rows);
+        assertEquals(1500, writer.rows.size());
+        assertEquals(1500, writer.rows.stream().distinct().count());
+    }
+
+    @Test
+    public void failedShardFailsTheExport() throws IOException {
+        try {
+            streamer.stream(targets, (target, sink) -> {
+                if (target.getTable().equals("user_2")) {
+                    throw new IllegalStateException("ds1 不可用");
+                }
+                sink.accept(1);
+            }, new ListWriter());
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("user_2"));
+        }
+    }
+
+    @Test
+    public void readersStopWhenClientFails() throws InterruptedException {
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        try {
+            streamer.stream(targets, (target, sink) -> {
+                started.incrementAndGet();
+                running.incrementAndGet();
+                try {
+                    for (int i = 0; ; i++) {
+                        sink.accept(i);
+                    }
+                } finally {
+                    running.decrementAndGet();
+                }
+            }, new ShardStreamer.RowWriter<Integer>() {
+                @Override
+                public void write(Integer row) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+
+                @Override
+                public void flush() {
+                }
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("Broken pipe", e.getMessage());
+        }
+        // 已经开始读取的表都会退出，还在排队的表不再读取
+        long deadline = System.currentTimeMillis() + 5000;
+        while (running.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(started.get() > 0);
+        assertEquals(0, running.get());
+    }
+
+    @Test
+    public void givesUpWhenReadersStopProducing() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        try {
+            streamer.stream(targets.subList(0, 1), (target, sink) -> {
+                sink.accept(1);
+                try {
+                    // 数据库卡住，一直不返回下一行
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }, new ListWriter());
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("没有读到数据"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        // 放弃时取消读取线程，释放连接
+        await(interrupted);
+    }
+
+    @Test
+    public void limitsReadersPerExport() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<ShardingTarget> many = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            many.add(new ShardingTarget("ds" + i % 2, "user_" + i));
+        }
+        long rows = streamer.stream(many, (target, sink) -> {
+            peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                sink.accept(1);
+            } finally {
+                running.decrementAndGet();
+            }
+        }, new ListWriter());
+        assertEquals(8, rows);
+        assertTrue(peak.get() <= 2);
+    }
+
+    @Test
+    public void slowExportDoesNotDelayOthersAndExcessExportsAreRejected() throws Exception {
+        ShardStreamer limited = new ShardStreamer(1, 2, 4, 5000);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowReading = new CountDownLatch(1);
+        Thread slow = new Thread(() -> {
+            try {
+                limited.stream(targets, (target, sink) -> {
+                    slowReading.countDown();
+                    await(release);
+                    sink.accept(1);
+                }, new ListWriter());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            slow.start();
+            await(slowReading);
+            // 慢导出只占用自己的一个读取线程，另一个导出照常完成，期间第三个导出被拒绝
+            CountDownLatch otherReading = new CountDownLatch(1);
+            CountDownLatch otherRelease = new CountDownLatch(1);
+            AtomicInteger otherRows = new AtomicInteger(-1);
+            Thread other = new Thread(() -> {
+                try {
+                    otherRows.set((int) limited.stream(targets, (target, sink) -> {
+                        otherReading.countDown();
+                        await(otherRelease);
+                        sink.accept(1);
+                    }, new ListWriter()));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            other.start();
+            await(otherReading);
+            try {
+                limited.stream(targets, (target, sink) -> sink.accept(1), new ListWriter());
+                fail();
+            } catch (RejectedExecutionException expected) {
+            }
+            otherRelease.countDown();
+            other.join(5000);
+            assertEquals(3, otherRows.get());
+            assertTrue(slow.isAlive());
+        } finally {
+            release.countDown();
+            slow.join(5000);
+            limited.close();
+        }
+        // 导出结束后释放名额
+        assertFalse(slow.isAlive());
+    }
+}
@@ -0,0 +1,101 @@
+package com.jia.dbsharding.sharding;
+
+import com.jia.dbsharding.config.DataSourceHolder;
+import com.jia.dbsharding.config.Route;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardingExecutorTest {
+
+    private final ShardingTarget user0 = new ShardingTarget("ds0", "user_0");
+    private final ShardingTarget user1 = new ShardingTarget("ds0", "user_1");
+    private final ShardingTarget user2 = new ShardingTarget("ds1", "user_2");
+    private final ShardingExecutor executor = new ShardingExecutor(1, 1, 200);
+
+    @After
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void propagatesRouteAndShardingContextToWorkers() {
+        DataSourceHolder.push(Route.of("masterDB", true));
+        try {
+            List<String> results = executor.execute(Arrays.asList(user0, user2), target ->
+                    DataSourceHolder.getDB() + ":" + DataSourceHolder.isReadOnly() + ":" + ShardingContext.get());
+            assertEquals(Arrays.asList("masterDB:true:" + user0, "masterDB:true:" + user2), results);
+        } finally {
+            DataSourceHolder.pop();
+        }
+        // 工作线程执行完后清理，上一个调用方的路由不会带到下一个查询
+        List<String> next = executor.execute(Collections.singletonList(user0), target -> DataSourceHolder.getDB());
+        assertEquals(Collections.singletonList(null), next);
+    }
+
+    @Test
+    public void rejectsWhenDataSourcePoolIsSaturated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread blocker = new Thread(() -> executor.execute(Collections.singletonList(user0), target -> {
+            started.countDown();
+            return await(release);
+        }));
+        blocker.start();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        try {
+            // ds0 一个线程在忙、队列只能放一个，第二个任务被拒绝
+            executor.execute(Arrays.asList(user0, user1), target -> "never");
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        // 其它数据源不受影响
+        assertEquals(Collections.singletonList("ok"), executor.execute(Collections.singletonList(user2), target -> "ok"));
+        release.countDown();
+        blocker.join(1000);
+    }
+
+    @Test
+    public void timesOutAndCancelsSlowShards() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            executor.execute(Arrays.asList(user0, user2), target -> {
+                if (target == user2) {
+                    return "fast";
+                }
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "slow";
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("分片查询超时", e.getMessage());
+        }
+        // 超时后取消还在执行的分片查询
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        assertNull(ShardingContext.get());
+    }
+
+    private static Object await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
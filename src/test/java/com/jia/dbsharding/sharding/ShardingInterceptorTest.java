@@ -0,0 +1,153 @@
+package com.jia.dbsharding.sharding;
+
+import com.jia.dbsharding.entity.DBEntity;
+import com.jia.dbsharding.mapper.DBMapper;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardingInterceptorTest {
+
+    private static final int TABLES = 4;
+
+    private final JdbcDataSource h2 = new JdbcDataSource();
+    private final ShardingRule rule = new ShardingRule(Collections.singletonList(
+            new TableRule("user", "id", Arrays.asList("ds0", "ds1"), TABLES, new ModShardingAlgorithm())));
+    private final ShardingExecutor executor = new ShardingExecutor(1, 4, 1000);
+    private Configuration configuration;
+    private DBMapper mapper;
+
+    @Before
+    public void setUp() throws SQLException {
+        h2.setURL("jdbc:h2:mem:sharding-interceptor;DB_CLOSE_DELAY=-1");
+        try (Connection connection = h2.getConnection(); Statement statement = connection.createStatement()) {
+            for (int table = 0; table < TABLES; table++) {
+                statement.execute("DROP TABLE IF EXISTS user_" + table);
+                statement.execute("CREATE TABLE user_" + table + " (id INT PRIMARY KEY, name VARCHAR(20) NOT NULL)");
+            }
+        }
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), h2));
+        configuration.addInterceptor(new ShardingInterceptor(rule, executor, 1024));
+        configuration.addMapper(DBMapper.class);
+        mapper = SqlSessionManager.newInstance(new SqlSessionFactoryBuilder().build(configuration))
+                .getMapper(DBMapper.class);
+    }
+
+    @After
+    public void tearDown() {
+        ShardingContext.clear();
+        executor.close();
+    }
+
+    private List<Integer> idsIn(String table) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection connection = h2.getConnection(); Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT id FROM " + table + " ORDER BY id")) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void routesSingleShardStatementsToPhysicalTables() throws SQLException {
+        for (int id = 1; id <= 8; id++) {
+            mapper.insertName(id, "user" + id);
+        }
+        assertEquals(Arrays.asList(4, 8), idsIn("user_0"));
+        assertEquals(Arrays.asList(3, 7), idsIn("user_3"));
+        assertEquals("user6", mapper.selectName(6).getName());
+    }
+
+    @Test
+    public void scattersInListAcrossTablesAndMergesRows() throws SQLException {
+        for (int id = 1; id <= 8; id++) {
+            mapper.insertName(id, "user" + id);
+        }
+        List<DBEntity> rows = new ArrayList<>(mapper.selectByIds(Arrays.asList(1, 2, 3, 6, 8, 9)));
+        rows.sort(Comparator.comparing(DBEntity::getId));
+        List<Integer> ids = new ArrayList<>();
+        rows.forEach(row -> ids.add(row.getId()));
+        // 9 不存在，其余每个分片只查自己的值
+        assertEquals(Arrays.asList(1, 2, 3, 6, 8), ids);
+        assertEquals("user8", rows.get(4).getName());
+    }
+
+    @Test
+    public void callerShardingContextOverridesParsedRouting() throws SQLException {
+        ShardingContext.set(rule.route("user", 0));
+        mapper.insertName(1, "moved");
+        // 分片键 1 本来落在 user_1，调用方指定的目标优先
+        assertEquals(Collections.singletonList(1), idsIn("user_0"));
+        assertTrue(idsIn("user_1").isEmpty());
+        assertEquals("moved", mapper.selectName(1).getName());
+
+        ShardingContext.clear();
+        assertNull(mapper.selectName(1));
+    }
+
+    @Test
+    public void rejectsWritesSpanningShards() throws SQLException {
+        try {
+            mapper.insertBatch(Arrays.asList(entity(1), entity(2)));
+            fail();
+        } catch (PersistenceException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getCause().getMessage().contains("只有查询可以拆分"));
+        }
+        for (int table = 0; table < TABLES; table++) {
+            assertTrue(idsIn("user_" + table).isEmpty());
+        }
+        // 同一个分片的批量写入照常执行
+        mapper.insertBatch(Arrays.asList(entity(1), entity(5)));
+        assertEquals(Arrays.asList(1, 5), idsIn("user_1"));
+    }
+
+    @Test
+    public void buildsBoundSqlOncePerQuery() {
+        mapper.insertName(2, "user2");
+        MappedStatement ms = configuration.getMappedStatement(DBMapper.class.getName() + ".selectName");
+        SqlSource sqlSource = ms.getSqlSource();
+        AtomicInteger builds = new AtomicInteger();
+        SystemMetaObject.forObject(ms).setValue("sqlSource", (SqlSource) parameter -> {
+            builds.incrementAndGet();
+            return sqlSource.getBoundSql(parameter);
+        });
+        assertEquals("user2", mapper.selectName(2).getName());
+        assertEquals(1, builds.get());
+    }
+
+    private static DBEntity entity(int id) {
+        DBEntity entity = new DBEntity();
+        entity.setId(id);
+        entity.setName("user" + id);
+        return entity;
+    }
+}
@@ -0,0 +1,33 @@
+package com.jia.dbsharding.sharding;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardingMergerTest {
+
+    private final List<List<Integer>> shards = Arrays.asList(
+            Arrays.asList(1, 4, 7, 10),
+            Collections.<Integer>emptyList(),
+            Arrays.asList(2, 5, 8),
+            Arrays.asList(3, 6, 9, 11, 12));
+
+    @Test
+    public void mergesShardsInOrder() {
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12),
+                ShardingMerger.mergeSorted(shards, Comparator.naturalOrder(), 0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void appliesOffsetAndLimitAfterMerging() {
+        assertEquals(Arrays.asList(5, 6, 7),
+                ShardingMerger.mergeSorted(shards, Comparator.naturalOrder(), 4, 3));
+        assertEquals(Arrays.asList(11, 12),
+                ShardingMerger.mergeSorted(shards, Comparator.naturalOrder(), 10, 5));
+    }
+}
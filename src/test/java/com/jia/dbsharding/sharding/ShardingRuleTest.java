@@ -0,0 +1,74 @@
+package com.jia.dbsharding.sharding;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardingRuleTest {
+
+    private static TableRule userRule(ShardingAlgorithm algorithm) {
+        return new TableRule("user", "id", Arrays.asList("ds0", "ds1", "ds2", "ds3"), 16, algorithm);
+    }
+
+    @Test
+    public void modRoutesTablesInOrderAcrossDataSources() {
+        ShardingRule rule = new ShardingRule(Collections.singletonList(userRule(new ModShardingAlgorithm())));
+
+        assertEquals(new ShardingTarget("ds0", "user_0"), rule.route("user", 16));
+        assertEquals(new ShardingTarget("ds1", "user_5"), rule.route("user", 5));
+        assertEquals(new ShardingTarget("ds3", "user_15"), rule.route("user", 31));
+    }
+
+    @Test
+    public void hashSpreadsSequentialIdsOverAllTables() {
+        TableRule rule = userRule(new HashShardingAlgorithm());
+        Set<ShardingTarget> targets = new HashSet<>();
+        for (int id = 0; id < 1000; id++) {
+            targets.add(rule.route(id));
+        }
+        assertEquals(16, targets.size());
+    }
+
+    @Test
+    public void rangeKeepsContiguousIdsTogether() {
+        TableRule rule = userRule(new RangeShardingAlgorithm(100));
+
+        assertEquals(new ShardingTarget("ds0", "user_0"), rule.route(99));
+        assertEquals(new ShardingTarget("ds0", "user_1"), rule.route(100));
+        assertEquals(new ShardingTarget("ds3", "user_15"), rule.route(1599));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rangeRejectsIdsOutsideConfiguredRange() {
+        userRule(new RangeShardingAlgorithm(100)).route(1600);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnevenTableDistribution() {
+        new TableRule("user", "id", Arrays.asList("ds0", "ds1", "ds2"), 16, new ModShardingAlgorithm());
+    }
+
+    @Test
+    public void migrationWritesToBothRulesUntilCompleted() {
+        ShardingRule rule = new ShardingRule(Collections.singletonList(
+                new TableRule("user", "id", Collections.singletonList("ds0"), 2, new ModShardingAlgorithm())));
+        rule.startMigration(new TableRule("user", "id", Arrays.asList("ds0", "ds1"), 4, new ModShardingAlgorithm()));
+
+        // 新旧规则落在同一张表时只写一次
+        assertEquals(1, rule.routeWrite("user", 4).length);
+        ShardingTarget[] targets = rule.routeWrite("user", 3);
+        assertEquals(new ShardingTarget("ds0", "user_1"), targets[0]);
+        assertEquals(new ShardingTarget("ds1", "user_3"), targets[1]);
+        // 读仍然按旧规则
+        assertEquals(new ShardingTarget("ds0", "user_1"), rule.route("user", 3));
+
+        rule.completeMigration("user");
+        assertEquals(new ShardingTarget("ds1", "user_3"), rule.route("user", 3));
+        assertEquals(1, rule.routeWrite("user", 3).length);
+    }
+}
@@ -0,0 +1,60 @@
+package com.jia.dbsharding.sharding;
+
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SqlTemplateTest {
+
+    private static final Function<String, String> USER = table -> "user".equals(table) ? "id" : null;
+
+    @Test
+    public void rewritesLogicTableAndFindsEqualsCondition() {
+        SqlTemplate template = SqlTemplate.parse("SELECT id, name FROM user WHERE name = ? AND id = ?", USER);
+
+        assertEquals("user", template.getLogicTable());
+        assertArrayEquals(new int[]{1}, template.getShardingParameters());
+        assertFalse(template.isSplittable());
+        assertEquals("SELECT id, name FROM user_3 WHERE name = ? AND id = ?", template.render("user_3"));
+    }
+
+    @Test
+    public void splitsInListPerShard() {
+        SqlTemplate template = SqlTemplate.parse("SELECT id, name FROM `user` WHERE id IN ( ? , ?,? ) ORDER BY id", USER);
+
+        assertArrayEquals(new int[]{0, 1, 2}, template.getShardingParameters());
+        assertTrue(template.isSplittable());
+        assertEquals("SELECT id, name FROM `user` WHERE id IN (?, ?) ORDER BY id", template.renderIn(2));
+        assertEquals("SELECT id, name FROM user_1 WHERE id IN ( ? , ?,? ) ORDER BY id", template.render("user_1"));
+    }
+
+    @Test
+    public void findsShardingColumnOfEveryInsertedRow() {
+        SqlTemplate template = SqlTemplate.parse("INSERT INTO user (name, id) values (?, ?) , (?, ?)"
+                + " ON DUPLICATE KEY UPDATE name = VALUES(name)", USER);
+
+        assertArrayEquals(new int[]{1, 3}, template.getShardingParameters());
+        assertEquals("INSERT INTO user_0 (name, id) values (?, ?) , (?, ?) ON DUPLICATE KEY UPDATE name = VALUES(name)",
+                template.render("user_0"));
+    }
+
+    @Test
+    public void ignoresConditionsThatCannotBeRouted() {
+        assertNull(SqlTemplate.parse("SELECT id FROM user WHERE id > ? ORDER BY id LIMIT ?", USER).getShardingParameters());
+        assertNull(SqlTemplate.parse("SELECT id FROM user WHERE id = ? OR name = ?", USER).getShardingParameters());
+        assertNull(SqlTemplate.parse("SELECT id FROM user WHERE name = 'id = ?' AND name = ?", USER).getShardingParameters());
+    }
+
+    @Test
+    public void leavesOtherTablesAlone() {
+        assertSame(SqlTemplate.NONE, SqlTemplate.parse("SELECT id FROM user_info WHERE id = ?", USER));
+        assertSame(SqlTemplate.NONE, SqlTemplate.parse("SELECT 'from user' FROM dual", USER));
+    }
+}
@@ -0,0 +1,26 @@
+package com.jia.dbsharding.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    @Test
+    public void neverMissesInsertedAndKeepsFalsePositiveRateNearFpp() {
+        BloomFilter filter = new BloomFilter(100000, 0.01);
+        for (long id = 1; id <= 100000; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= 100000; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        int falsePositives = 0;
+        for (long id = 100001; id <= 200000; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("误判率过高：" + falsePositives, falsePositives < 1500);
+    }
+}
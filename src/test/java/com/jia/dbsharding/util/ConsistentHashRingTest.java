@@ -0,0 +1,106 @@
+package com.jia.dbsharding.util;
+
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 100000;
+
+    private static ConsistentHashRing<String> ring(int nodes) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < nodes; i++) {
+            map.put("cache-" + i, "cache-" + i);
+        }
+        return new ConsistentHashRing<>(map, 160);
+    }
+
+    @Test
+    public void spreadsKeysEvenly() {
+        ConsistentHashRing<String> ring = ring(4);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.get("user:" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("分布不均匀：" + counts, Math.abs(count - KEYS / 4) < KEYS / 4 * 0.2);
+        }
+    }
+
+    @Test
+    public void movesOnlyKeysOfAddedOrRemovedNode() {
+        ConsistentHashRing<String> before = ring(4);
+        ConsistentHashRing<String> added = before.with("cache-4", "cache-4");
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user:" + i;
+            String from = before.get(key);
+            String to = added.get(key);
+            if (!from.equals(to)) {
+                // 只会换到新节点上
+                assertEquals("cache-4", to);
+                moved++;
+            }
+            if (!"cache-4".equals(to)) {
+                assertEquals(from, added.without("cache-4").get(key));
+            }
+        }
+        assertTrue("换节点的 key 太多：" + moved, Math.abs(moved - KEYS / 5) < KEYS / 5 * 0.2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void groupsMultiGetByNode() {
+        Map<String, RedisTemplate<String, Object>> nodes = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> stores = new HashMap<>();
+        Map<String, String> names = new LinkedHashMap<>();
+        for (String name : Arrays.asList("cache-0", "cache-1", "cache-2")) {
+            Map<String, Object> store = new HashMap<>();
+            RedisTemplate<String, Object> template = mock(RedisTemplate.class);
+            ValueOperations<String, Object> ops = mock(ValueOperations.class);
+            when(template.opsForValue()).thenReturn(ops);
+            when(ops.multiGet(anyCollection())).thenAnswer(invocation -> {
+                List<Object> values = new ArrayList<>();
+                for (Object key : (List<Object>) invocation.getArgument(0)) {
+                    values.add(store.get(key));
+                }
+                return values;
+            });
+            nodes.put(name, template);
+            stores.put(name, store);
+            names.put(name, name);
+        }
+        RedisTemplateUtil redis = new RedisTemplateUtil(nodes.get("cache-0"), nodes, 160);
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(names, 160);
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String key = "user:" + i;
+            keys.add(key);
+            if (i % 2 == 0) {
+                stores.get(ring.get(key)).put(key, i);
+            }
+        }
+
+        List<Object> values = redis.mGet(keys);
+        assertEquals(keys.size(), values.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i % 2 == 0 ? i : null, values.get(i));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.jia.dbsharding.util;
+
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RedisTemplateUtilTest {
+
+    private static final String KEY = "sharding:id:user";
+
+    @SuppressWarnings("unchecked")
+    private static RedisTemplate<String, Object> node(ValueOperations<String, Object> values) {
+        RedisTemplate<String, Object> template = mock(RedisTemplate.class);
+        when(template.opsForValue()).thenReturn(values);
+        return template;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void counterStaysOnDefaultNodeAndCatchesUpWithRingNodes() {
+        ValueOperations<String, Object> defaultValues = mock(ValueOperations.class);
+        ValueOperations<String, Object> cacheValues = mock(ValueOperations.class);
+        ValueOperations<String, Object> emptyValues = mock(ValueOperations.class);
+        RedisTemplate<String, Object> defaultNode = node(defaultValues);
+        RedisTemplate<String, Object> cache0 = node(cacheValues);
+        RedisTemplate<String, Object> cache1 = node(emptyValues);
+        when(cache0.hasKey(KEY)).thenReturn(true);
+        when(cache1.hasKey(KEY)).thenReturn(false);
+        // 旧版本把计数器放在了 cache-0 上，已经发到 5000
+        when(cacheValues.increment(KEY, 0)).thenReturn(5000L);
+        when(defaultValues.increment(KEY, 0)).thenReturn(1000L);
+        when(defaultValues.increment(KEY, 4000)).thenReturn(5000L);
+        when(defaultValues.increment(KEY, 100)).thenReturn(5100L);
+
+        Map<String, RedisTemplate<String, Object>> nodes = new LinkedHashMap<>();
+        nodes.put("cache-0", cache0);
+        nodes.put("cache-1", cache1);
+        RedisTemplateUtil redis = new RedisTemplateUtil(defaultNode, nodes, 160);
+
+        assertEquals(5000, redis.raiseDefaultCounterToNodes(KEY));
+        assertEquals(Long.valueOf(5100), redis.incrementOnDefaultNode(KEY, 100));
+        // 哈希环的节点增减不影响计数器
+        redis.removeNode("cache-0");
+        redis.addNode("cache-2", node(mock(ValueOperations.class)));
+        redis.incrementOnDefaultNode(KEY, 100);
+        // 哈希环的节点只读取过一次旧值（INCRBY 0）
+        verify(cacheValues).increment(anyString(), anyLong());
+        verify(emptyValues, never()).increment(anyString(), anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void counterIsNeverLoweredByRingNodes() {
+        ValueOperations<String, Object> defaultValues = mock(ValueOperations.class);
+        ValueOperations<String, Object> cacheValues = mock(ValueOperations.class);
+        RedisTemplate<String, Object> cache0 = node(cacheValues);
+        when(cache0.hasKey(KEY)).thenReturn(true);
+        when(cacheValues.increment(KEY, 0)).thenReturn(10L);
+        when(defaultValues.increment(KEY, 0)).thenReturn(9000L);
+
+        RedisTemplateUtil redis = new RedisTemplateUtil(node(defaultValues),
+                Collections.singletonMap("cache-0", cache0), 160);
+
+        assertEquals(9000, redis.raiseDefaultCounterToNodes(KEY));
+        verify(defaultValues, never()).increment(KEY, -8990);
+    }
+}